@@ -1,25 +1,53 @@
 package lab4.client;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
+import lab4.common.BinaryProtocol;
 import lab4.common.Board;
+import lab4.common.BoardDelta;
 import lab4.common.JsonUtil;
+import lab4.common.LineBuffer;
+import lab4.common.StreamCompression;
+import lab4.common.TaskThreads;
 
 /**
  * Simple line-based connection to server.
+ * Optionally negotiates a compressed stream from the server ({@link StreamCompression})
+ * and the compact binary protocol ({@link BinaryProtocol}).
  */
 public class ClientConnection {
     /** Socket used for communication with the server */
     private final Socket socket;
-    /** Input stream used to receive data from the server */
-    private final BufferedReader in;
+    /** Input stream used to receive data from the server (inflating after COMPRESS) */
+    private DataInputStream in;
+    /** Buffered byte stream of the socket (binary frames) */
+    private final OutputStream rawOut;
     /** Output stream used to send data to the server */
     private final PrintWriter out;
+    /** Serializes sends from the UI and the listener; a lock, so a virtual listener thread is not pinned */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Whether the server compresses what it sends */
+    private boolean compressed = false;
+    /** Whether the server accepted the binary protocol */
+    private volatile boolean binary = false;
+    /** Lines received while negotiating, delivered when listening starts */
+    private final List<String> pending = new ArrayList<>();
+    /** Board the next full board is decoded into; handed to the handler only after a successful decode */
+    private Board scratch;
+    /** Version of the last board passed to the handler, -1 if unknown */
+    private long boardVersion = -1;
+    /** Whether a SYNC was sent and the full board has not arrived yet */
+    private boolean syncRequested = false;
 
     /**
      * Creates a new connection to the server with the given host and port.
@@ -29,18 +57,108 @@ public class ClientConnection {
      * @throws IOException if the connection cannot be established
      */
     public ClientConnection(String host, int port) throws IOException {
+        this(host, port, false);
+    }
+
+    /**
+     * Creates a new connection and optionally negotiates the binary protocol.
+     * If the server does not support it, the connection stays in text mode.
+     *
+     * @param host server address
+     * @param port server port number
+     * @param useBinary true to request the binary protocol
+     * @throws IOException if the connection cannot be established
+     */
+    public ClientConnection(String host, int port, boolean useBinary) throws IOException {
+        this(host, port, useBinary, false);
+    }
+
+    /**
+     * Creates a new connection and optionally negotiates compression and the binary protocol.
+     * Options the server does not support are skipped.
+     *
+     * @param host server address
+     * @param port server port number
+     * @param useBinary true to request the binary protocol
+     * @param useCompression true to request a compressed stream from the server
+     * @throws IOException if the connection cannot be established
+     */
+    public ClientConnection(String host, int port, boolean useBinary, boolean useCompression) throws IOException {
         socket = new Socket(host, port); // tworzymy nowy socket i do niego mamy in i out (z niego)
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        rawOut = new BufferedOutputStream(socket.getOutputStream());
+        out = new PrintWriter(new OutputStreamWriter(rawOut), true);
+        // najpierw kompresja: jej potwierdzenie musi byc zwykla linia tekstu
+        if (useCompression && negotiate(StreamCompression.NEGOTIATE)) {
+            in = new DataInputStream(StreamCompression.inflating(in)); // bajty juz zbuforowane w in tez sa skompresowane
+            compressed = true;
+        }
+        if (useBinary) binary = negotiate(BinaryProtocol.NEGOTIATE);
+    }
+
+    /**
+     * Sends a negotiation line and waits until the server repeats it.
+     * Text lines that arrive before it (INFO, START...) are kept for the listener.
+     *
+     * @param request line to send, also the expected acknowledgement
+     * @return true if acknowledged, false if the server rejected it (old server) or closed the connection
+     * @throws IOException if reading fails
+     */
+    private boolean negotiate(String request) throws IOException {
+        out.println(request);
+        String command = request.substring(0, request.indexOf(' '));
+        String line;
+        while ((line = BinaryProtocol.readLine(in)) != null) {
+            if (line.equals(request)) return true;
+            if (line.startsWith("ERROR Unknown command: [" + command + "]")) return false; // stary serwer -> bez tej opcji
+            if (line.startsWith("ERROR Unsupported")) return false;
+            pending.add(line);
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the connection uses the binary protocol.
+     *
+     * @return true if negotiated
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Returns whether the server sends a compressed stream.
+     *
+     * @return true if negotiated
+     */
+    public boolean isCompressed() {
+        return compressed;
     }
 
     /**
      * Sends a single line of text to the server.
+     * In binary mode the command is sent as the matching frame.
      *
      * @param line text line to be sent
      */
     public void sendLine(String line) {
-        out.println(line); // wypisuje line do strumienia out; czyli wysyla tekst do serwera !!!!
+        lock.lock();
+        try {
+            if (binary) {
+                try {
+                    rawOut.write(BinaryProtocol.encodeCommand(line));
+                    rawOut.flush();
+                } catch (IOException e) {
+                    System.err.println("Send failed: " + e.getMessage());
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Bad command: " + e.getMessage());
+                }
+                return;
+            }
+            out.println(line); // wypisuje line do strumienia out; czyli wysyla tekst do serwera !!!!
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -57,52 +175,196 @@ public class ClientConnection {
      * Starts listening for messages from the server in a separate thread.
      * Received messages are interpreted and forwarded to appropriate
      * methods of the MessageHandler.
+     * <p>
+     * Asks the server for BOARD_DELTA messages; deltas are passed to the handler
+     * only in version order, after a gap a full board is requested with SYNC.
+     * A server without deltas rejects the request; that error is not passed on, the server
+     * simply keeps sending full boards.
+     * <p>
+     * Then joins the server's default queue (QUEUE without arguments) instead of waiting
+     * until the server puts the player there itself; an older server pairs on connect and rejects it.
      *
      * @param handler object responsible for handling server messages
      */
     public void startListening(MessageHandler handler) {
-        new Thread(() -> {
+        sendLine("DELTAS");
+        sendLine("QUEUE");
+        TaskThreads.shared().start("ServerListener", () -> { // zwykly albo wirtualny watek (-Dlab4.threads=virtual)
             try {
-                String line;
-                while ((line = in.readLine()) != null) { //odbierane linie (z serwera)
-                    if (line.startsWith("START ")) {
-                        handler.onStart(Integer.parseInt(line.substring(6).trim()));
-                    } else if (line.startsWith("BOARD ")) {
-                        try {
-                            Board b = JsonUtil.jsonToBoard(line.substring(6).trim());
-                            handler.onBoard(b);
-                        } catch (Exception e) {
-                            System.err.println("Failed parse BOARD JSON: " + e.getMessage());
-                        }
-                    } else if (line.equals("YOUR_TURN")) {
-                        handler.onYourTurn();
-                    } else if (line.equals("OPPONENT_TURN")) {
-                        handler.onOpponentTurn();
-                    } else if (line.equals("AGREEMENT_ON")) {
-                        handler.onstoppedForAgreement();
-                    } else if (line.equals("AGREEMENT_OFF")) {
-                        handler.offstoppedForAgreement();
-                    } else if (line.startsWith("WYNIKI1 ")) {
-                        int value = Integer.parseInt(line.substring(8));
-                        handler.wynikiPierwszego(value);
-                    } else if (line.startsWith("WYNIKI2 ")) {
-                        int value = Integer.parseInt(line.substring(8));
-                        handler.wynikiDrugiego(value);
-                    }
-                    else if (line.startsWith("INFO ")) {
-                        handler.onInfo(line.substring(5));
-                    } else if (line.startsWith("ERROR ")) {
-                        handler.onError(line.substring(6));
-                    } else if (line.startsWith("GAME_OVER")) {
-                        handler.onGameOver(line.substring(9).trim());
-                    } else {
-                        handler.onUnknown(line);
-                    }
+                for (String line : pending) dispatchLine(line, handler);
+                pending.clear();
+                if (binary) {
+                    byte[] frame = new byte[BinaryProtocol.MAX_FRAME];
+                    int len;
+                    while ((len = BinaryProtocol.readFrame(in, frame)) >= 0) dispatchFrame(frame, len, handler);
+                } else {
+                    LineBuffer line = new LineBuffer(); // jeden bufor na wszystkie linie, plansza dekodowana wprost z bajtow
+                    while (line.readLine(in)) dispatchLine(line, handler); //odbierane linie (z serwera)
                 }
             } catch (IOException e) {
                 handler.onDisconnect();
             }
-        }, "ServerListener").start();
+        });
+    }
+
+    /**
+     * Interprets one line of the text protocol.
+     *
+     * @param received received line
+     * @param handler object responsible for handling server messages
+     */
+    private void dispatchLine(CharSequence received, MessageHandler handler) {
+        // plansze dekodujemy bez tworzenia Stringa
+        if (startsWith(received, "BOARD ")) {
+            try {
+                Board b = scratchBoard(JsonUtil.peekBoardSize(received, 6));
+                long version = JsonUtil.decodeBoard(received, 6, b);
+                onFullBoard(b, version, handler);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Failed parse BOARD JSON: " + e.getMessage());
+            }
+            return;
+        }
+        if (startsWith(received, "BOARD_DELTA ")) {
+            try {
+                onDelta(JsonUtil.decodeDelta(received, 12), handler);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Failed parse BOARD_DELTA JSON: " + e.getMessage());
+            }
+            return;
+        }
+
+        String line = received.toString();
+        if (line.startsWith("START ")) {
+            handler.onStart(Integer.parseInt(line.substring(6).trim()));
+        } else if (line.equals("YOUR_TURN")) {
+            handler.onYourTurn();
+        } else if (line.equals("OPPONENT_TURN")) {
+            handler.onOpponentTurn();
+        } else if (line.equals("AGREEMENT_ON")) {
+            handler.onstoppedForAgreement();
+        } else if (line.equals("AGREEMENT_OFF")) {
+            handler.offstoppedForAgreement();
+        } else if (line.startsWith("WYNIKI1 ")) {
+            int value = Integer.parseInt(line.substring(8));
+            handler.wynikiPierwszego(value);
+        } else if (line.startsWith("WYNIKI2 ")) {
+            int value = Integer.parseInt(line.substring(8));
+            handler.wynikiDrugiego(value);
+        }
+        else if (line.startsWith("INFO ")) {
+            handler.onInfo(line.substring(5));
+        } else if (line.startsWith("ERROR ")) {
+            onErrorLine(line.substring(6), handler);
+        } else if (line.startsWith("GAME_OVER")) {
+            handler.onGameOver(line.substring(9).trim());
+        } else {
+            handler.onUnknown(line);
+        }
+    }
+
+    private static boolean startsWith(CharSequence s, String prefix) {
+        if (s.length() < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the board to decode a full board into. A board given to the handler is not reused,
+     * the one left by a failed decode is (every decode overwrites all points).
+     *
+     * @param size board size
+     * @return scratch board of that size
+     */
+    private Board scratchBoard(int size) {
+        if (scratch == null || scratch.size != size) scratch = new Board(size);
+        return scratch;
+    }
+
+    /**
+     * Passes a fully decoded board to the handler and remembers its version.
+     * From now on the board belongs to the handler; the next one is decoded into a new instance.
+     *
+     * @param b received board
+     * @param version its snapshot version (-1 if the server sent none)
+     * @param handler object responsible for handling server messages
+     */
+    private void onFullBoard(Board b, long version, MessageHandler handler) {
+        scratch = null;
+        boardVersion = version;
+        syncRequested = false;
+        handler.onBoard(b);
+    }
+
+    /**
+     * Passes an error to the handler, except the rejection of DELTAS or QUEUE by an older server.
+     *
+     * @param msg error message without the ERROR prefix
+     * @param handler object responsible for handling server messages
+     */
+    private void onErrorLine(String msg, MessageHandler handler) {
+        if (msg.startsWith("Unknown command: [DELTAS]")) return; // stary serwer: dalej pelne plansze
+        if (msg.startsWith("Unknown command: [QUEUE]")) return; // stary serwer paruje od razu po polaczeniu
+        handler.onError(msg);
+    }
+
+    /**
+     * Passes a delta to the handler if it directly follows the last board;
+     * older deltas are dropped, after a gap the full board is requested.
+     *
+     * @param d received delta
+     * @param handler object responsible for handling server messages
+     */
+    private void onDelta(BoardDelta d, MessageHandler handler) {
+        if (boardVersion >= 0 && d.version == boardVersion + 1) {
+            boardVersion = d.version;
+            handler.onBoardDelta(d);
+        } else if (d.version > boardVersion && !syncRequested) {
+            syncRequested = true; // zgubilismy zmiane -> prosimy o cala plansze
+            sendLine("SYNC");
+        }
+    }
+
+    /**
+     * Interprets one frame of the binary protocol.
+     *
+     * @param frame frame body (opcode at index 0)
+     * @param len length of the body
+     * @param handler object responsible for handling server messages
+     */
+    private void dispatchFrame(byte[] frame, int len, MessageHandler handler) {
+        switch (frame[0] & 0xFF) {
+            case BinaryProtocol.START: handler.onStart(frame[1] & 0xFF); break;
+            case BinaryProtocol.BOARD:
+                try {
+                    Board b = scratchBoard(frame[1] & 0xFF);
+                    BinaryProtocol.readBoard(frame, len, b);
+                    onFullBoard(b, BinaryProtocol.readBoardVersion(frame), handler);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Failed parse BOARD frame: " + e.getMessage());
+                }
+                break;
+            case BinaryProtocol.BOARD_DELTA:
+                try {
+                    onDelta(BinaryProtocol.readDelta(frame, len), handler);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Failed parse BOARD_DELTA frame: " + e.getMessage());
+                }
+                break;
+            case BinaryProtocol.YOUR_TURN: handler.onYourTurn(); break;
+            case BinaryProtocol.OPPONENT_TURN: handler.onOpponentTurn(); break;
+            case BinaryProtocol.AGREEMENT_ON: handler.onstoppedForAgreement(); break;
+            case BinaryProtocol.AGREEMENT_OFF: handler.offstoppedForAgreement(); break;
+            case BinaryProtocol.WYNIKI1: handler.wynikiPierwszego(BinaryProtocol.readInt(frame)); break;
+            case BinaryProtocol.WYNIKI2: handler.wynikiDrugiego(BinaryProtocol.readInt(frame)); break;
+            case BinaryProtocol.INFO: handler.onInfo(BinaryProtocol.readText(frame, len)); break;
+            case BinaryProtocol.ERROR: onErrorLine(BinaryProtocol.readText(frame, len), handler); break;
+            case BinaryProtocol.GAME_OVER: handler.onGameOver(BinaryProtocol.readText(frame, len)); break;
+            case BinaryProtocol.TEXT: dispatchLine(BinaryProtocol.readText(frame, len), handler); break;
+            default: handler.onUnknown("opcode " + (frame[0] & 0xFF));
+        }
     }
 
     /**
@@ -125,10 +387,19 @@ public class ClientConnection {
         void onStart(int myId);
         /**
          * Called when the current board state is received.
+         * Every full board is a new, completely decoded instance that the connection never
+         * changes afterwards, so the handler may hand it to another thread (e.g. the Swing event thread).
          *
          * @param b object representing the board
          */
         void onBoard(Board b);
+        /**
+         * Called when a move changed the board; the delta directly follows
+         * the board (or delta) passed before, so it can be applied to a local copy.
+         *
+         * @param d change made by the move
+         */
+        void onBoardDelta(BoardDelta d);
         /** Indicates that it is the current player's turn */
         void onYourTurn();
          /** Indicates that it is the opponent's turn */
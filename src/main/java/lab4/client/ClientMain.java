@@ -3,8 +3,10 @@ package lab4.client;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 
 import lab4.common.Board;
+import lab4.common.BoardDelta;
 import lab4.common.JsonUtil;
 import lab4.common.Move;
 
@@ -12,6 +14,7 @@ import lab4.common.Move;
  * Console client:
  * - commands: row col  (MOVE), PASS, RESIGN, quit/exit
  * - trims and uppercases commands, so PASS/Resign/move are robust against whitespace/case
+ * - argument --binary requests the compact binary protocol, --compress a compressed stream
  */
 public class ClientMain
 {
@@ -20,18 +23,20 @@ public class ClientMain
      * Establishes a connection to the server, sets up message handling,
      * and processes user input from the console.
      *
-     * @param args command-line arguments (not used)
+     * @param args command-line arguments ({@code --binary} to use the binary protocol, {@code --compress} for compression)
      * @throws IOException if an I/O error occurs while reading input
      */
      public static void main(String[] args) throws IOException
      {
         String host = "localhost";
         int port = 55555;
+        boolean binary = Arrays.asList(args).contains("--binary");
+        boolean compress = Arrays.asList(args).contains("--compress");
 
         final ClientConnection conn;
         try
         {
-            conn = new ClientConnection(host, port);
+            conn = new ClientConnection(host, port, binary, compress);
         } catch (IOException e) {
             System.err.println("Failed to connect: " + e.getMessage());
             return;
@@ -49,6 +54,8 @@ public class ClientMain
          * index 1 – second player
          */
         final int[] wyniki = {0,0}; // 0 indeks -> zbite 1 gracza; 1 indeks -> zbite 2 gracza (do uzycia pozniej w gui)
+        /** Local copy of the board, updated by BOARD_DELTA messages */
+        final Board[] board = {null};
 
         conn.startListening(new ClientConnection.MessageHandler() {
             @Override
@@ -61,10 +68,20 @@ public class ClientMain
             @Override
             public void onBoard(Board b)
             {
+                board[0] = b;
                 System.out.println("--- BOARD ---");
                 System.out.println(b.toString());
             }
 
+            @Override
+            public void onBoardDelta(BoardDelta d)
+            {
+                if (board[0] == null) return;
+                d.applyTo(board[0]);
+                System.out.println("--- BOARD ---");
+                System.out.println(board[0].toString());
+            }
+
             @Override
             public void onYourTurn()
             {
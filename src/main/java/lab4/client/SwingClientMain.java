@@ -29,6 +29,7 @@ import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
 
 import lab4.common.Board;
+import lab4.common.BoardDelta;
 import lab4.common.JsonUtil;
 import lab4.common.Move;
 
@@ -53,7 +54,7 @@ public class SwingClientMain {
     private boolean stoppedForAgreement = false;
     /** Stores captured stones count for both players */
     private final int[] wyniki = {0, 0};
-    /** Current board state */
+    /** Current board state (read and changed only on the Swing event thread) */
     private Board board;
 
     // Swing
@@ -276,8 +277,20 @@ public class SwingClientMain {
             }
 
             @Override public void onBoard(Board b) {
-                board = b;
-                boardPanel.repaint(); // wywołuje PaintComponent
+                // podmiana tez w watku Swinga, po deltach czekajacych do starej planszy
+                SwingUtilities.invokeLater(() -> {
+                    board = b;
+                    boardPanel.repaint(); // wywołuje PaintComponent
+                });
+            }
+
+            @Override public void onBoardDelta(BoardDelta d) {
+                // delta zmienia plansze, ktora rysuje paintComponent - wiec tylko w watku Swinga
+                SwingUtilities.invokeLater(() -> {
+                    if (board == null) return;
+                    d.applyTo(board); // zmieniamy tylko pola z ruchu
+                    boardPanel.repaint();
+                });
             }
 
             @Override public void onYourTurn() {
@@ -412,7 +425,7 @@ public class SwingClientMain {
             //rysowanie kamieni
             int rStone = cell / 2 - 2; // promień kamienia
             for (int r = 0; r < size; r++) for (int c = 0; c < size; c++) {
-                int v = board.grid[r][c];
+                int v = board.get(r, c);
                 if (v == 0) continue; // puste pole
                 int x = M + c * cell; // wspolrzedne do wstawienia kamienia
                 int y = M + r * cell;
@@ -0,0 +1,159 @@
+package lab4.common;
+
+import java.util.Arrays;
+
+/**
+ * Liczenie punktow obszarowych (Tromp-Taylor): punkt gracza to jego zywy kamien
+ * albo puste pole, z ktorego da sie dojsc tylko do kamieni tego gracza.
+ * <p>
+ * Martwe kamienie (ustalone przez graczy) podaje sie jako maske; sa traktowane jak puste pola.
+ * Kazdy punkt jest odwiedzany raz, a bufory sa alokowane tylko w konstruktorze,
+ * wiec jeden obiekt moze liczyc wyniki bardzo wielu partii (np. symulacje bota).
+ */
+public class AreaScorer {
+    /** Value of the border cells around the board */
+    private static final int BORDER = 3;
+
+    /** Board size (number of rows and columns) */
+    public final int size;
+    /** Row length of the padded layout (size + 2) */
+    private final int stride;
+    /** Offsets of the four neighbours in the padded layout */
+    private final int[] dirs;
+    /** Padded working copy of the position, dead stones already removed */
+    private final int[] cells;
+    /** Generation stamps of visited points */
+    private final int[] mark;
+    /** Current generation of {@link #mark} */
+    private int markStamp = 0;
+    /** Preallocated work queue of point indexes */
+    private final int[] queue;
+
+    /** Living stones of each player (index 0 = player 1) */
+    private final int[] stones = {0, 0};
+    /** Empty points owned by each player (index 0 = player 1) */
+    private final int[] territory = {0, 0};
+    /** Empty points touching both colors or none */
+    private int neutral = 0;
+
+    /**
+     * Creates a scorer for boards of the given size.
+     *
+     * @param size board dimension
+     */
+    public AreaScorer(int size) {
+        this.size = size;
+        this.stride = size + 2;
+        this.dirs = new int[]{stride, -stride, 1, -1};
+        this.cells = new int[stride * stride];
+        this.mark = new int[stride * stride];
+        this.queue = new int[stride * stride];
+        Arrays.fill(cells, BORDER);
+    }
+
+    /**
+     * Scores a position.
+     *
+     * @param b board to score (read only), {@link Board} or {@link BitBoard}
+     * @param dead dead stones, indexed {@code r * size + c}; may be null when there are none
+     * @return area of player 1 minus area of player 2
+     * @throws IllegalArgumentException if the board size differs
+     */
+    public int score(GoBoard b, boolean[] dead) {
+        if (b.getSize() != size) throw new IllegalArgumentException("Board size mismatch: " + b.getSize() + " != " + size);
+        stones[0] = stones[1] = 0;
+        territory[0] = territory[1] = 0;
+        neutral = 0;
+        if (++markStamp == Integer.MAX_VALUE) {
+            Arrays.fill(mark, 0);
+            markStamp = 1;
+        }
+
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int v = b.get(r, c);
+                if (v != 0 && dead != null && dead[r * size + c]) v = 0; // martwy kamien = puste pole
+                cells[(r + 1) * stride + c + 1] = v;
+            }
+        }
+
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int p = (r + 1) * stride + c + 1;
+                int v = cells[p];
+                if (v != 0) stones[v - 1]++;
+                else if (mark[p] != markStamp) scoreRegion(p);
+            }
+        }
+        return getArea(1) - getArea(2);
+    }
+
+    /**
+     * Flood-fills one empty region and gives it to the only color it touches.
+     *
+     * @param start empty point of the region
+     */
+    private void scoreRegion(int start) {
+        int reaches = 0; // bit 1 -> gracz 1, bit 2 -> gracz 2
+        int qHead = 0, qTail = 0;
+        queue[qTail++] = start;
+        mark[start] = markStamp;
+        while (qHead < qTail) {
+            int p = queue[qHead++];
+            for (int d : dirs) {
+                int n = p + d;
+                int v = cells[n];
+                if (v == 0) {
+                    if (mark[n] != markStamp) {
+                        mark[n] = markStamp;
+                        queue[qTail++] = n;
+                    }
+                } else if (v != BORDER) {
+                    reaches |= v;
+                }
+            }
+        }
+        if (reaches == 1) territory[0] += qTail;
+        else if (reaches == 2) territory[1] += qTail;
+        else neutral += qTail;
+    }
+
+    /**
+     * Returns the area (living stones + territory) of a player from the last {@link #score} call.
+     *
+     * @param player 1 or 2
+     * @return area points
+     */
+    public int getArea(int player) {
+        return stones[player - 1] + territory[player - 1];
+    }
+
+    /**
+     * Returns the territory (owned empty points) of a player from the last {@link #score} call.
+     *
+     * @param player 1 or 2
+     * @return territory points
+     */
+    public int getTerritory(int player) {
+        return territory[player - 1];
+    }
+
+    /**
+     * Returns the living stones of a player from the last {@link #score} call.
+     *
+     * @param player 1 or 2
+     * @return number of stones
+     */
+    public int getStones(int player) {
+        return stones[player - 1];
+    }
+
+    /**
+     * Returns the number of empty points owned by nobody (dame) from the last {@link #score} call.
+     *
+     * @return neutral points
+     */
+    public int getNeutral() {
+        return neutral;
+    }
+}
@@ -0,0 +1,378 @@
+package lab4.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Opcjonalny binarny protokol (domyslny dalej jest tekstowy).
+ * <p>
+ * Negocjacja: klient wysyla linie tekstowa {@value #NEGOTIATE}, serwer odpowiada ta sama linia
+ * i od tego momentu obie strony wysylaja tylko ramki. Stary serwer odpowie
+ * {@code ERROR Unknown command}, wtedy klient zostaje przy tekscie.
+ * <p>
+ * Ramka: 2 bajty dlugosci (big-endian, opcode + payload), 1 bajt opcode, payload.
+ * Plansza: 1 bajt rozmiaru, 8 bajtow wersji i 2 bity na punkt (4 punkty na bajt, punkt {@code r * size + c}
+ * zajmuje bity {@code 2 * (i % 4)} bajtu {@code i / 4}), czyli 103 bajty dla 19x19 zamiast ~750.
+ */
+public final class BinaryProtocol {
+    /** Text line that switches a connection to binary frames (also the server's acknowledgement) */
+    public static final String NEGOTIATE = "PROTO BINARY";
+    /** Maximal value of the length field */
+    public static final int MAX_FRAME = 0xFFFF;
+
+    // klient -> serwer
+    /** MOVE: row (1 byte), col (1 byte) */
+    public static final int MOVE = 0x01;
+    /** PASS, no payload */
+    public static final int PASS = 0x02;
+    /** RESIGN, no payload */
+    public static final int RESIGN = 0x03;
+    /** RESUME, no payload */
+    public static final int RESUME = 0x04;
+    /** FINISH, no payload */
+    public static final int FINISH = 0x05;
+    /** SYNC (request a full BOARD), no payload */
+    public static final int SYNC = 0x06;
+    /** DELTAS (ask for BOARD_DELTA instead of full boards), no payload */
+    public static final int DELTAS = 0x07;
+
+    // serwer -> klient
+    /** START: player id (1 byte) */
+    public static final int START = 0x10;
+    /** BOARD: size (1 byte), version (8 bytes) and packed points */
+    public static final int BOARD = 0x11;
+    /** YOUR_TURN, no payload */
+    public static final int YOUR_TURN = 0x12;
+    /** OPPONENT_TURN, no payload */
+    public static final int OPPONENT_TURN = 0x13;
+    /** AGREEMENT_ON, no payload */
+    public static final int AGREEMENT_ON = 0x14;
+    /** AGREEMENT_OFF, no payload */
+    public static final int AGREEMENT_OFF = 0x15;
+    /** WYNIKI1: captured stones of player 1 (4 bytes) */
+    public static final int WYNIKI1 = 0x16;
+    /** WYNIKI2: captured stones of player 2 (4 bytes) */
+    public static final int WYNIKI2 = 0x17;
+    /** INFO: UTF-8 text */
+    public static final int INFO = 0x18;
+    /** ERROR: UTF-8 text */
+    public static final int ERROR = 0x19;
+    /** GAME_OVER: UTF-8 text */
+    public static final int GAME_OVER = 0x1A;
+    /** BOARD_DELTA: version (8), row (1), col (1), player (1), count (2), removed points (2 each) */
+    public static final int BOARD_DELTA = 0x1B;
+    /** Any other text line (UTF-8), handled like in the text protocol */
+    public static final int TEXT = 0x1F;
+
+    private BinaryProtocol() {}
+
+    /**
+     * Returns the length of a whole BOARD frame (header included).
+     *
+     * @param size board dimension
+     * @return number of bytes
+     */
+    public static int boardFrameLength(int size) {
+        return 3 + 1 + 8 + (size * size + 3) / 4;
+    }
+
+    /**
+     * Writes a BOARD frame for a snapshot.
+     *
+     * @param b snapshot to encode
+     * @param buf destination of at least {@link #boardFrameLength(int)} bytes
+     * @return number of bytes written
+     */
+    public static int writeBoardFrame(BoardSnapshot b, byte[] buf) {
+        int size = b.size();
+        int len = boardFrameLength(size);
+        writeHeader(buf, len - 2, BOARD);
+        buf[3] = (byte) size;
+        putLong(buf, 4, b.version);
+        int packed = (size * size + 3) / 4;
+        for (int k = 0; k < packed; k++) buf[12 + k] = 0;
+        int i = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++, i++) {
+                buf[12 + (i >>> 2)] |= (byte) (b.get(r, c) << ((i & 3) << 1));
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Decodes the payload of a BOARD frame.
+     *
+     * @param frame frame body (opcode at index 0)
+     * @param len length of the body
+     * @return decoded board
+     * @throws IllegalArgumentException if the payload is too short
+     */
+    public static Board readBoard(byte[] frame, int len) {
+        if (len < 2) throw new IllegalArgumentException("BOARD frame too short");
+        Board b = new Board(frame[1] & 0xFF);
+        readBoard(frame, len, b);
+        return b;
+    }
+
+    /**
+     * Decodes the payload of a BOARD frame into an existing board of the same size.
+     *
+     * @param frame frame body (opcode at index 0)
+     * @param len length of the body
+     * @param b board to fill
+     * @throws IllegalArgumentException if the payload is too short or of another size
+     */
+    public static void readBoard(byte[] frame, int len, Board b) {
+        if (len < 10) throw new IllegalArgumentException("BOARD frame too short");
+        int size = frame[1] & 0xFF;
+        if (size != b.size) throw new IllegalArgumentException("Board size mismatch");
+        if (len < 10 + (size * size + 3) / 4) throw new IllegalArgumentException("BOARD frame too short");
+        int i = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++, i++) {
+                b.set(r, c, (frame[10 + (i >>> 2)] >>> ((i & 3) << 1)) & 3);
+            }
+        }
+    }
+
+    /**
+     * Returns the snapshot version carried by a BOARD frame.
+     *
+     * @param frame frame body (opcode at index 0)
+     * @return snapshot version
+     */
+    public static long readBoardVersion(byte[] frame) {
+        return getLong(frame, 2);
+    }
+
+    /**
+     * Creates a BOARD_DELTA frame.
+     *
+     * @param d delta to encode
+     * @return encoded frame
+     */
+    public static byte[] deltaFrame(BoardDelta d) {
+        int n = d.removed.length;
+        byte[] f = new byte[3 + 13 + 2 * n];
+        writeHeader(f, f.length - 2, BOARD_DELTA);
+        putLong(f, 3, d.version);
+        f[11] = (byte) d.row;
+        f[12] = (byte) d.col;
+        f[13] = (byte) d.player;
+        f[14] = (byte) (n >>> 8);
+        f[15] = (byte) n;
+        for (int i = 0; i < n; i++) {
+            f[16 + 2 * i] = (byte) (d.removed[i] >>> 8);
+            f[17 + 2 * i] = (byte) d.removed[i];
+        }
+        return f;
+    }
+
+    /**
+     * Decodes the payload of a BOARD_DELTA frame.
+     *
+     * @param frame frame body (opcode at index 0)
+     * @param len length of the body
+     * @return decoded delta
+     * @throws IllegalArgumentException if the payload is too short
+     */
+    public static BoardDelta readDelta(byte[] frame, int len) {
+        if (len < 14) throw new IllegalArgumentException("BOARD_DELTA frame too short");
+        int n = ((frame[12] & 0xFF) << 8) | (frame[13] & 0xFF);
+        if (len < 14 + 2 * n) throw new IllegalArgumentException("BOARD_DELTA frame too short");
+        int[] removed = new int[n];
+        for (int i = 0; i < n; i++) removed[i] = ((frame[14 + 2 * i] & 0xFF) << 8) | (frame[15 + 2 * i] & 0xFF);
+        return new BoardDelta(getLong(frame, 1), frame[9] & 0xFF, frame[10] & 0xFF, frame[11] & 0xFF, removed);
+    }
+
+    /**
+     * Creates a frame without payload.
+     *
+     * @param opcode frame opcode
+     * @return encoded frame
+     */
+    public static byte[] frame(int opcode) {
+        byte[] f = new byte[3];
+        writeHeader(f, 1, opcode);
+        return f;
+    }
+
+    /**
+     * Creates a MOVE frame.
+     *
+     * @param row row index (0..255)
+     * @param col column index (0..255)
+     * @return encoded frame
+     */
+    public static byte[] moveFrame(int row, int col) {
+        byte[] f = new byte[5];
+        writeHeader(f, 3, MOVE);
+        f[3] = (byte) row;
+        f[4] = (byte) col;
+        return f;
+    }
+
+    /**
+     * Encodes a line of the text protocol (as produced by the server) as a frame.
+     * Known commands get their own opcode, everything else becomes {@link #TEXT}.
+     *
+     * @param line text protocol line without line terminator
+     * @return encoded frame
+     */
+    public static byte[] encodeLine(String line) {
+        switch (line) {
+            case "YOUR_TURN": return frame(YOUR_TURN);
+            case "OPPONENT_TURN": return frame(OPPONENT_TURN);
+            case "AGREEMENT_ON": return frame(AGREEMENT_ON);
+            case "AGREEMENT_OFF": return frame(AGREEMENT_OFF);
+            default: break;
+        }
+        try {
+            if (line.startsWith("START ")) {
+                byte[] f = new byte[4];
+                writeHeader(f, 2, START);
+                f[3] = (byte) Integer.parseInt(line.substring(6).trim());
+                return f;
+            }
+            if (line.startsWith("WYNIKI1 ")) return intFrame(WYNIKI1, Integer.parseInt(line.substring(8).trim()));
+            if (line.startsWith("WYNIKI2 ")) return intFrame(WYNIKI2, Integer.parseInt(line.substring(8).trim()));
+        } catch (NumberFormatException e) {
+            return textFrame(TEXT, line); // nietypowa linia -> wysylamy jako tekst
+        }
+        if (line.startsWith("INFO ")) return textFrame(INFO, line.substring(5));
+        if (line.startsWith("ERROR ")) return textFrame(ERROR, line.substring(6));
+        if (line.startsWith("GAME_OVER")) return textFrame(GAME_OVER, line.substring(9).trim());
+        return textFrame(TEXT, line);
+    }
+
+    /**
+     * Encodes a client command line of the text protocol (PASS, MOVE {json}...) as a frame.
+     * Commands without their own opcode become {@link #TEXT}.
+     *
+     * @param line text protocol command without line terminator
+     * @return encoded frame
+     * @throws IllegalArgumentException if a MOVE carries invalid JSON
+     */
+    public static byte[] encodeCommand(String line) {
+        String cmd = line.trim();
+        switch (cmd.toUpperCase()) {
+            case "PASS": return frame(PASS);
+            case "RESIGN": return frame(RESIGN);
+            case "RESUME": return frame(RESUME);
+            case "FINISH": return frame(FINISH);
+            case "SYNC": return frame(SYNC);
+            case "DELTAS": return frame(DELTAS);
+            default: break;
+        }
+        if (cmd.regionMatches(true, 0, "MOVE ", 0, 5)) {
+            Move m = JsonUtil.decodeMove(cmd, 5, new Move());
+            return moveFrame(m.row, m.col);
+        }
+        return textFrame(TEXT, line);
+    }
+
+    /**
+     * Reads the 4-byte int payload of WYNIKI frames.
+     *
+     * @param frame frame body (opcode at index 0)
+     * @return decoded value
+     */
+    public static int readInt(byte[] frame) {
+        return ((frame[1] & 0xFF) << 24) | ((frame[2] & 0xFF) << 16) | ((frame[3] & 0xFF) << 8) | (frame[4] & 0xFF);
+    }
+
+    /**
+     * Reads the UTF-8 text payload of a frame.
+     *
+     * @param frame frame body (opcode at index 0)
+     * @param len length of the body
+     * @return decoded text
+     */
+    public static String readText(byte[] frame, int len) {
+        return new String(frame, 1, len - 1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads one frame body (opcode + payload) into a buffer.
+     *
+     * @param in source stream
+     * @param buf destination of at least {@link #MAX_FRAME} bytes
+     * @return length of the body, -1 at end of stream
+     * @throws IOException if reading fails or the frame is empty
+     */
+    public static int readFrame(DataInputStream in, byte[] buf) throws IOException {
+        int hi = in.read();
+        if (hi < 0) return -1;
+        int lo = in.read();
+        if (lo < 0) throw new EOFException("Truncated frame header");
+        int len = (hi << 8) | lo;
+        if (len == 0) throw new IOException("Empty frame");
+        in.readFully(buf, 0, len);
+        return len;
+    }
+
+    /**
+     * Reads one text line (terminated with '\n', optional '\r' removed) byte by byte,
+     * so that no bytes after the line are consumed; needed before switching to frames.
+     *
+     * @param in source stream
+     * @return decoded line, or null at end of stream
+     * @throws IOException if reading fails
+     */
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') break;
+            line.write(b);
+        }
+        if (b < 0 && line.size() == 0) return null;
+        byte[] bytes = line.toByteArray();
+        int len = bytes.length;
+        if (len > 0 && bytes[len - 1] == '\r') len--;
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] intFrame(int opcode, int v) {
+        byte[] f = new byte[7];
+        writeHeader(f, 5, opcode);
+        f[3] = (byte) (v >>> 24);
+        f[4] = (byte) (v >>> 16);
+        f[5] = (byte) (v >>> 8);
+        f[6] = (byte) v;
+        return f;
+    }
+
+    private static byte[] textFrame(int opcode, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(bytes.length, MAX_FRAME - 1); // za dlugi tekst jest obcinany
+        byte[] f = new byte[3 + len];
+        writeHeader(f, len + 1, opcode);
+        System.arraycopy(bytes, 0, f, 3, len);
+        return f;
+    }
+
+    private static void putLong(byte[] f, int off, long v) {
+        for (int k = 7; k >= 0; k--) {
+            f[off + k] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] f, int off) {
+        long v = 0;
+        for (int k = 0; k < 8; k++) v = (v << 8) | (f[off + k] & 0xFF);
+        return v;
+    }
+
+    private static void writeHeader(byte[] f, int bodyLength, int opcode) {
+        f[0] = (byte) (bodyLength >>> 8);
+        f[1] = (byte) bodyLength;
+        f[2] = (byte) opcode;
+    }
+}
@@ -0,0 +1,347 @@
+package lab4.common;
+
+/**
+ * Alternatywna plansza: kazdy kolor to bitset w long[] (19x19 = 361 bitow = 6 longow).
+ * Bit punktu (r, c) ma indeks {@code r * size + c}.
+ * <p>
+ * Ma to samo API co {@link Board} ({@link GoBoard}: applyMoveAndCapture, getGridCopy, clear...),
+ * ale sasiedztwo, oddechy i bicia liczone sa przesunieciami i maskami bitowymi.
+ * Jak Board, nie jest synchronizowana (jeden pisarz).
+ */
+public class BitBoard implements GoBoard {
+    /** Board size (number of rows and columns) */
+    public final int size;
+
+    /** Number of longs per bitset */
+    private final int words;
+    /** Stones of player 1 (X) */
+    private final long[] black;
+    /** Stones of player 2 (O) */
+    private final long[] white;
+    /** All valid points of the board */
+    private final long[] full;
+    /** Points that are not in column 0 (target of a shift to the east) */
+    private final long[] notFirstColumn;
+    /** Points that are not in the last column (target of a shift to the west) */
+    private final long[] notLastColumn;
+
+    // bufory robocze, zeby ruch nic nie alokowal
+    /** Group being flood-filled */
+    private final long[] group;
+    /** Next step of the flood fill */
+    private final long[] grown;
+    /** Shift scratch buffer */
+    private final long[] shifted;
+    /** Enemy stones already checked during the current move */
+    private final long[] checked;
+
+    /**
+     * Creates an empty board of the given size.
+     *
+     * @param size board dimension (1..63, a row shift must fit in one long)
+     * @throws IllegalArgumentException if the size is not supported
+     */
+    public BitBoard(int size) {
+        if (size < 1 || size > 63) throw new IllegalArgumentException("Unsupported board size: " + size);
+        this.size = size;
+        this.words = (size * size + 63) / 64;
+        this.black = new long[words];
+        this.white = new long[words];
+        this.full = new long[words];
+        this.notFirstColumn = new long[words];
+        this.notLastColumn = new long[words];
+        this.group = new long[words];
+        this.grown = new long[words];
+        this.shifted = new long[words];
+        this.checked = new long[words];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int p = r * size + c;
+                set(full, p);
+                if (c != 0) set(notFirstColumn, p);
+                if (c != size - 1) set(notLastColumn, p);
+            }
+        }
+    }
+
+    /**
+     * Creates a bitboard holding the same position as a {@link Board}.
+     *
+     * @param b source board
+     * @return new bitboard
+     */
+    public static BitBoard fromBoard(Board b) {
+        BitBoard bb = new BitBoard(b.size);
+        bb.setGridFromCopy(b.getGridCopy());
+        return bb;
+    }
+
+    /**
+     * Creates a {@link Board} holding the same position.
+     *
+     * @return new board
+     */
+    public Board toBoard() {
+        Board b = new Board(size);
+        b.setGridFromCopy(getGridCopy());
+        return b;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Checks whether given coordinates are within board bounds.
+     *
+     * @param r row index
+     * @param c column index
+     * @return true if coordinates are inside the board
+     */
+    private boolean inBounds(int r, int c) {
+        return r >= 0 && c >= 0 && r < size && c < size;
+    }
+
+    /**
+     * Returns the stone on a point.
+     *
+     * @param r row index
+     * @param c column index
+     * @return 0 empty, 1 player 1, 2 player 2
+     */
+    @Override
+    public int get(int r, int c) {
+        if (!inBounds(r, c)) throw new IndexOutOfBoundsException("Point outside the board: " + r + "," + c);
+        int p = r * size + c;
+        if (test(black, p)) return 1;
+        if (test(white, p)) return 2;
+        return 0;
+    }
+
+    /**
+     * Sets a point directly, without any rules.
+     *
+     * @param r row index
+     * @param c column index
+     * @param value 1 or 2 for a stone, anything else empties the point
+     */
+    @Override
+    public void set(int r, int c, int value) {
+        if (!inBounds(r, c)) throw new IndexOutOfBoundsException("Point outside the board: " + r + "," + c);
+        int p = r * size + c;
+        clearBit(black, p);
+        clearBit(white, p);
+        if (value == 1) set(black, p);
+        else if (value == 2) set(white, p);
+    }
+
+    /**
+     * Checks whether a given board position is empty.
+     *
+     * @param r row index
+     * @param c column index
+     * @return true if the position is empty and within bounds
+     */
+    @Override
+    public boolean isEmpty(int r, int c) {
+        return inBounds(r, c) && get(r, c) == 0;
+    }
+
+    /**
+     * Applies a move to the board and performs captures if applicable.
+     * Same contract as {@link Board#applyMoveAndCapture(int, int, int)}:
+     * -1 occupied or out of bounds, -2 suicide, otherwise number of captured stones.
+     *
+     * @param r row index
+     * @param c column index
+     * @param player player identifier (1 or 2)
+     * @return result code or number of captured stones
+     */
+    @Override
+    public int applyMoveAndCapture(int r, int c, int player) {
+        if (!inBounds(r, c)) return -1;
+        int p = r * size + c;
+        if (test(black, p) || test(white, p)) return -1;
+
+        long[] own = (player == 1 ? black : white);
+        long[] enemy = (player == 1 ? white : black);
+        set(own, p);
+
+        int captured = 0;
+        for (int i = 0; i < words; i++) checked[i] = 0;
+        if (r + 1 < size) captured += captureIfDead(p + size, enemy);
+        if (r > 0) captured += captureIfDead(p - size, enemy);
+        if (c + 1 < size) captured += captureIfDead(p + 1, enemy);
+        if (c > 0) captured += captureIfDead(p - 1, enemy);
+
+        floodGroup(p, own);
+        if (!groupHasLiberty() && captured == 0) {
+            clearBit(own, p); // suicide -> revert
+            return -2;
+        }
+        return captured;
+    }
+
+    /**
+     * Removes the enemy group on point n if it has no liberties.
+     *
+     * @param n neighbour point of the move
+     * @param enemy bitset of the enemy color
+     * @return number of removed stones
+     */
+    private int captureIfDead(int n, long[] enemy) {
+        if (!test(enemy, n) || test(checked, n)) return 0;
+        floodGroup(n, enemy);
+        for (int i = 0; i < words; i++) checked[i] |= group[i];
+        if (groupHasLiberty()) return 0;
+        int removed = 0;
+        for (int i = 0; i < words; i++) {
+            removed += Long.bitCount(group[i]);
+            enemy[i] &= ~group[i];
+        }
+        return removed;
+    }
+
+    /**
+     * Flood-fills the group containing point p into {@link #group}
+     * by repeated dilation masked with the stones of that color.
+     *
+     * @param p start point
+     * @param color bitset of the group's color
+     */
+    private void floodGroup(int p, long[] color) {
+        for (int i = 0; i < words; i++) group[i] = 0;
+        set(group, p);
+        while (true) {
+            dilate(group, grown);
+            boolean changed = false;
+            for (int i = 0; i < words; i++) {
+                long g = grown[i] & color[i];
+                if (g != group[i]) changed = true;
+                group[i] = g;
+            }
+            if (!changed) return;
+        }
+    }
+
+    /**
+     * Checks whether {@link #group} touches an empty point.
+     *
+     * @return true if the group has at least one liberty
+     */
+    private boolean groupHasLiberty() {
+        dilate(group, grown);
+        for (int i = 0; i < words; i++) {
+            if ((grown[i] & ~group[i] & ~black[i] & ~white[i] & full[i]) != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes {@code src} together with its four-neighbourhood into {@code dst}.
+     *
+     * @param src source bitset
+     * @param dst destination bitset
+     */
+    private void dilate(long[] src, long[] dst) {
+        for (int i = 0; i < words; i++) dst[i] = src[i];
+        shiftUp(src, 1, shifted);                       // wschod (c + 1)
+        for (int i = 0; i < words; i++) dst[i] |= shifted[i] & notFirstColumn[i];
+        shiftDown(src, 1, shifted);                     // zachod (c - 1)
+        for (int i = 0; i < words; i++) dst[i] |= shifted[i] & notLastColumn[i];
+        shiftUp(src, size, shifted);                    // poludnie (r + 1)
+        for (int i = 0; i < words; i++) dst[i] |= shifted[i] & full[i];
+        shiftDown(src, size, shifted);                  // polnoc (r - 1)
+        for (int i = 0; i < words; i++) dst[i] |= shifted[i];
+    }
+
+    /**
+     * Shifts a bitset towards higher bit indexes.
+     *
+     * @param src source bitset
+     * @param n number of bits (less than 64)
+     * @param dst destination bitset
+     */
+    private void shiftUp(long[] src, int n, long[] dst) {
+        for (int i = words - 1; i > 0; i--) dst[i] = (src[i] << n) | (src[i - 1] >>> (64 - n));
+        dst[0] = src[0] << n;
+    }
+
+    /**
+     * Shifts a bitset towards lower bit indexes.
+     *
+     * @param src source bitset
+     * @param n number of bits (less than 64)
+     * @param dst destination bitset
+     */
+    private void shiftDown(long[] src, int n, long[] dst) {
+        for (int i = 0; i < words - 1; i++) dst[i] = (src[i] >>> n) | (src[i + 1] << (64 - n));
+        dst[words - 1] = src[words - 1] >>> n;
+    }
+
+    private static boolean test(long[] bits, int p) {
+        return (bits[p >>> 6] & (1L << p)) != 0;
+    }
+
+    private static void set(long[] bits, int p) {
+        bits[p >>> 6] |= 1L << p;
+    }
+
+    private static void clearBit(long[] bits, int p) {
+        bits[p >>> 6] &= ~(1L << p);
+    }
+
+    /**
+     * Returns a copy of the board as an {@code int[][]} grid (0 empty, 1, 2).
+     *
+     * @return copied grid array
+     */
+    @Override
+    public int[][] getGridCopy() {
+        int[][] copy = new int[size][size];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) copy[r][c] = get(r, c);
+        }
+        return copy;
+    }
+
+    /**
+     * Restores the board state from a given grid copy.
+     *
+     * @param src source grid
+     */
+    @Override
+    public void setGridFromCopy(int[][] src) {
+        if (src == null || src.length != size) return;
+        clear();
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                if (src[r][c] == 1) set(black, r * size + c);
+                else if (src[r][c] == 2) set(white, r * size + c);
+            }
+        }
+    }
+
+    /**
+     * Clears the board.
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < words; i++) {
+            black[i] = 0;
+            white[i] = 0;
+        }
+    }
+
+    /**
+     * Returns a human-readable textual representation of the board
+     * (same format as {@link Board#toString()}).
+     *
+     * @return board as formatted string
+     */
+    @Override
+    public String toString() {
+        return toBoard().toString();
+    }
+}
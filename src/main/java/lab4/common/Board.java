@@ -1,22 +1,100 @@
 package lab4.common;
 
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * DTO + logika planszy (capture, suicide check).
+ * Grupy kamieni (lancuchy) i ich oddechy sa aktualizowane przy kazdym ruchu,
+ * wiec sprawdzenie bicia i samobojstwa nie wymaga przeszukiwania planszy.
  *
  * Uwaga: GameSession zarządza turą, KO, passami i obserwatorami.
+ * <p>
+ * Plansza ma jednego pisarza (GameSession, bot) i nie jest synchronizowana.
+ * Inne watki czytaja niezmienny obraz z {@link #getSnapshot()}, publikowany
+ * przez pisarza metoda {@link #publish()} po kazdym zaakceptowanym ruchu.
+ * <p>
+ * Pola czyta sie przez {@link #get(int, int)}. Ustawienie pozycji z zewnatrz (dekodowanie, testy)
+ * idzie przez {@link #set(int, int, int)}: lancuchy sa wtedy przebudowywane raz, przy nastepnym ruchu.
  */
-public class Board {
+public class Board implements GoBoard {
     /** Board size (number of rows and columns) */
     public final int size;
-     /**
-     * Board grid representation:
+
+    // Lancuchy (grupy) trzymane na biezaco.
+    // Punkty sa w tablicy 1D z ramka (sentinel) dookola: p = (r + 1) * stride + (c + 1),
+    // wiec sasiedzi to p +- 1 i p +- stride, bez sprawdzania granic.
+    /** Value of the border cells around the board */
+    private static final int BORDER = 3;
+    /** Row length of the padded 1D layout (size + 2) */
+    private final int stride;
+    /** Offsets of the four neighbours in the padded layout */
+    private final int[] dirs;
+    /**
+     * Board points in the padded layout:
      * 0 - empty field,
      * 1 - player 1 (X),
-     * 2 - player 2 (O)
+     * 2 - player 2 (O),
+     * BORDER - outside the board
      */
-    public int[][] grid; // 0 empty, 1 player1 (X), 2 player2 (O) !!!
+    private final int[] cells;
+    /** Whether {@link #set} changed points since the chains were built */
+    private boolean chainsDirty = false;
+    /** Head point of the chain the stone belongs to */
+    private final int[] chainHead;
+    /** Next stone in the chain (circular list) */
+    private final int[] chainNext;
+    /** Pseudo-liberties of the chain (each stone-empty adjacency counts once), valid at head */
+    private final int[] chainLibs;
+    /** Number of stones in the chain, valid at head */
+    private final int[] chainSize;
+
+    // Bufory do przeszukiwania (flood fill) bez alokacji
+    /** Generation stamps: a point is visited when {@code mark[p] == markStamp} */
+    private final int[] mark;
+    /** Current generation of {@link #mark} */
+    private int markStamp = 0;
+    /** Preallocated work queue of point indexes */
+    private final int[] queue;
+
+    /** Zobrist keys per board size, shared by all boards of that size */
+    private static final Map<Integer, long[]> ZOBRIST_KEYS = new ConcurrentHashMap<>();
+    /** Zobrist keys of this board: {@code (color - 1) * cells.length + p} */
+    private final long[] zobrist;
+    /** Zobrist hash of the current position (XOR of keys of all stones) */
+    private long hash = 0;
+
+    // Dziennik ruchow (make/unmake): postawiony kamien i zbite kamienie kazdego ruchu
+    /** Point of every journaled move */
+    private int[] journalMove;
+    /** Start of the move's captured points in {@link #capturedStack} */
+    private int[] journalCaptureStart;
+    /** Number of journaled moves */
+    private int journalSize = 0;
+    /** Captured points of all journaled moves, one after another */
+    private int[] capturedStack;
+    /** Number of used entries in {@link #capturedStack} */
+    private int capturedTop = 0;
+    /** Ko state before every journaled move ({@code koPoint * 4 + koColor}, -1 none) */
+    private int[] journalKo;
+
+    // KO i maski legalnych ruchow
+    /** Point that {@link #koColor} may not play right now, -1 if none */
+    private int koPoint = -1;
+    /** Player affected by {@link #koPoint} */
+    private int koColor = 0;
+    /** Legal-move masks per player (index 0 = player 1), kept up to date by play/undo/pass */
+    private final long[][] legalMask;
+    /** Number of legal moves in each mask, -1 when the mask is not built (then it is not maintained) */
+    private final int[] legalMaskCount = {-1, -1};
+
+    // Publikowany obraz planszy dla czytelnikow z innych watkow
+    /** Last published snapshot (read without locking) */
+    private volatile BoardSnapshot snapshot;
+    /** Version of the last published snapshot */
+    private long version = 0;
 
     /**
      * Creates an empty board of the given size.
@@ -25,7 +103,97 @@ public class Board {
      */
     public Board(int size) {
         this.size = size;
-        this.grid = new int[size][size];
+        this.stride = size + 2;
+        this.dirs = new int[]{stride, -stride, 1, -1};
+        int cellCount = stride * stride;
+        this.cells = new int[cellCount];
+        this.chainHead = new int[cellCount];
+        this.chainNext = new int[cellCount];
+        this.chainLibs = new int[cellCount];
+        this.chainSize = new int[cellCount];
+        this.mark = new int[cellCount];
+        this.queue = new int[cellCount];
+        this.journalMove = new int[2 * size * size];
+        this.journalCaptureStart = new int[2 * size * size];
+        this.capturedStack = new int[4 * size * size];
+        this.journalKo = new int[2 * size * size];
+        this.legalMask = new long[2][(size * size + 63) / 64];
+        this.zobrist = ZOBRIST_KEYS.computeIfAbsent(size, Board::generateZobristKeys);
+        Arrays.fill(cells, BORDER);
+        clearCells();
+        this.snapshot = new BoardSnapshot(0, PackedBoard.of(this));
+    }
+
+    /**
+     * Generates Zobrist keys for a board size. The seed is fixed, so every
+     * board of the same size hashes a position to the same value.
+     *
+     * @param size board dimension
+     * @return keys for both colors, indexed by padded point
+     */
+    private static long[] generateZobristKeys(int size) {
+        SplittableRandom random = new SplittableRandom(0x9E3779B97F4A7C15L ^ size);
+        long[] keys = new long[2 * (size + 2) * (size + 2)];
+        for (int i = 0; i < keys.length; i++) keys[i] = random.nextLong();
+        return keys;
+    }
+
+    /**
+     * Returns the Zobrist key of a stone of the given color on point p.
+     *
+     * @param p point index
+     * @param color 1 or 2
+     * @return key, 0 for other values
+     */
+    private long zobristKey(int p, int color) {
+        if (color != 1 && color != 2) return 0L;
+        return zobrist[(color - 1) * cells.length + p];
+    }
+
+    /**
+     * Returns the padded index of a point.
+     *
+     * @param r row index
+     * @param c column index
+     * @return index into {@link #cells}
+     */
+    private int point(int r, int c) {
+        return (r + 1) * stride + c + 1;
+    }
+
+    /**
+     * Converts a padded index to the public {@code r * size + c} form.
+     *
+     * @param p padded index
+     * @return point index used outside Board
+     */
+    private int publicIndex(int p) {
+        return (p / stride - 1) * size + (p % stride - 1);
+    }
+
+    /**
+     * Checks whether a cell value is a stone (not empty and not the border).
+     *
+     * @param v cell value
+     * @return true for a stone
+     */
+    private static boolean isStone(int v) {
+        return v != 0 && v != BORDER;
+    }
+
+    /**
+     * Starts a new generation of visit marks (no clearing needed).
+     */
+    private void nextStamp() {
+        if (++markStamp == Integer.MAX_VALUE) {
+            Arrays.fill(mark, 0);
+            markStamp = 1;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
     }
 
     /**
@@ -46,12 +214,50 @@ public class Board {
      * @param c column index
      * @return true if the position is empty and within bounds
      */
-    public synchronized boolean isEmpty(int r, int c) {
-        return inBounds(r, c) && grid[r][c] == 0;
+    @Override
+    public boolean isEmpty(int r, int c) {
+        return inBounds(r, c) && cells[point(r, c)] == 0;
+    }
+
+    /**
+     * Returns the stone on a point.
+     *
+     * @param r row index
+     * @param c column index
+     * @return 0 empty, 1 player 1, 2 player 2
+     * @throws IndexOutOfBoundsException if the point is outside the board
+     */
+    @Override
+    public int get(int r, int c) {
+        if (!inBounds(r, c)) throw new IndexOutOfBoundsException("Point outside the board: " + r + "," + c);
+        return cells[point(r, c)];
+    }
+
+    /**
+     * Sets a point directly, without any rules (setting up a position, decoding a received board).
+     * <p>
+     * Lancuchy, hash i maski sa przebudowywane raz, przy pierwszym ruchu albo zapytaniu po zmianach,
+     * wiec wiele wywolan pod rzad kosztuje tyle co jedno. Dziennik ruchow jest wtedy kasowany
+     * (jak po {@link #setGridFromCopy}); zapis tej samej wartosci niczego nie zmienia.
+     *
+     * @param r row index
+     * @param c column index
+     * @param value 1 or 2 for a stone, anything else empties the point
+     * @throws IndexOutOfBoundsException if the point is outside the board
+     */
+    @Override
+    public void set(int r, int c, int value) {
+        if (!inBounds(r, c)) throw new IndexOutOfBoundsException("Point outside the board: " + r + "," + c);
+        if (value != 1 && value != 2) value = 0;
+        int p = point(r, c);
+        if (cells[p] == value) return;
+        cells[p] = value;
+        chainsDirty = true;
     }
 
     /**
      * Applies a move to the board and performs captures if applicable.
+     * Same as {@link #play(int, int, int)}; the move can be taken back with {@link #undo()}.
      * <p>
      * Return values:
      * <ul>
@@ -60,130 +266,539 @@ public class Board {
      *   <li>&gt;= 0 – number of captured enemy stones</li>
      * </ul>
      * <p>
-     * The board state is modified and the method is synchronized.
+     * Legality is decided before anything is placed, using the liberty
+     * counters of the neighbouring chains (one check per neighbour, no flood fill).
+     * The method allocates nothing. The board state is modified (writer thread only).
      *
      * @param r row index
      * @param c column index
      * @param player player identifier (1 or 2)
      * @return result code or number of captured stones
      */
-    public synchronized int applyMoveAndCapture(int r, int c, int player) {
-        if (!inBounds(r, c)) return -1;
-        if (grid[r][c] != 0) return -1; //czyli jest empty
+    @Override
+    public int applyMoveAndCapture(int r, int c, int player) {
+        return play(r, c, player);
+    }
 
-        // place temporarily
-        grid[r][c] = player;
+    /**
+     * Plays a move (make) and records it in the undo journal.
+     * Return values are the same as in {@link #applyMoveAndCapture(int, int, int)};
+     * only successful moves (&gt;= 0) are journaled.
+     * <p>
+     * Together with {@link #undo()} lets search code (bot) try moves
+     * without copying the board.
+     *
+     * @param r row index
+     * @param c column index
+     * @param player player identifier (1 or 2)
+     * @return result code or number of captured stones
+     */
+    public int play(int r, int c, int player) {
+        if (!inBounds(r, c)) return -1;
+        if (chainsDirty) rebuildChains();
+        int p = point(r, c);
+        if (cells[p] != 0) return -1; //czyli jest empty
 
         int enemy = (player == 1 ? 2 : 1);
+
+        // najpierw sprawdzamy legalnosc, bez stawiania kamienia
+        if (!hasLibertyOrCapture(p, player)) return -2; // suicide, plansza nietknieta
+
+        int oldKo = koPoint;
+        placeStone(p, player);
+        if (journalSize == journalMove.length) {
+            journalMove = Arrays.copyOf(journalMove, journalSize * 2);
+            journalCaptureStart = Arrays.copyOf(journalCaptureStart, journalSize * 2);
+            journalKo = Arrays.copyOf(journalKo, journalSize * 2);
+        }
+        journalMove[journalSize] = p;
+        journalCaptureStart[journalSize] = capturedTop;
+        journalKo[journalSize] = (koPoint < 0 ? -1 : koPoint * 4 + koColor);
+        journalSize++;
+
         int captured = 0;
+        // check neighbor enemy chains for capture
+        for (int d : dirs) {
+            int n = p + d;
+            if (cells[n] == enemy && chainLibs[chainHead[n]] <= 0) {
+                captured += removeChain(chainHead[n]); // dostajemy punkty; usuwamy zlepek kulek wroga
+            }
+        }
+
+        // KO: pojedynczy kamien zbil jeden kamien i ma jeden oddech (pole zbitego) -> przeciwnik nie moze od razu odbic
+        koPoint = -1;
+        int h = chainHead[p];
+        if (captured == 1 && chainSize[h] == 1 && chainLibs[h] == 1) {
+            koPoint = capturedStack[capturedTop - 1];
+            koColor = enemy;
+        }
+        if (legalMaskCount[0] >= 0 || legalMaskCount[1] >= 0) {
+            refreshMasksAround(p, journalCaptureStart[journalSize - 1], capturedTop, oldKo);
+        }
+        return captured;
+    }
+
+    /**
+     * Checks whether a stone placed on empty point p would have a liberty
+     * or capture something (i.e. the move is not suicide). Does not modify the board.
+     *
+     * @param p empty point
+     * @param player player identifier (1 or 2)
+     * @return true if the move is not suicide
+     */
+    private boolean hasLibertyOrCapture(int p, int player) {
+        int enemy = (player == 1 ? 2 : 1);
+        for (int d : dirs) {
+            int n = p + d;
+            int v = cells[n];
+            if (v == 0) return true;
+            if (v == BORDER) continue;
+            int h = chainHead[n];
+            int adjacent = adjacentStones(p, h);
+            if (v == enemy && chainLibs[h] <= adjacent) return true; // p to jego ostatni oddech -> bicie
+            if (v == player && chainLibs[h] > adjacent) return true; // nasz lancuch ma jeszcze inne oddechy
+        }
+        return false;
+    }
+
+    /**
+     * Records a pass: there is no Ko point after a pass.
+     * Not journaled; {@link #undo()} of an earlier move restores that move's Ko state.
+     */
+    public void pass() {
+        int oldKo = koPoint;
+        koPoint = -1;
+        if (oldKo >= 0) {
+            nextStamp();
+            refreshMaskPoint(oldKo);
+        }
+    }
+
+    /**
+     * Checks whether a move is legal: inside the board, on an empty point,
+     * not suicide and not an immediate Ko recapture.
+     *
+     * @param r row index
+     * @param c column index
+     * @param player player identifier (1 or 2)
+     * @return true if the move is legal
+     */
+    public boolean isLegal(int r, int c, int player) {
+        if (!inBounds(r, c)) return false;
+        if (chainsDirty) rebuildChains();
+        int p = point(r, c);
+        if (cells[p] != 0) return false;
+        if (p == koPoint && player == koColor) return false;
+        return hasLibertyOrCapture(p, player);
+    }
 
-        int[][] dirs = {{1,0},{-1,0},{0,1},{0,-1}}; // do iteracji po kierunkach na boki, gora i dol
-        // check neighbor enemy groups for capture
-        for (int[] d : dirs) {
-            int nr = r + d[0], nc = c + d[1];
-            if (!inBounds(nr,nc)) continue;
-            if (grid[nr][nc] == enemy) {
-                if (!hasLiberties(grid, nr, nc)) { // sprawdzamy czy jakis wrogi sasiad nie ma teraz 0 oddechow (umieramy go)
-                    captured += removeGroup(nr, nc, enemy); // dostajemy punkty; usuwamy zlepek kulek wroga
+    /**
+     * Returns the number of longs needed for a legal-move mask of this board.
+     *
+     * @return mask length
+     */
+    public int getMaskLength() {
+        return (size * size + 63) / 64;
+    }
+
+    /**
+     * Writes all legal moves of a player as a bitset (bit {@code r * size + c}):
+     * empty points that are not suicide and not the current Ko point.
+     * <p>
+     * Maska jest liczona cala (jedno przejscie po planszy) tylko przy pierwszym zapytaniu
+     * i po {@link #set}/{@link #clear()}. Potem play, undo i pass poprawiaja w niej tylko pola,
+     * ktorych legalnosc mogla sie zmienic: miejsce ruchu, zbite punkty, oddechy dotknietych
+     * lancuchow i punkty KO; zapytanie tylko ja kopiuje.
+     *
+     * @param player player identifier (1 or 2)
+     * @param out destination of at least {@link #getMaskLength()} longs
+     * @return number of legal moves
+     */
+    public int legalMoves(int player, long[] out) {
+        if (chainsDirty) rebuildChains();
+        int i = player - 1;
+        if (legalMaskCount[i] < 0) {
+            long[] mask = legalMask[i];
+            Arrays.fill(mask, 0L);
+            int count = 0;
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    int p = point(r, c);
+                    if (cells[p] != 0 || (p == koPoint && player == koColor)) continue;
+                    if (hasLibertyOrCapture(p, player)) {
+                        int bit = r * size + c;
+                        mask[bit >>> 6] |= 1L << bit;
+                        count++;
+                    }
                 }
             }
+            legalMaskCount[i] = count;
         }
+        System.arraycopy(legalMask[i], 0, out, 0, legalMask[i].length);
+        return legalMaskCount[i];
+    }
 
-        // check if placed group has liberties now
-        if (!hasLiberties(grid, r, c)) {
-            if (captured == 0) {
-                // suicide -> revert
-                grid[r][c] = 0;  // zerujemy, czyli pole pozostaje puste
-                return -2;
+    /**
+     * Takes back the last journaled move (unmake): removes the placed stone
+     * and puts the captured stones back. Can be called repeatedly,
+     * back to the last {@link #clear()}, {@link #setGridFromCopy} or {@link #set}.
+     * <p>
+     * Koszt zalezy tylko od liczby zmienionych kamieni i lancucha, do ktorego dolaczyl ruch
+     * (np. odrzucenie ruchu przez KO albo proby ruchow bota), bez kopii calej planszy.
+     *
+     * @return true if a move was taken back, false if the journal is empty
+     */
+    public boolean undo() {
+        if (chainsDirty) rebuildChains(); // po set() dziennik nie opisuje juz pozycji
+        if (journalSize == 0) return false;
+        journalSize--;
+        int p = journalMove[journalSize];
+        int captureStart = journalCaptureStart[journalSize];
+        int ko = journalKo[journalSize];
+        int oldKo = koPoint;
+        koPoint = (ko < 0 ? -1 : ko / 4);
+        koColor = (ko < 0 ? 0 : ko % 4);
+        int player = cells[p];
+        int enemy = (player == 1 ? 2 : 1);
+
+        hash ^= zobristKey(p, player);
+        cells[p] = 0;
+        // p znowu jest oddechem dla obcych lancuchow obok
+        for (int d : dirs) {
+            int n = p + d;
+            if (isStone(cells[n]) && cells[n] != player) chainLibs[chainHead[n]]++;
+        }
+        // lancuch, do ktorego dolaczyl kamien, mogl sie rozpasc -> skladamy go od nowa od sasiadow
+        nextStamp();
+        for (int d : dirs) {
+            int n = p + d;
+            if (cells[n] == player && mark[n] != markStamp) rechain(n);
+        }
+        // zbite kamienie wracaja na plansze
+        for (int i = captureStart; i < capturedTop; i++) placeStone(capturedStack[i], enemy);
+        if (legalMaskCount[0] >= 0 || legalMaskCount[1] >= 0) refreshMasksAround(p, captureStart, capturedTop, oldKo);
+        capturedTop = captureStart;
+        return true;
+    }
+
+    /**
+     * Updates the legal-move masks after a move was played or taken back on p.
+     * <p>
+     * Legalnosc pustego pola zalezy tylko od sasiednich pol i oddechow sasiednich lancuchow,
+     * wiec wystarczy sprawdzic: p i jego pustych sasiadow, zbite/przywrocone punkty, oddechy
+     * lancuchow obok nich (tylko im zmienila sie liczba oddechow) i stary oraz nowy punkt KO.
+     *
+     * @param p point of the move
+     * @param captureFrom first captured point of the move in {@link #capturedStack}
+     * @param captureTo end of the move's captured points
+     * @param oldKo Ko point before the change, -1 if none
+     */
+    private void refreshMasksAround(int p, int captureFrom, int captureTo, int oldKo) {
+        nextStamp();
+        refreshMaskPoint(p);
+        if (oldKo >= 0) refreshMaskPoint(oldKo);
+        if (koPoint >= 0) refreshMaskPoint(koPoint);
+        if (isStone(cells[p])) refreshChainLiberties(chainHead[p]);
+        for (int d : dirs) {
+            int n = p + d;
+            if (isStone(cells[n])) refreshChainLiberties(chainHead[n]);
+            else if (cells[n] == 0) refreshMaskPoint(n); // po cofnieciu p jest ich pustym sasiadem
+        }
+        for (int i = captureFrom; i < captureTo; i++) {
+            int s = capturedStack[i];
+            refreshMaskPoint(s);
+            for (int d : dirs) {
+                int n = s + d;
+                if (isStone(cells[n])) refreshChainLiberties(chainHead[n]);
             }
-            // else: if captured > 0, the move can be legal (captures freed liberties)
         }
+    }
 
-        return captured;
+    /**
+     * Re-checks every empty point next to a chain (once per chain and point in the current stamp).
+     *
+     * @param head chain head
+     */
+    private void refreshChainLiberties(int head) {
+        if (mark[head] == markStamp) return;
+        mark[head] = markStamp;
+        int s = head;
+        do {
+            for (int d : dirs) {
+                int n = s + d;
+                if (cells[n] == 0) refreshMaskPoint(n);
+            }
+            s = chainNext[s];
+        } while (s != head);
     }
 
-    // removes group of 'color' starting at r,c and returns how many stones removed
     /**
-     * Removes a connected group of stones of the given color.
+     * Re-checks one point in the built masks and flips its bit if its legality changed.
+     * Empty points are checked once per stamp; stones are never marked (a stone may be a chain head).
      *
-     * @param r starting row
-     * @param c starting column
-     * @param color stone color to remove
-     * @return number of removed stones
+     * @param p point index
      */
-    private int removeGroup(int r, int c, int color) {
-        if (!inBounds(r,c)) return 0;
-        if (grid[r][c] != color) return 0;
+    private void refreshMaskPoint(int p) {
+        if (cells[p] == 0) {
+            if (mark[p] == markStamp) return;
+            mark[p] = markStamp;
+        }
+        int bit = publicIndex(p);
+        int word = bit >>> 6;
+        long m = 1L << bit;
+        for (int i = 0; i < 2; i++) {
+            if (legalMaskCount[i] < 0) continue;
+            int player = i + 1;
+            boolean legal = cells[p] == 0 && !(p == koPoint && player == koColor) && hasLibertyOrCapture(p, player);
+            if (legal != ((legalMask[i][word] & m) != 0)) {
+                legalMask[i][word] ^= m;
+                legalMaskCount[i] += legal ? 1 : -1;
+            }
+        }
+    }
 
-        int removed = 0;
-        Stack<int[]> st = new Stack<>();
-        st.push(new int[]{r,c}); // opis w funkcji nizej
-        // mark visited by negating color (temporary marker); zeby nie wpasc w petle z tymi ktore juz zaznaczylismy
-        grid[r][c] = -color;
-
-        while (!st.isEmpty()) {
-            int[] p = st.pop();
-            int pr = p[0], pc = p[1];
-            removed++;
-            int[][] dirs = {{1,0},{-1,0},{0,1},{0,-1}};
-            for (int[] d : dirs) {
-                int nr = pr + d[0], nc = pc + d[1];
-                if (!inBounds(nr,nc)) continue;
-                if (grid[nr][nc] == color) {
-                    st.push(new int[]{nr,nc});
-                    grid[nr][nc] = -color;
+    /**
+     * Builds a new chain from all stones connected to {@code start}
+     * (breadth-first search on the preallocated queue, marks of the current stamp).
+     *
+     * @param start any stone of the chain
+     */
+    private void rechain(int start) {
+        int color = cells[start];
+        int head = start;
+        chainNext[head] = head;
+        chainSize[head] = 0;
+        chainLibs[head] = 0;
+        int qHead = 0, qTail = 0;
+        queue[qTail++] = start;
+        mark[start] = markStamp;
+        while (qHead < qTail) {
+            int s = queue[qHead++];
+            chainHead[s] = head;
+            if (s != head) {
+                chainNext[s] = chainNext[head];
+                chainNext[head] = s;
+            }
+            chainSize[head]++;
+            for (int d : dirs) {
+                int n = s + d;
+                if (cells[n] == 0) {
+                    chainLibs[head]++;
+                } else if (cells[n] == color && mark[n] != markStamp) {
+                    mark[n] = markStamp;
+                    queue[qTail++] = n;
                 }
             }
         }
+    }
 
-        // clear markers -> set to 0 (removed)
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                if (grid[i][j] == -color) grid[i][j] = 0;
-            }
+    /**
+     * Publishes the current position as a new immutable snapshot with the next version.
+     * Called by the writer after a move was accepted (not after trial moves or rolled back ones).
+     *
+     * @return the published snapshot
+     */
+    public BoardSnapshot publish() {
+        BoardSnapshot s = new BoardSnapshot(++version, PackedBoard.of(this));
+        snapshot = s;
+        return s;
+    }
+
+    /**
+     * Returns the version of the last published snapshot; it only grows
+     * (every {@link #publish()} adds one, also after {@link #clear()}).
+     *
+     * @return current published version
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * Returns the last published snapshot. Safe to call from any thread, without locking.
+     *
+     * @return last published snapshot (version 0 is the empty board)
+     */
+    public BoardSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the Zobrist hash of the current position.
+     * Equal positions on boards of the same size have equal hashes.
+     *
+     * @return 64-bit position hash
+     */
+    public long getHash() {
+        if (chainsDirty) rebuildChains();
+        return hash;
+    }
+
+    /**
+     * Returns the number of moves that can be taken back with {@link #undo()}.
+     *
+     * @return journal length
+     */
+    public int getJournalSize() {
+        return journalSize;
+    }
+
+    /**
+     * Returns how many stones the last journaled move captured.
+     *
+     * @return number of captured stones, 0 if there is no last move
+     */
+    public int getLastCaptureCount() {
+        return journalSize == 0 ? 0 : capturedTop - journalCaptureStart[journalSize - 1];
+    }
+
+    /**
+     * Returns a point captured by the last journaled move.
+     *
+     * @param i index in range [0, getLastCaptureCount())
+     * @return point index {@code r * size + c}
+     */
+    public int getLastCapturedPoint(int i) {
+        return publicIndex(capturedStack[journalCaptureStart[journalSize - 1] + i]);
+    }
+
+    /**
+     * Counts how many orthogonal neighbours of point {@code p} belong to chain {@code head}.
+     * Needed because pseudo-liberties count every stone-to-empty adjacency separately.
+     *
+     * @param p point index
+     * @param head chain head
+     * @return number of adjacencies between p and the chain
+     */
+    private int adjacentStones(int p, int head) {
+        int count = 0;
+        for (int d : dirs) {
+            int n = p + d;
+            if (isStone(cells[n]) && chainHead[n] == head) count++;
         }
+        return count;
+    }
 
-        return removed;
+    /**
+     * Puts a stone on an empty point, updates liberty counters of touching chains
+     * and merges it with friendly neighbours. Does not capture.
+     *
+     * @param p point index
+     * @param color stone color
+     */
+    private void placeStone(int p, int color) {
+        cells[p] = color;
+        hash ^= zobristKey(p, color);
+        chainHead[p] = p;
+        chainNext[p] = p;
+        chainSize[p] = 1;
+        chainLibs[p] = 0;
+
+        for (int d : dirs) {
+            int n = p + d;
+            if (cells[n] == 0) chainLibs[p]++;
+            else if (cells[n] != BORDER) chainLibs[chainHead[n]]--; // sasiad stracil oddech na polu p
+        }
+        for (int d : dirs) {
+            int n = p + d;
+            if (cells[n] == color && chainHead[n] != chainHead[p]) mergeChains(chainHead[p], chainHead[n]);
+        }
     }
 
-    // check if group at r,c has liberties on the given board array
-    // does not modify boardCopy
     /**
-     * Checks whether a connected group at the given position
-     * has at least one liberty.
-     * <p>
-     * This method does not modify the board.
+     * Merges two chains, relabelling the smaller one.
      *
-     * @param boardCopy board state to analyze
-     * @param r row index
-     * @param c column index
-     * @return true if the group has at least one liberty
-     */
-    private boolean hasLiberties(int[][] boardCopy, int r, int c) {
-        if (!inBounds(r,c)) return false;
-        int color = boardCopy[r][c];
-        if (color == 0) return true;
-
-        boolean[][] visited = new boolean[size][size];
-        Stack<int[]> st = new Stack<>();
-        st.push(new int[]{r,c}); // wrzucamy pierwszy kamien
-        visited[r][c] = true; // odwiedzony
-
-        while (!st.isEmpty()) {
-            int[] p = st.pop();
-            int pr = p[0], pc = p[1];
-            int[][] dirs = {{1,0},{-1,0},{0,1},{0,-1}}; // cztery kierunki
-            for (int[] d : dirs) {
-                int nr = pr + d[0], nc = pc + d[1];
-                if (!inBounds(nr,nc)) continue;
-                if (boardCopy[nr][nc] == 0) return true; // znalezlismy wolne pole, czyli ma jakis oodech
-                if (!visited[nr][nc] && boardCopy[nr][nc] == color) {
-                    visited[nr][nc] = true;
-                    st.push(new int[]{nr,nc});
+     * @param a head of the first chain
+     * @param b head of the second chain
+     */
+    private void mergeChains(int a, int b) {
+        if (chainSize[a] < chainSize[b]) { int t = a; a = b; b = t; }
+        int s = b;
+        do {
+            chainHead[s] = a;
+            s = chainNext[s];
+        } while (s != b);
+        // sklejenie dwoch list cyklicznych
+        int t = chainNext[a];
+        chainNext[a] = chainNext[b];
+        chainNext[b] = t;
+        chainSize[a] += chainSize[b];
+        chainLibs[a] += chainLibs[b];
+    }
+
+    /**
+     * Removes a whole chain from the board and gives the freed liberties back to its neighbours.
+     *
+     * @param head chain head
+     * @return number of removed stones
+     */
+    private int removeChain(int head) {
+        int removed = 0;
+        int s = head;
+        do {
+            hash ^= zobristKey(s, cells[s]);
+            cells[s] = 0;
+            if (capturedTop == capturedStack.length) capturedStack = Arrays.copyOf(capturedStack, capturedTop * 2);
+            capturedStack[capturedTop++] = s;
+            removed++;
+            s = chainNext[s];
+        } while (s != head);
+
+        s = head;
+        do {
+            for (int d : dirs) {
+                int n = s + d;
+                if (isStone(cells[n])) chainLibs[chainHead[n]]++;
+            }
+            s = chainNext[s];
+        } while (s != head);
+        return removed;
+    }
+
+    /**
+     * Rebuilds chains and hash from scratch using the points in {@link #cells}.
+     */
+    private void rebuildChains() {
+        chainsDirty = false;
+        hash = 0;
+        resetJournal();
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int p = point(r, c);
+                if (!isStone(cells[p])) continue;
+                hash ^= zobristKey(p, cells[p]);
+                chainHead[p] = p;
+                chainNext[p] = p;
+                chainSize[p] = 1;
+                chainLibs[p] = 0;
+                for (int d : dirs) {
+                    if (cells[p + d] == 0) chainLibs[p]++;
                 }
+                // laczymy z juz przetworzonymi sasiadami (gora, lewo)
+                if (cells[p - 1] == cells[p] && chainHead[p - 1] != chainHead[p]) mergeChains(chainHead[p], chainHead[p - 1]);
+                if (cells[p - stride] == cells[p] && chainHead[p - stride] != chainHead[p]) mergeChains(chainHead[p], chainHead[p - stride]);
             }
         }
-        return false;
+    }
+
+    /**
+     * Forgets all journaled moves (they describe a position that no longer exists).
+     */
+    private void resetJournal() {
+        journalSize = 0;
+        capturedTop = 0;
+        koPoint = -1;
+        legalMaskCount[0] = legalMaskCount[1] = -1; // maski liczone od nowa przy nastepnym zapytaniu
+    }
+
+    /**
+     * Empties all board points of the mirror, leaving the border intact.
+     */
+    private void clearCells() {
+        for (int r = 0; r < size; r++) {
+            int from = point(r, 0);
+            Arrays.fill(cells, from, from + size, 0);
+        }
     }
 
     // returns deep copy of grid
@@ -192,9 +807,10 @@ public class Board {
      *
      * @return copied grid array
      */
-    public synchronized int[][] getGridCopy() {
+    @Override
+    public int[][] getGridCopy() {
         int[][] copy = new int[size][size];
-        for (int i = 0; i < size; i++) System.arraycopy(grid[i], 0, copy[i], 0, size);
+        for (int i = 0; i < size; i++) System.arraycopy(cells, point(i, 0), copy[i], 0, size);
         return copy;
     }
 
@@ -204,9 +820,16 @@ public class Board {
      *
      * @param src source grid
      */
-    public synchronized void setGridFromCopy(int[][] src) {
+    @Override
+    public void setGridFromCopy(int[][] src) {
         if (src == null || src.length != size) return;
-        for (int i = 0; i < size; i++) System.arraycopy(src[i], 0, grid[i], 0, size);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int v = src[r][c];
+                cells[point(r, c)] = (v == 1 || v == 2 ? v : 0);
+            }
+        }
+        rebuildChains();
     }
 
     // static compare
@@ -231,12 +854,12 @@ public class Board {
     /**
      * Clears the board (sets all fields to 0).
      */
-    public synchronized void clear() {
-        for (int r = 0; r < size; r++) {
-            for (int c = 0; c < size; c++) {
-                grid[r][c] = 0;
-            }
-        }
+    @Override
+    public void clear() {
+        clearCells();
+        chainsDirty = false;
+        hash = 0;
+        resetJournal();
     }
 
     /**
@@ -245,7 +868,7 @@ public class Board {
      * @return board as formatted string
      */
     @Override
-    public synchronized String toString() {
+    public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("    ");
         for (int c = 0; c < size; c++) sb.append(String.format("%2d", c));
@@ -254,8 +877,9 @@ public class Board {
             sb.append(String.format("%2d: ", r));
             for (int c = 0; c < size; c++) {
                 char ch = '.';
-                if (grid[r][c] == 1) ch = 'X';
-                if (grid[r][c] == 2) ch = 'O';
+                int v = cells[point(r, c)];
+                if (v == 1) ch = 'X';
+                if (v == 2) ch = 'O';
                 sb.append(" ").append(ch);
             }
             sb.append("\n");
@@ -0,0 +1,89 @@
+package lab4.common;
+
+/**
+ * Zmiana planszy po jednym ruchu: postawiony kamien i zbite punkty.
+ * Wysylana jako BOARD_DELTA zamiast calej planszy; {@link #version} to wersja
+ * {@link BoardSnapshot} po ruchu, wiec klient wie, czy nie zgubil zadnej zmiany.
+ */
+public final class BoardDelta {
+    /** Snapshot version after this move */
+    public final long version;
+    /** Row of the placed stone */
+    public final int row;
+    /** Column of the placed stone */
+    public final int col;
+    /** Player who placed the stone (1 or 2) */
+    public final int player;
+    /** Removed points, each as {@code r * size + c} */
+    public final int[] removed;
+
+    /**
+     * Creates a delta.
+     *
+     * @param version snapshot version after the move
+     * @param row row of the placed stone
+     * @param col column of the placed stone
+     * @param player player identifier (1 or 2)
+     * @param removed captured points ({@code r * size + c}), not copied
+     */
+    public BoardDelta(long version, int row, int col, int player, int[] removed) {
+        this.version = version;
+        this.row = row;
+        this.col = col;
+        this.player = player;
+        this.removed = removed;
+    }
+
+    /**
+     * Creates the delta of the last move played on a board.
+     *
+     * @param version snapshot version after the move
+     * @param b board on which the move was just played
+     * @param row row of the placed stone
+     * @param col column of the placed stone
+     * @param player player identifier (1 or 2)
+     * @return new delta
+     */
+    public static BoardDelta ofLastMove(long version, Board b, int row, int col, int player) {
+        int[] removed = new int[b.getLastCaptureCount()];
+        for (int i = 0; i < removed.length; i++) removed[i] = b.getLastCapturedPoint(i);
+        return new BoardDelta(version, row, col, player, removed);
+    }
+
+    /**
+     * Applies the change to a board of the same size.
+     * <p>
+     * Ruch jest grany przez {@link Board#play}, wiec lancuchy aktualizuja sie przyrostowo.
+     * Gdy plansza nie zgadza sie z serwerem (ruch nielegalny albo inne bicie), punkty sa
+     * zapisywane tak, jak przyslal je serwer, przez {@link Board#set}.
+     *
+     * @param b board to update
+     */
+    public void applyTo(Board b) {
+        int result = b.play(row, col, player);
+        if (result >= 0) {
+            if (result == removed.length && capturedSame(b)) return;
+            b.undo();
+        }
+        b.set(row, col, player);
+        for (int p : removed) b.set(p / b.size, p % b.size, 0);
+    }
+
+    /**
+     * Checks whether the last move on the board captured exactly the points of this delta.
+     *
+     * @param b board on which the move was just played
+     * @return true if the captured points are the same
+     */
+    private boolean capturedSame(Board b) {
+        for (int i = 0; i < removed.length; i++) {
+            int p = b.getLastCapturedPoint(i);
+            boolean found = false;
+            for (int q : removed) {
+                if (q == p) { found = true; break; }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+}
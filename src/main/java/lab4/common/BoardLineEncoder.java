@@ -0,0 +1,137 @@
+package lab4.common;
+
+import java.util.Arrays;
+
+/**
+ * Koduje linie {@code BOARD {json}\n} prosto do wielokrotnie uzywanego bufora bajtow,
+ * bez StringBuildera i bez posredniego Stringa.
+ * <p>
+ * Format jest ten sam co {@code "BOARD " + JsonUtil.boardToJson(...)}; wszystkie znaki to ASCII,
+ * wiec bajty sa od razu poprawnym UTF-8. Bufor jest nadpisywany przy kazdym kodowaniu,
+ * wiec jeden encoder moze byc uzywany tylko przez jeden watek naraz.
+ */
+public final class BoardLineEncoder {
+    /** Message prefix */
+    private static final byte[] PREFIX = {'B', 'O', 'A', 'R', 'D', ' '};
+    /** JSON part before the size */
+    private static final byte[] SIZE_FIELD = {'{', '"', 's', 'i', 'z', 'e', '"', ':'};
+    /** JSON part between the size and the version */
+    private static final byte[] VERSION_FIELD = {',', '"', 'v', 'e', 'r', 's', 'i', 'o', 'n', '"', ':'};
+    /** JSON part between the version and the first row */
+    private static final byte[] GRID_FIELD = {',', '"', 'g', 'r', 'i', 'd', '"', ':', '['};
+
+    /** Reusable output buffer */
+    private byte[] buf = new byte[0];
+    /** Number of valid bytes in {@link #buf} after the last encode */
+    private int length = 0;
+
+    /**
+     * Encodes a board snapshot as one framed BOARD line (terminated with '\n').
+     *
+     * @param b snapshot to encode
+     * @return number of bytes written to {@link #getBuffer()}
+     */
+    public int encode(BoardSnapshot b) {
+        int needed = lineLength(b);
+        if (buf.length < needed) buf = Arrays.copyOf(buf, needed);
+        length = write(b, buf);
+        return length;
+    }
+
+    /**
+     * Encodes a board snapshot as a new byte array of exactly the line length
+     * (used for the per-version cache in {@link BoardSnapshot}).
+     *
+     * @param b snapshot to encode
+     * @return encoded BOARD line
+     */
+    public static byte[] toBytes(BoardSnapshot b) {
+        byte[] line = new byte[lineLength(b)];
+        write(b, line);
+        return line;
+    }
+
+    /**
+     * Returns the exact length of the encoded line.
+     *
+     * @param b snapshot to encode
+     * @return number of bytes
+     */
+    private static int lineLength(BoardSnapshot b) {
+        int size = b.size();
+        // prefix + {"size":N + ,"version":V + ,"grid":[ + wiersze (2*size+1) z przecinkami + ]}\n
+        return PREFIX.length + SIZE_FIELD.length + digits(size) + VERSION_FIELD.length + digits(b.version)
+                + GRID_FIELD.length + size * (2 * size + 1) + (size - 1) + 3;
+    }
+
+    private static int write(BoardSnapshot b, byte[] buf) {
+        int size = b.size();
+        int pos = 0;
+        pos = put(PREFIX, buf, pos);
+        pos = put(SIZE_FIELD, buf, pos);
+        pos = putLong(size, buf, pos);
+        pos = put(VERSION_FIELD, buf, pos);
+        pos = putLong(b.version, buf, pos);
+        pos = put(GRID_FIELD, buf, pos);
+        for (int r = 0; r < size; r++) {
+            if (r > 0) buf[pos++] = ',';
+            buf[pos++] = '[';
+            for (int c = 0; c < size; c++) {
+                if (c > 0) buf[pos++] = ',';
+                buf[pos++] = (byte) ('0' + b.get(r, c)); // zawsze 0, 1 albo 2 -> jedna cyfra
+            }
+            buf[pos++] = ']';
+        }
+        buf[pos++] = ']';
+        buf[pos++] = '}';
+        buf[pos++] = '\n';
+        return pos;
+    }
+
+    /**
+     * Returns the internal buffer; only the first {@link #getLength()} bytes are valid.
+     * The contents change with the next {@link #encode(BoardSnapshot)}.
+     *
+     * @return encoded bytes
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * Returns the length of the last encoded line.
+     *
+     * @return number of valid bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    private static int put(byte[] src, byte[] buf, int pos) {
+        System.arraycopy(src, 0, buf, pos, src.length);
+        return pos + src.length;
+    }
+
+    private static int digits(long v) {
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) digits++;
+        return digits;
+    }
+
+    /**
+     * Writes a non-negative number as decimal digits.
+     *
+     * @param v value to write
+     * @param buf destination
+     * @param pos write position
+     * @return position after the digits
+     */
+    private static int putLong(long v, byte[] buf, int pos) {
+        int end = pos + digits(v);
+        for (int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,89 @@
+package lab4.common;
+
+/**
+ * Niezmienny, wersjonowany obraz planszy publikowany przez {@link Board#publish()}.
+ * Czytelnicy (broadcast, JSON, widzowie) moga go uzywac bez zadnej blokady.
+ * <p>
+ * Zakodowane postacie (linia BOARD, ramka binarna) sa liczone najwyzej raz na wersje,
+ * przy pierwszym uzyciu, i wspoldzielone przez wszystkich odbiorcow.
+ */
+public final class BoardSnapshot {
+    /** Version of the position; grows by one with every publish of the same board */
+    public final long version;
+    /** The position itself */
+    public final PackedBoard position;
+
+    /** Cached BOARD text line, null until first requested */
+    private volatile byte[] textLine;
+    /** Cached BOARD binary frame, null until first requested */
+    private volatile byte[] binaryFrame;
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param version position version
+     * @param position packed position
+     */
+    public BoardSnapshot(long version, PackedBoard position) {
+        this.version = version;
+        this.position = position;
+    }
+
+    /**
+     * Returns the board size.
+     *
+     * @return number of rows and columns
+     */
+    public int size() {
+        return position.size;
+    }
+
+    /**
+     * Returns the stone on a point.
+     *
+     * @param r row index
+     * @param c column index
+     * @return 0 empty, 1 player 1, 2 player 2
+     */
+    public int get(int r, int c) {
+        return position.get(r, c);
+    }
+
+    /**
+     * Returns the BOARD text line of this version ({@code BOARD {json}\n}, UTF-8),
+     * encoding it on the first call. The array is shared and must not be modified.
+     *
+     * @return encoded line
+     */
+    public byte[] getTextLine() {
+        byte[] line = textLine;
+        if (line == null) {
+            synchronized (this) {
+                line = textLine;
+                if (line == null) textLine = line = BoardLineEncoder.toBytes(this);
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Returns the BOARD frame of the binary protocol for this version,
+     * encoding it on the first call. The array is shared and must not be modified.
+     *
+     * @return encoded frame
+     */
+    public byte[] getBinaryFrame() {
+        byte[] frame = binaryFrame;
+        if (frame == null) {
+            synchronized (this) {
+                frame = binaryFrame;
+                if (frame == null) {
+                    frame = new byte[BinaryProtocol.boardFrameLength(size())];
+                    BinaryProtocol.writeBoardFrame(this, frame);
+                    binaryFrame = frame;
+                }
+            }
+        }
+        return frame;
+    }
+}
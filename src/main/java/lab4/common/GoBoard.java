@@ -0,0 +1,74 @@
+package lab4.common;
+
+/**
+ * Wspolne API plansz z regulami bicia i samobojstwa: {@link Board} (lancuchy i oddechy
+ * aktualizowane przy ruchu) i {@link BitBoard} (bitsety). Kod, ktory tylko gra ruchy
+ * i czyta pozycje (serializacja, liczenie punktow, testy), moze dzialac na obu.
+ * <p>
+ * Implementacje nie sa synchronizowane: plansza ma jednego pisarza.
+ */
+public interface GoBoard {
+
+    /**
+     * Returns the board size.
+     *
+     * @return number of rows and columns
+     */
+    int getSize();
+
+    /**
+     * Returns the stone on a point.
+     *
+     * @param r row index
+     * @param c column index
+     * @return 0 empty, 1 player 1, 2 player 2
+     */
+    int get(int r, int c);
+
+    /**
+     * Sets a point directly, without any rules (setting up a position).
+     *
+     * @param r row index
+     * @param c column index
+     * @param value 1 or 2 for a stone, anything else empties the point
+     */
+    void set(int r, int c, int value);
+
+    /**
+     * Checks whether a given board position is empty.
+     *
+     * @param r row index
+     * @param c column index
+     * @return true if the position is empty and within bounds
+     */
+    boolean isEmpty(int r, int c);
+
+    /**
+     * Applies a move to the board and performs captures if applicable.
+     *
+     * @param r row index
+     * @param c column index
+     * @param player player identifier (1 or 2)
+     * @return -1 occupied or out of bounds, -2 suicide, otherwise number of captured stones
+     */
+    int applyMoveAndCapture(int r, int c, int player);
+
+    /**
+     * Returns a copy of the board as an {@code int[][]} grid (0 empty, 1, 2).
+     *
+     * @return copied grid array
+     */
+    int[][] getGridCopy();
+
+    /**
+     * Restores the board state from a given grid copy.
+     *
+     * @param src source grid
+     */
+    void setGridFromCopy(int[][] src);
+
+    /**
+     * Clears the board.
+     */
+    void clear();
+}
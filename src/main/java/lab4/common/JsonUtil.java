@@ -1,8 +1,13 @@
 package lab4.common;
 
+import java.util.Arrays;
+
 /**
  * Prosta, reczna serializacja/deserializacja JSON dla Move i Board
  * Dziala z formatem ktory uzywamy w komunikacji (nie jest to pelny JSON parser)
+ * <p>
+ * Dekodery czytaja tekst jednym przejsciem (bez regexow, split i substring)
+ * i moga zapisywac wynik do istniejacego Board / Move.
  */
 public class JsonUtil {
 
@@ -25,43 +30,178 @@ public class JsonUtil {
      */
     public static Move jsonToMove(String json) {
         try {
-            String s = json.trim().replaceAll("[{}\" ]", "");
-            String[] parts = s.split(",");
-            int row = -1, col = -1, player = -1;
-            for (String p : parts) {
-                if (p.startsWith("row:")) row = Integer.parseInt(p.substring(4)); //czesc indeksu od 4 do konca
-                if (p.startsWith("col:")) col = Integer.parseInt(p.substring(4));
-                if (p.startsWith("player:")) player = Integer.parseInt(p.substring(7));
-            }
-            if (row < 0 || col < 0 || player <= 0) throw new IllegalArgumentException("Bad move fields");
-            return new Move(row, col, player);
+            return decodeMove(json, 0, new Move());
         } catch (Exception e) {
             throw new IllegalArgumentException("Invalid Move JSON: " + e.getMessage());
         }
     }
 
     /**
-     * Serializes a Board object into a JSON string.
+     * Decodes a move JSON in one pass (no regex, no substrings) into an existing Move.
+     *
+     * @param s text containing the JSON (a String, or a {@link LineBuffer} over received bytes)
+     * @param start index of the JSON object in s
+     * @param into move to fill
+     * @return {@code into}
+     * @throws IllegalArgumentException if the JSON is invalid or fields are missing
+     */
+    public static Move decodeMove(CharSequence s, int start, Move into) {
+        Cursor in = new Cursor(s, start);
+        int row = -1, col = -1, player = -1;
+        in.expect('{');
+        if (!in.consume('}')) {
+            do {
+                in.readKey();
+                if (in.keyIs("row")) row = in.readInt();
+                else if (in.keyIs("col")) col = in.readInt();
+                else if (in.keyIs("player")) player = in.readInt();
+                else in.skipValue();
+            } while (in.consume(','));
+            in.expect('}');
+        }
+        if (row < 0 || col < 0 || player <= 0) throw new IllegalArgumentException("Bad move fields");
+        into.row = row;
+        into.col = col;
+        into.player = player;
+        return into;
+    }
+
+    /**
+     * Serializes a board ({@link Board} or {@link BitBoard}) into a JSON string.
      *
      * @param b board to serialize
      * @return JSON representation of the board
      */
-    public static String boardToJson(Board b) {
+    public static String boardToJson(GoBoard b) {
+        int size = b.getSize();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"size\":").append(size).append(",\"grid\":[");
+        for (int r = 0; r < size; r++) {
+            sb.append("[");
+            for (int c = 0; c < size; c++) {
+                sb.append(b.get(r, c));
+                if (c < size - 1) sb.append(",");
+            }
+            sb.append("]");
+            if (r < size - 1) sb.append(",");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * Serializes a published board snapshot into the same JSON format as {@link #boardToJson(GoBoard)},
+     * with the snapshot version added (used to detect missed BOARD_DELTA messages).
+     * Does not touch the live Board, so it needs no lock.
+     *
+     * @param b snapshot to serialize
+     * @return JSON representation of the board
+     */
+    public static String boardToJson(BoardSnapshot b) {
+        int size = b.size();
         StringBuilder sb = new StringBuilder();
-        sb.append("{\"size\":").append(b.size).append(",\"grid\":[");
-        for (int r = 0; r < b.size; r++) {
+        sb.append("{\"size\":").append(size).append(",\"version\":").append(b.version).append(",\"grid\":[");
+        for (int r = 0; r < size; r++) {
             sb.append("[");
-            for (int c = 0; c < b.size; c++) {
-                sb.append(b.grid[r][c]);
-                if (c < b.size - 1) sb.append(",");
+            for (int c = 0; c < size; c++) {
+                sb.append(b.get(r, c));
+                if (c < size - 1) sb.append(",");
             }
             sb.append("]");
-            if (r < b.size - 1) sb.append(",");
+            if (r < size - 1) sb.append(",");
         }
         sb.append("]}");
         return sb.toString();
     }
 
+    /**
+     * Returns the version field of a board JSON.
+     *
+     * @param json JSON string representing a board
+     * @return snapshot version, or -1 if the JSON has none (old server)
+     */
+    public static long boardVersion(String json) {
+        int pos = json.indexOf("\"version\":");
+        if (pos < 0) return -1;
+        return new Cursor(json, pos + 10).readLong();
+    }
+
+    /**
+     * Serializes a board delta into a JSON string.
+     *
+     * @param d delta to serialize
+     * @return JSON representation of the delta
+     */
+    public static String deltaToJson(BoardDelta d) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"version\":").append(d.version)
+          .append(",\"row\":").append(d.row)
+          .append(",\"col\":").append(d.col)
+          .append(",\"player\":").append(d.player)
+          .append(",\"removed\":[");
+        for (int i = 0; i < d.removed.length; i++) {
+            if (i > 0) sb.append(",");
+            sb.append(d.removed[i]);
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * Deserializes a JSON string into a BoardDelta.
+     *
+     * @param json JSON string representing a delta
+     * @return BoardDelta object
+     * @throws IllegalArgumentException if the JSON is invalid or fields are missing
+     */
+    public static BoardDelta jsonToDelta(String json) {
+        try {
+            return decodeDelta(json, 0);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid delta JSON: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a delta JSON in one pass.
+     *
+     * @param s text containing the JSON
+     * @param start index of the JSON object in s
+     * @return decoded delta
+     * @throws IllegalArgumentException if the JSON is invalid or fields are missing
+     */
+    public static BoardDelta decodeDelta(CharSequence s, int start) {
+        Cursor in = new Cursor(s, start);
+        long version = -1;
+        int row = -1, col = -1, player = -1;
+        int[] removed = null;
+        in.expect('{');
+        do {
+            in.readKey();
+            if (in.keyIs("version")) version = in.readLong();
+            else if (in.keyIs("row")) row = in.readInt();
+            else if (in.keyIs("col")) col = in.readInt();
+            else if (in.keyIs("player")) player = in.readInt();
+            else if (in.keyIs("removed")) {
+                removed = new int[4];
+                int n = 0;
+                in.expect('[');
+                if (!in.consume(']')) {
+                    do {
+                        if (n == removed.length) removed = Arrays.copyOf(removed, n * 2);
+                        removed[n++] = in.readInt();
+                    } while (in.consume(','));
+                    in.expect(']');
+                }
+                removed = Arrays.copyOf(removed, n);
+            }
+            else in.skipValue();
+        } while (in.consume(','));
+        in.expect('}');
+        if (version < 0 || row < 0 || col < 0 || player <= 0 || removed == null) throw new IllegalArgumentException("Bad delta fields");
+        return new BoardDelta(version, row, col, player, removed);
+    }
+
      /**
      * Deserializes a JSON string into a Board object.
      *
@@ -71,28 +211,176 @@ public class JsonUtil {
      */
     public static Board jsonToBoard(String json) {
         try {
-            String s = json.replace("\n", "");
-            int sizePos = s.indexOf("\"size\":"); //index z size
-            if (sizePos < 0) throw new IllegalArgumentException("size missing");
-            int comma = s.indexOf(",", sizePos); //pierwszy przecinek za sizePos
-            int size = Integer.parseInt(s.substring(sizePos + 7, comma).trim()); //s i z e : " czyli 7 pozycja za
-
-            int gridStart = s.indexOf("[", s.indexOf("\"grid\":"));
-            int gridEnd = s.lastIndexOf("]");
-            String gridContent = s.substring(gridStart + 1, gridEnd);
-            // split po [ i ]
-            String[] rows = gridContent.split("\\],\\["); // W Javie backslash musi być podwójny, więc zapisujemy \\] i \\[
-            Board b = new Board(size);
-            for (int r = 0; r < size; r++) {
-                String row = rows[r].replace("[","").replace("]",""); //oczyszczamy
-                String[] vals = row.split(","); // poszczegolne wartosci w wierszu
-                for (int c = 0; c < size; c++) { // iteracja po kolumnach
-                    b.grid[r][c] = Integer.parseInt(vals[c].trim());
-                }
-            }
+            Board b = new Board(peekBoardSize(json, 0));
+            decodeBoard(json, 0, b);
             return b;
         } catch (Exception e) {
             throw new IllegalArgumentException("Invalid Board JSON: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads only the size field of a board JSON (it is the first field, so this stops early).
+     * Lets the caller reuse its Board when the size did not change.
+     *
+     * @param s text containing the JSON
+     * @param start index of the JSON object in s
+     * @return board size
+     * @throws IllegalArgumentException if the JSON is invalid or has no size
+     */
+    public static int peekBoardSize(CharSequence s, int start) {
+        Cursor in = new Cursor(s, start);
+        in.expect('{');
+        do {
+            in.readKey();
+            if (in.keyIs("size")) return in.readInt();
+            in.skipValue();
+        } while (in.consume(','));
+        throw new IllegalArgumentException("size missing");
+    }
+
+    /**
+     * Decodes a board JSON in one pass directly into an existing Board
+     * (no regex, no split, no substrings, no new Board).
+     *
+     * @param s text containing the JSON (a String, or a {@link LineBuffer} over received bytes)
+     * @param start index of the JSON object in s
+     * @param into board of the same size to fill
+     * @return snapshot version from the JSON, or -1 if it has none
+     * @throws IllegalArgumentException if the JSON is invalid, incomplete or of another size
+     */
+    public static long decodeBoard(CharSequence s, int start, Board into) {
+        Cursor in = new Cursor(s, start);
+        int size = into.size;
+        long version = -1;
+        boolean hasSize = false, hasGrid = false;
+        in.expect('{');
+        do {
+            in.readKey();
+            if (in.keyIs("size")) {
+                if (in.readInt() != size) throw new IllegalArgumentException("Board size mismatch");
+                hasSize = true;
+            } else if (in.keyIs("version")) {
+                version = in.readLong();
+            } else if (in.keyIs("grid")) {
+                in.expect('[');
+                for (int r = 0; r < size; r++) {
+                    if (r > 0) in.expect(',');
+                    in.expect('[');
+                    for (int c = 0; c < size; c++) {
+                        if (c > 0) in.expect(',');
+                        into.set(r, c, in.readInt());
+                    }
+                    in.expect(']');
+                }
+                in.expect(']');
+                hasGrid = true;
+            } else {
+                in.skipValue();
+            }
+        } while (in.consume(','));
+        in.expect('}');
+        if (!hasSize) throw new IllegalArgumentException("size missing");
+        if (!hasGrid) throw new IllegalArgumentException("grid missing");
+        return version;
+    }
+
+    /**
+     * Position in the decoded text; reads tokens of our simple JSON format.
+     */
+    private static final class Cursor {
+        /** Decoded text */
+        private final CharSequence s;
+        /** End of the text */
+        private final int end;
+        /** Current position */
+        private int pos;
+        /** Start of the last key read (inside quotes) */
+        private int keyStart;
+        /** End of the last key read (exclusive) */
+        private int keyEnd;
+
+        Cursor(CharSequence s, int start) {
+            this.s = s;
+            this.end = s.length();
+            this.pos = start;
+        }
+
+        /** Skips whitespace and returns the next character without consuming it. */
+        private char peek() {
+            while (pos < end && s.charAt(pos) <= ' ') pos++;
+            if (pos >= end) throw new IllegalArgumentException("unexpected end");
+            return s.charAt(pos);
+        }
+
+        void expect(char ch) {
+            if (peek() != ch) throw new IllegalArgumentException("expected '" + ch + "' at " + pos);
+            pos++;
+        }
+
+        boolean consume(char ch) {
+            if (peek() != ch) return false;
+            pos++;
+            return true;
+        }
+
+        /** Reads {@code "name":} and remembers where the name is. */
+        void readKey() {
+            expect('"');
+            keyStart = pos;
+            while (pos < end && s.charAt(pos) != '"') pos++;
+            keyEnd = pos;
+            expect('"');
+            expect(':');
+        }
+
+        /** Compares the last key with a name without creating a String. */
+        boolean keyIs(String name) {
+            if (keyEnd - keyStart != name.length()) return false;
+            for (int i = 0; i < name.length(); i++) {
+                if (s.charAt(keyStart + i) != name.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        long readLong() {
+            boolean negative = consume('-');
+            int first = pos;
+            long v = 0;
+            while (pos < end) {
+                char ch = s.charAt(pos);
+                if (ch < '0' || ch > '9') break;
+                v = v * 10 + (ch - '0');
+                pos++;
+            }
+            if (pos == first) throw new IllegalArgumentException("number expected at " + pos);
+            return negative ? -v : v;
+        }
+
+        int readInt() {
+            long v = readLong();
+            if (v != (int) v) throw new IllegalArgumentException("number too large");
+            return (int) v;
+        }
+
+        /** Skips a value of an unknown field (number, string or nested arrays). */
+        void skipValue() {
+            char ch = peek();
+            if (ch == '"') {
+                pos++;
+                while (pos < end && s.charAt(pos) != '"') pos++;
+                expect('"');
+            } else if (ch == '[') {
+                int depth = 0;
+                do {
+                    ch = s.charAt(pos++);
+                    if (ch == '[') depth++;
+                    else if (ch == ']') depth--;
+                } while (depth > 0 && pos < end);
+                if (depth != 0) throw new IllegalArgumentException("unexpected end");
+            } else {
+                readLong();
+            }
+        }
+    }
+}
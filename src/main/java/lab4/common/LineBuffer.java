@@ -0,0 +1,111 @@
+package lab4.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Wielokrotnie uzywany bufor na jedna odebrana linie (bajty bez dekodowania).
+ * Jako CharSequence moze byc podany wprost do dekoderow {@link JsonUtil},
+ * wiec linia BOARD nie musi byc zamieniana na String.
+ * <p>
+ * charAt zwraca pojedyncze bajty, co jest poprawne dla ASCII (caly JSON planszy i ruchu);
+ * tekst z polskimi znakami trzeba odczytac przez {@link #toString()}.
+ */
+public final class LineBuffer implements CharSequence {
+    /** Bytes of the current line (without the line terminator) */
+    private byte[] buf = new byte[256];
+    /** Length of the current line */
+    private int length = 0;
+    /** Whether {@link #feed(ByteBuffer)} returned a complete line that was not replaced yet */
+    private boolean complete = false;
+
+    /**
+     * Reads the next line ('\n' terminated, '\r' removed) from a stream, replacing the current one.
+     * Reads byte by byte, so nothing after the line is consumed (the stream should be buffered).
+     *
+     * @param in source stream
+     * @return false at end of stream when no bytes were read
+     * @throws IOException if reading fails
+     */
+    public boolean readLine(InputStream in) throws IOException {
+        length = 0;
+        complete = false;
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') break;
+            if (length == buf.length) buf = Arrays.copyOf(buf, length * 2);
+            buf[length++] = (byte) b;
+        }
+        if (b < 0 && length == 0) return false;
+        if (length > 0 && buf[length - 1] == '\r') length--;
+        return true;
+    }
+
+    /**
+     * Appends bytes from a buffer until a line is complete (non-blocking transports).
+     * Bytes of an unfinished line are kept, the next call continues it;
+     * after a complete line was returned, the next call starts a new one.
+     *
+     * @param src bytes received so far (read mode); consumed up to and including '\n'
+     * @return true if a complete line ('\r' removed) is available
+     */
+    public boolean feed(ByteBuffer src) {
+        if (complete) {
+            length = 0;
+            complete = false;
+        }
+        while (src.hasRemaining()) {
+            byte b = src.get();
+            if (b == '\n') {
+                if (length > 0 && buf[length - 1] == '\r') length--;
+                complete = true;
+                return true;
+            }
+            if (length == buf.length) buf = Arrays.copyOf(buf, length * 2);
+            buf[length++] = b;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the line starts with an ASCII prefix.
+     *
+     * @param prefix prefix to check
+     * @return true if the line starts with it
+     */
+    public boolean startsWith(String prefix) {
+        if (prefix.length() > length) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buf[i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buf[index] & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(buf, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the line as UTF-8.
+     *
+     * @return the line as a String
+     */
+    @Override
+    public String toString() {
+        return new String(buf, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,122 @@
+package lab4.common;
+
+import java.util.Arrays;
+
+/**
+ * Zbior wartosci long bez pakowania w obiekty (open addressing, linear probing).
+ * Uzywany do historii hashy pozycji (superko), wiec wspiera tylko add/contains/clear.
+ */
+public final class LongHashSet {
+    /** Minimal table capacity (power of two) */
+    private static final int MIN_CAPACITY = 16;
+
+    /** Slots; 0 means free, the value 0 itself is kept in {@link #hasZero} */
+    private long[] table;
+    /** Number of stored non-zero values */
+    private int count = 0;
+    /** Whether the value 0 is in the set */
+    private boolean hasZero = false;
+
+    /**
+     * Creates an empty set.
+     */
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates an empty set sized for the expected number of values.
+     *
+     * @param expected expected number of values
+     */
+    public LongHashSet(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2) capacity <<= 1; // load factor 0.5
+        table = new long[capacity];
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value value to add
+     * @return true if the value was not in the set before
+     */
+    public boolean add(long value) {
+        if (value == 0) {
+            boolean added = !hasZero;
+            hasZero = true;
+            return added;
+        }
+        int mask = table.length - 1;
+        int i = mix(value) & mask;
+        while (table[i] != 0) {
+            if (table[i] == value) return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        if (++count * 2 > table.length) grow();
+        return true;
+    }
+
+    /**
+     * Checks whether a value is in the set.
+     *
+     * @param value value to look up
+     * @return true if present
+     */
+    public boolean contains(long value) {
+        if (value == 0) return hasZero;
+        int mask = table.length - 1;
+        int i = mix(value) & mask;
+        while (table[i] != 0) {
+            if (table[i] == value) return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of values in the set.
+     *
+     * @return size of the set
+     */
+    public int size() {
+        return count + (hasZero ? 1 : 0);
+    }
+
+    /**
+     * Removes all values, keeping the allocated table.
+     */
+    public void clear() {
+        Arrays.fill(table, 0L);
+        count = 0;
+        hasZero = false;
+    }
+
+    /** Doubles the table and reinserts all values. */
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        int mask = table.length - 1;
+        for (long v : old) {
+            if (v == 0) continue;
+            int i = mix(v) & mask;
+            while (table[i] != 0) i = (i + 1) & mask;
+            table[i] = v;
+        }
+    }
+
+    /**
+     * Spreads the bits of the value (Zobrist hashes are random already,
+     * but other callers may add sequential numbers).
+     *
+     * @param v value
+     * @return mixed bits
+     */
+    private static int mix(long v) {
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        return (int) v;
+    }
+}
@@ -0,0 +1,132 @@
+package lab4.common;
+
+import java.util.Arrays;
+
+/**
+ * Niezmienna, zwarta kopia pozycji: 2 bity na punkt w long[] (32 punkty na long).
+ * Plansza 19x19 zajmuje 12 longow zamiast int[19][19].
+ * <p>
+ * Do archiwum pozycji, punktow kontrolnych replayu i wezlow przeszukiwania bota.
+ * equals/hashCode porownuja pozycje, wiec mozna jej uzywac jako klucza w mapie.
+ */
+public final class PackedBoard {
+    /** Board size (number of rows and columns) */
+    public final int size;
+    /** Point (r, c) has index {@code r * size + c}; its 2 bits start at bit {@code 2 * index} */
+    private final long[] bits;
+    /** Cached hash code */
+    private final int hash;
+
+    /**
+     * Creates a packed position from already packed bits (not copied).
+     *
+     * @param size board dimension
+     * @param bits packed points
+     */
+    private PackedBoard(int size, long[] bits) {
+        this.size = size;
+        this.bits = bits;
+        this.hash = 31 * size + Arrays.hashCode(bits);
+    }
+
+    /**
+     * Packs the current position of a board.
+     *
+     * @param b source board
+     * @return immutable packed position
+     */
+    public static PackedBoard of(Board b) {
+        int size = b.size;
+        long[] bits = new long[(size * size * 2 + 63) / 64];
+        int i = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++, i++) {
+                long v = b.get(r, c);
+                if (v != 0) bits[i >>> 5] |= v << ((i & 31) << 1);
+            }
+        }
+        return new PackedBoard(size, bits);
+    }
+
+    /**
+     * Packs a grid (0 empty, 1 player 1, 2 player 2; other values are stored as 0).
+     *
+     * @param size board dimension
+     * @param grid source grid
+     * @return immutable packed position
+     */
+    public static PackedBoard of(int size, int[][] grid) {
+        long[] bits = new long[(size * size * 2 + 63) / 64];
+        int i = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++, i++) {
+                long v = grid[r][c];
+                if (v == 1 || v == 2) bits[i >>> 5] |= v << ((i & 31) << 1);
+            }
+        }
+        return new PackedBoard(size, bits);
+    }
+
+    /**
+     * Returns the stone on a point.
+     *
+     * @param r row index
+     * @param c column index
+     * @return 0 empty, 1 player 1, 2 player 2
+     */
+    public int get(int r, int c) {
+        int i = r * size + c;
+        return (int) (bits[i >>> 5] >>> ((i & 31) << 1)) & 3;
+    }
+
+    /**
+     * Creates a new {@link Board} with this position.
+     *
+     * @return new board
+     */
+    public Board toBoard() {
+        Board b = new Board(size);
+        copyInto(b);
+        return b;
+    }
+
+    /**
+     * Writes this position into an existing board of the same size
+     * (e.g. restoring a search node without allocating a new Board).
+     *
+     * @param b target board
+     * @throws IllegalArgumentException if the sizes differ
+     */
+    public void copyInto(Board b) {
+        if (b.size != size) throw new IllegalArgumentException("Board size mismatch: " + b.size + " != " + size);
+        int i = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++, i++) {
+                b.set(r, c, (int) (bits[i >>> 5] >>> ((i & 31) << 1)) & 3);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PackedBoard)) return false;
+        PackedBoard other = (PackedBoard) o;
+        return size == other.size && hash == other.hash && Arrays.equals(bits, other.bits);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Returns the same text as {@link Board#toString()}.
+     *
+     * @return board as formatted string
+     */
+    @Override
+    public String toString() {
+        return toBoard().toString();
+    }
+}
@@ -0,0 +1,109 @@
+package lab4.common;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Skrzynka zadan wykonywanych po kolei: zadania dodaje dowolny watek, a wykonuje je
+ * co najwyzej jeden watek wspolnej puli naraz, w kolejnosci dodania.
+ * <p>
+ * Wiele skrzynek (np. jedna na sesje gry) dzieli kilka watkow puli; skrzynka, ktora ma
+ * zadania, zajmuje jeden watek najwyzej na {@value #BATCH} zadan, potem ustawia sie w puli
+ * na nowo, zeby nie zaglodzic innych.
+ */
+public final class SerialExecutor implements Executor {
+    /** Tasks run in one go before the pool thread is given back */
+    static final int BATCH = 64;
+
+    /** Pool running the drains */
+    private final Executor pool;
+    /** Tasks waiting to run */
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /** Number of waiting tasks (ConcurrentLinkedQueue.size() is O(n)) */
+    private final AtomicInteger queued = new AtomicInteger();
+    /** Whether a drain is queued in the pool or running */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Creates a mailbox drained by the given pool.
+     *
+     * @param pool executor running the drains (shared by many mailboxes)
+     */
+    public SerialExecutor(Executor pool) {
+        this.pool = Objects.requireNonNull(pool);
+    }
+
+    /**
+     * Queues a task; it runs after every task queued before it, never concurrently with them.
+     *
+     * @param task task to run
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(Objects.requireNonNull(task));
+        queued.incrementAndGet();
+        schedule();
+    }
+
+    /**
+     * Returns the number of tasks waiting to run (monitoring).
+     *
+     * @return queued task count
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) return; // drain juz trwa albo czeka w puli
+        try {
+            pool.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+            throw e;
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) break;
+                queued.decrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // jedno zepsute zadanie nie moze zatrzymac calej skrzynki
+                    System.err.println("Queued task failed: " + e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            if (!tasks.isEmpty()) schedule(); // zadanie dodane w trakcie albo przerwa po BATCH
+        }
+    }
+
+    /**
+     * Creates a pool of daemon threads named {@code name-N} for draining mailboxes.
+     *
+     * @param name thread name prefix
+     * @param threads number of threads, or 0 for a pool growing on demand (for tasks that block)
+     * @return new pool
+     */
+    public static ExecutorService newPool(String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true); // nie blokuja zamkniecia JVM
+            return t;
+        };
+        return threads > 0 ? Executors.newFixedThreadPool(threads, factory) : Executors.newCachedThreadPool(factory);
+    }
+}
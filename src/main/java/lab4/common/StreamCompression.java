@@ -0,0 +1,51 @@
+package lab4.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Opcjonalna kompresja strumienia serwer -> klient (jeden kontekst deflate na polaczenie).
+ * <p>
+ * Negocjacja: klient wysyla linie {@value #NEGOTIATE} (tekstem, przed PROTO BINARY),
+ * serwer odpowiada ta sama linia jeszcze bez kompresji, a wszystko po niej jest juz skompresowane.
+ * Kazdy flush to SYNC_FLUSH, wiec klient dostaje komplet danych paczki od razu, a slownik
+ * zostaje miedzy paczkami - kolejne prawie identyczne plansze kosztuja kilka bajtow.
+ * Kierunek klient -> serwer (krotkie komendy) nie jest kompresowany.
+ */
+public final class StreamCompression {
+    /** Text line that turns compression on (also the server's acknowledgement) */
+    public static final String NEGOTIATE = "COMPRESS DEFLATE";
+
+    /** Size of the buffers around the deflate/inflate streams */
+    private static final int BUFFER_SIZE = 8192;
+
+    private StreamCompression() {}
+
+    /**
+     * Wraps a stream so that everything written is deflated; {@code flush()} does a sync flush.
+     *
+     * @param out raw stream (socket)
+     * @return buffered compressing stream
+     */
+    public static OutputStream deflating(OutputStream out) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true); // bez naglowka zlib
+        return new BufferedOutputStream(new DeflaterOutputStream(out, deflater, BUFFER_SIZE, true), BUFFER_SIZE);
+    }
+
+    /**
+     * Wraps a stream written by {@link #deflating(OutputStream)}.
+     * Pass the stream that was already read from (with its buffer), so no compressed bytes are lost.
+     *
+     * @param in stream positioned right after the acknowledgement line
+     * @return buffered decompressing stream
+     */
+    public static InputStream inflating(InputStream in) {
+        return new BufferedInputStream(new InflaterInputStream(in, new Inflater(true), BUFFER_SIZE), BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,184 @@
+package lab4.common;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wspolny wykonawca dlugo zyjacych zadan (watek gracza, bot, nasluch klienta):
+ * kazde zadanie dostaje wlasny nazwany watek - zwykly albo wirtualny.
+ * <p>
+ * Tryb wybiera wlasciwosc {@value #PROPERTY} ({@code platform} albo {@code virtual})
+ * lub {@link #configure(Mode)}. Watki wirtualne sa tworzone przez refleksje
+ * ({@code Thread.ofVirtual()}), bo projekt kompiluje sie na Javie 17; gdy JVM ich nie ma,
+ * uzywane sa zwykle watki, a {@link #getMode()} zwraca PLATFORM.
+ * Liczniki i nazwy zywych watkow sa dostepne do monitorowania.
+ */
+public final class TaskThreads implements Executor {
+    /** Kind of threads used for tasks */
+    public enum Mode { PLATFORM, VIRTUAL }
+
+    /** System property selecting the mode */
+    public static final String PROPERTY = "lab4.threads";
+
+    /** Shared instance, created on first use */
+    private static volatile TaskThreads shared;
+
+    /** Effective mode (VIRTUAL only if the JVM supports it) */
+    private final Mode mode;
+    /** {@code Thread.ofVirtual()}, null in platform mode */
+    private final Method ofVirtual;
+    /** {@code Thread.Builder.name(String)} */
+    private final Method builderName;
+    /** {@code Thread.Builder.unstarted(Runnable)} */
+    private final Method builderUnstarted;
+    /** Tasks started so far */
+    private final AtomicLong started = new AtomicLong();
+    /** Tasks still running */
+    private final AtomicInteger running = new AtomicInteger();
+    /** Threads of running tasks */
+    private final Set<Thread> live = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates an executor; VIRTUAL falls back to PLATFORM when virtual threads are not available.
+     *
+     * @param requested requested mode
+     */
+    public TaskThreads(Mode requested) {
+        Method of = null, name = null, unstarted = null;
+        if (requested == Mode.VIRTUAL) {
+            try {
+                of = Thread.class.getMethod("ofVirtual");
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                name = builder.getMethod("name", String.class);
+                unstarted = builder.getMethod("unstarted", Runnable.class);
+                of.invoke(null); // na Javie 19/20 bez --enable-preview rzuca wyjatek
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                System.err.println("Virtual threads not available on Java " + Runtime.version().feature()
+                        + ", using platform threads");
+                of = null;
+            }
+        }
+        this.ofVirtual = of;
+        this.builderName = name;
+        this.builderUnstarted = unstarted;
+        this.mode = (of != null ? Mode.VIRTUAL : Mode.PLATFORM);
+    }
+
+    /**
+     * Returns the shared executor, created from the {@value #PROPERTY} property on first use.
+     *
+     * @return shared instance
+     */
+    public static TaskThreads shared() {
+        TaskThreads t = shared;
+        if (t == null) {
+            synchronized (TaskThreads.class) {
+                if (shared == null) {
+                    String prop = System.getProperty(PROPERTY, "platform").trim().toUpperCase(Locale.ROOT);
+                    shared = new TaskThreads(prop.equals("VIRTUAL") ? Mode.VIRTUAL : Mode.PLATFORM);
+                }
+                t = shared;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Replaces the shared executor (call at startup, before any task is started).
+     *
+     * @param mode requested mode
+     * @return the new shared instance
+     */
+    public static synchronized TaskThreads configure(Mode mode) {
+        shared = new TaskThreads(mode);
+        return shared;
+    }
+
+    /**
+     * Starts a task in its own named thread.
+     *
+     * @param name thread name (shown by monitoring)
+     * @param task task to run
+     * @return the started thread
+     */
+    public Thread start(String name, Runnable task) {
+        Thread t = newThread(name, () -> {
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+                live.remove(Thread.currentThread());
+            }
+        });
+        started.incrementAndGet();
+        running.incrementAndGet();
+        live.add(t);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Starts a task in a thread named {@code task-N}.
+     *
+     * @param task task to run
+     */
+    @Override
+    public void execute(Runnable task) {
+        start("task-" + (started.get() + 1), task);
+    }
+
+    private Thread newThread(String name, Runnable r) {
+        if (ofVirtual == null) return new Thread(r, name);
+        try {
+            Object builder = builderName.invoke(ofVirtual.invoke(null), name);
+            return (Thread) builderUnstarted.invoke(builder, r);
+        } catch (ReflectiveOperationException e) {
+            return new Thread(r, name); // nie powinno sie zdarzyc, metody sprawdzone w konstruktorze
+        }
+    }
+
+    /**
+     * Returns the effective mode.
+     *
+     * @return VIRTUAL only if tasks really run in virtual threads
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the number of tasks still running.
+     *
+     * @return running task count
+     */
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    /**
+     * Returns the number of tasks started since creation.
+     *
+     * @return started task count
+     */
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    /**
+     * Returns the names of the threads of running tasks.
+     *
+     * @return thread names (copy)
+     */
+    public List<String> getThreadNames() {
+        List<String> names = new ArrayList<>();
+        for (Thread t : live) names.add(t.getName());
+        return names;
+    }
+}
@@ -1,14 +1,31 @@
 package lab4.server;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
-import lab4.common.JsonUtil;
-import lab4.common.Move;
+import lab4.common.BinaryProtocol;
+import lab4.common.BoardSnapshot;
+import lab4.common.LineBuffer;
+import lab4.common.SerialExecutor;
+import lab4.common.StreamCompression;
+import lab4.common.TaskThreads;
 
 /**
  * Handles a single client connection.
@@ -18,35 +35,217 @@ import lab4.common.Move;
  *  - MOVE {json}
  *  - PASS
  *  - RESIGN
+ *  - PROTO BINARY (przelacza polaczenie na ramki {@link BinaryProtocol})
+ *  - DELTAS (po ruchu wysylamy BOARD_DELTA zamiast calej planszy)
+ *  - SYNC (prosba o cala plansze, np. po zgubionej delcie)
+ *  - COMPRESS DEFLATE (dalsze wiadomosci do klienta sa kompresowane, zob. {@link StreamCompression})
+ *  - WATCH gameId (gracz bez rozpoczetej gry zostaje widzem innej gry)
+ *  - QUEUE size [rating] (gracz bez rozpoczetej gry czeka w {@link Lobby} na przeciwnika o tych preferencjach)
  *
  * Sends back lines like: (wysyla np. GameSession)
  *  - INFO ...
  *  - ERROR ...
  *  - BOARD ...
+ *
+ * Every send is flushed at once, unless a batch is open ({@link #beginBatch()}):
+ * then all messages of one game state change go out with a single flush.
+ * <p>
+ * Wysylanie nie blokuje nadawcy (skrzynki sesji): zakodowane bajty trafiaja do ograniczonej
+ * kolejki ({@value #MAX_QUEUED_BYTES} bajtow), ktora oproznia osobny watek piszacy tego polaczenia.
+ * Gdy klient nie nadaza i kolejka jest pelna, decyduje {@link OverflowPolicy}: wyrzucic z kolejki
+ * plansze BOARD, ktore i tak zastapi nowsza, albo rozlaczyc klienta.
+ * <p>
+ * Watki piszace: przy watkach wirtualnych ({@link TaskThreads}) kazde oproznianie kolejki dostaje
+ * wlasny watek wirtualny; inaczej sluzy ograniczona pula zwyklych watkow. Zapis do socketu moze
+ * sie zablokowac, wiec straznik rozlacza klienta, ktorego jeden zapis trwa dluzej niz
+ * {@value #WRITE_STALL_MS} ms - zablokowany klient nie zajmuje watku puli na zawsze.
  */
 
-public class ClientHandler implements Runnable {
+public class ClientHandler implements Runnable, PlayerConnection {
+    /** Number of platform threads writing to the sockets of all handlers */
+    static final int WRITER_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    /** Default longest time a single socket write may block before the client is disconnected */
+    static final long WRITE_STALL_MS = 10_000;
+    /** How often the watchdog looks at running writes */
+    private static final long WATCHDOG_PERIOD_MS = 250;
+    /** Current limit of a blocked write, in milliseconds */
+    private static volatile long writeStallMs = WRITE_STALL_MS;
+    /** Default limit of bytes waiting for the writer */
+    static final int MAX_QUEUED_BYTES = 256 * 1024;
+
+    /** What happens when the outbound queue of a slow client is full */
+    public enum OverflowPolicy {
+        /** Drop queued BOARD messages superseded by a newer board; disconnect only if that is not enough */
+        DROP_BOARDS,
+        /** Disconnect the client at once */
+        DISCONNECT
+    }
+
+    /** Policy of new handlers */
+    private static volatile OverflowPolicy defaultPolicy = OverflowPolicy.DROP_BOARDS;
+
+    /** One entry of the outbound queue */
+    private static final class Chunk {
+        /** Ordinary messages, never dropped */
+        static final int DATA = 0;
+        /** One full board, may be dropped when a newer one is queued */
+        static final int BOARD = 1;
+        /** Not sent: flush and switch the stream to deflate (after COMPRESS) */
+        static final int DEFLATE = 2;
+
+        final int kind;
+        final byte[] bytes;
+
+        Chunk(int kind, byte[] bytes) {
+            this.kind = kind;
+            this.bytes = bytes;
+        }
+    }
+
     /** Socket for communication with this client */
     private final Socket socket;
-    /** Reader for incoming client messages */
-    private final BufferedReader in;
-    /** Writer for outgoing messages to client */
-    private final PrintWriter out;
-    /** Player ID assigned to this client */
-    private final int playerId;
+    /** Reader for incoming client messages (lines are read byte by byte, see {@link LineBuffer#readLine}) */
+    private final DataInputStream in;
+    /** Unbuffered output stream of the socket */
+    private final OutputStream socketOut;
+    /** Buffered byte stream of the socket (deflating after COMPRESS), used only by the running writer */
+    private OutputStream rawOut;
+    /** Bytes of the open batch not yet turned into a chunk (guarded by lock) */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(256);
+    /** Chunks of the open batch, queued together at its end (guarded by lock) */
+    private final List<Chunk> batchChunks = new ArrayList<>();
+    /** Chunks waiting for the writer (guarded by lock) */
+    private final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+    /** Bytes in {@link #queue} (guarded by lock) */
+    private int queuedBytes = 0;
+    /** Limit of {@link #queuedBytes} */
+    private final int maxQueuedBytes;
+    /** What to do when the limit is reached */
+    private final OverflowPolicy policy;
+    /** Whether a writer task is running for this handler (guarded by lock) */
+    private boolean writing = false;
+    /** {@link System#nanoTime()} when the running socket write started, 0 when not writing */
+    private volatile long writeStarted = 0;
+    /** Whether the connection failed or was dropped; nothing more is queued (guarded by lock) */
+    private boolean closed = false;
+    /** Boards dropped from the queue (guarded by lock) */
+    private long dropped = 0;
+    /** Guards the outbound queue and the protocol flags */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Number of open batches; bytes are handed to the writer only when it drops to 0 */
+    private int batchDepth = 0;
+    /** Game session this client plays in, null before the lobby pairs it */
+    private volatile GameSession session;
+    /** Player ID assigned to this client in {@link #session} */
+    private volatile int playerId;
+    /** Whether the client negotiated the binary protocol (outgoing side, switched after the acknowledgement) */
+    private boolean binary = false;
+    /** Whether commands are read as binary frames, used only by the reading thread */
+    private boolean framedInput = false;
+    /** Negotiations received during an open batch, applied when it is closed (guarded by lock) */
+    private final List<String> deferredOptions = new ArrayList<>();
+    /** Whether the outgoing stream is compressed ({@link StreamCompression}) */
+    private boolean compressed = false;
+    /** Turns received commands into session calls, used only by the reading thread */
+    private final CommandDispatcher dispatcher;
+    /** Whether the client applies BOARD_DELTA messages */
+    private volatile boolean deltas = false;
+
+    /**
+     * Creates a ClientHandler for a new connection that is not in a game yet
+     * ({@link GameSessionRegistry#assign(PlayerConnection)} hands it to the lobby).
+     *
+     * @param socket connected client socket
+     * @param registry registry whose lobby pairs the player
+     * @throws IOException if socket streams cannot be opened
+     */
+    public ClientHandler(Socket socket, GameSessionRegistry registry) throws IOException {
+        this(socket, 0, null, registry, defaultPolicy, MAX_QUEUED_BYTES);
+    }
 
     /**
      * Creates a ClientHandler for a connected socket.
      *
      * @param socket connected client socket
      * @param playerId assigned player ID (1 or 2)
+     * @param session game session the commands are forwarded to
+     * @throws IOException if socket streams cannot be opened
+     */
+    public ClientHandler(Socket socket, int playerId, GameSession session) throws IOException {
+        this(socket, playerId, session, defaultPolicy, MAX_QUEUED_BYTES);
+    }
+
+    /**
+     * Creates a ClientHandler with its own outbound queue limit.
+     *
+     * @param socket connected client socket
+     * @param playerId assigned player ID (1 or 2)
+     * @param session game session the commands are forwarded to
+     * @param policy what to do when the outbound queue is full
+     * @param maxQueuedBytes limit of bytes waiting for the writer
      * @throws IOException if socket streams cannot be opened
      */
-    public ClientHandler(Socket socket, int playerId) throws IOException {
+    ClientHandler(Socket socket, int playerId, GameSession session, OverflowPolicy policy, int maxQueuedBytes)
+            throws IOException {
+        this(socket, playerId, session, session == null ? null : session.getRegistry(), policy, maxQueuedBytes);
+    }
+
+    private ClientHandler(Socket socket, int playerId, GameSession session, GameSessionRegistry registry,
+                          OverflowPolicy policy, int maxQueuedBytes) throws IOException {
+        this.dispatcher = new CommandDispatcher(this, registry);
+        this.policy = policy;
+        this.maxQueuedBytes = maxQueuedBytes;
         this.socket = socket; // tutaj bierzemy socket (utworzony w ClientConnection) pozyskany przez serverSocket.accept() w ServerMain
         this.playerId = playerId;
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+        this.session = session;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.socketOut = socket.getOutputStream();
+        this.rawOut = new BufferedOutputStream(socketOut);
+    }
+
+    /**
+     * Sets the overflow policy of handlers created from now on (server startup).
+     *
+     * @param policy policy for slow clients
+     */
+    public static void setDefaultPolicy(OverflowPolicy policy) {
+        defaultPolicy = policy;
+    }
+
+    /**
+     * Sets how long one socket write may block before the client is disconnected.
+     *
+     * @param ms limit in milliseconds
+     */
+    static void setWriteStallTimeout(long ms) {
+        writeStallMs = ms;
+    }
+
+    /** Writer threads and the watchdog of blocked writes, created on first use */
+    private static final class Writers {
+        /** Bounded pool of platform writer threads */
+        static final ExecutorService POOL = SerialExecutor.newPool("conn-writer", WRITER_THREADS);
+        /** Handlers with a writer task running */
+        static final Set<ClientHandler> ACTIVE = ConcurrentHashMap.newKeySet();
+        /** Checks {@link #ACTIVE} for writes blocked for too long */
+        static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "conn-write-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+
+        static {
+            WATCHDOG.scheduleAtFixedRate(Writers::disconnectStalled, WATCHDOG_PERIOD_MS, WATCHDOG_PERIOD_MS, TimeUnit.MILLISECONDS);
+        }
+
+        private static void disconnectStalled() {
+            long now = System.nanoTime();
+            long limit = TimeUnit.MILLISECONDS.toNanos(writeStallMs);
+            for (ClientHandler h : ACTIVE) {
+                long started = h.writeStarted;
+                if (started != 0 && now - started > limit) h.abortStalledWrite();
+            }
+        }
     }
 
     /**
@@ -54,78 +253,402 @@ public class ClientHandler implements Runnable {
      *
      * @return player ID
      */
+    @Override
     public int getPlayerId() { return playerId; }
 
+    /**
+     * Returns the game session of this client.
+     *
+     * @return session
+     */
+    @Override
+    public GameSession getSession() { return session; }
+
+    @Override
+    public void bind(int playerId, GameSession session) {
+        this.playerId = playerId;
+        this.session = session;
+    }
+
     /**
      * Sends a line of text to the client.
      *
      * @param line text to send
      */
+    @Override
     public void sendLine(String line) { // tutaj wysylamy linie do klienta !!!
-        try { out.println(line); } catch (Exception e) { System.err.println("Send failed to p" + playerId + ": " + e.getMessage()); }
+        lock.lock();
+        try {
+            if (binary) {
+                byte[] frame = BinaryProtocol.encodeLine(line);
+                sendBytes(frame, 0, frame.length);
+                return;
+            }
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            sendBytes(bytes, 0, bytes.length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens a batch: following messages are only buffered until the matching {@link #endBatch()}.
+     * Batches may be nested.
+     */
+    @Override
+    public void beginBatch() {
+        lock.lock();
+        try {
+            batchDepth++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes a batch; when the outermost batch is closed, everything buffered is sent with one flush.
+     */
+    @Override
+    public void endBatch() {
+        lock.lock();
+        try {
+            if (batchDepth == 0) return;
+            if (--batchDepth == 0) {
+                handOff();
+                while (!deferredOptions.isEmpty()) switchProtocol(deferredOptions.remove(0));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Turns the pending bytes into a chunk of the current batch. */
+    private void closePending() {
+        if (pending.size() == 0) return;
+        batchChunks.add(new Chunk(Chunk.DATA, pending.toByteArray()));
+        pending.reset();
+    }
+
+    /** Queues the chunks of the finished batch and wakes the writer. */
+    private void handOff() {
+        closePending();
+        for (Chunk c : batchChunks) enqueue(c);
+        batchChunks.clear();
+        startWriter();
+    }
+
+    /**
+     * Adds a chunk to the outbound queue, applying the overflow policy when it is full.
+     *
+     * @param c chunk to send
+     */
+    private void enqueue(Chunk c) {
+        if (closed) return;
+        if (queuedBytes + c.bytes.length > maxQueuedBytes && !dropSuperseded(c)) {
+            System.err.println("Client p" + playerId + " too slow, " + queuedBytes + " bytes queued. Disconnecting.");
+            closed = true;
+            queue.clear();
+            queuedBytes = 0;
+            try { socket.close(); } catch (IOException ignored) {} // watek czytajacy zglosi rozlaczenie sesji
+            return;
+        }
+        queue.add(c);
+        queuedBytes += c.bytes.length;
+    }
+
+    /**
+     * Drops queued boards that a newer board (queued or the incoming chunk) replaces anyway.
+     *
+     * @param incoming chunk that does not fit
+     * @return true if it fits now
+     */
+    private boolean dropSuperseded(Chunk incoming) {
+        if (policy != OverflowPolicy.DROP_BOARDS) return false;
+        boolean newerBoard = (incoming.kind == Chunk.BOARD);
+        for (Iterator<Chunk> it = queue.descendingIterator(); it.hasNext(); ) {
+            Chunk c = it.next();
+            if (c.kind != Chunk.BOARD) continue;
+            if (!newerBoard) {
+                newerBoard = true; // najnowsza plansza zostaje
+                continue;
+            }
+            it.remove();
+            queuedBytes -= c.bytes.length;
+            dropped++;
+        }
+        return queuedBytes + incoming.bytes.length <= maxQueuedBytes;
+    }
+
+    /** Starts the writer task unless it is running or there is nothing to write. */
+    private void startWriter() {
+        if (writing || queue.isEmpty()) return;
+        writing = true;
+        Writers.ACTIVE.add(this);
+        TaskThreads threads = TaskThreads.shared();
+        if (threads.getMode() == TaskThreads.Mode.VIRTUAL) threads.start("conn-writer-p" + playerId, this::drain);
+        else Writers.POOL.execute(this::drain);
+    }
+
+    /** Closes the socket of a client whose write is blocked for too long (watchdog thread). */
+    private void abortStalledWrite() {
+        System.err.println("Client p" + playerId + " stopped reading, write blocked for over " + writeStallMs + " ms. Disconnecting.");
+        writeStarted = 0;
+        try { socket.close(); } catch (IOException ignored) {} // zapis konczy sie wyjatkiem, watek wraca do puli
+    }
+
+    /**
+     * Writes queued chunks until the queue is empty, then flushes once (writer thread).
+     * Only one drain runs at a time, so the stream needs no lock.
+     */
+    private void drain() {
+        boolean unflushed = false;
+        while (true) {
+            Chunk c;
+            lock.lock();
+            try {
+                c = queue.poll();
+                if (c == null && !unflushed) {
+                    writing = false;
+                    Writers.ACTIVE.remove(this);
+                    return;
+                }
+                if (c != null) queuedBytes -= c.bytes.length;
+            } finally {
+                lock.unlock();
+            }
+            writeStarted = System.nanoTime();
+            try {
+                if (c == null) {
+                    rawOut.flush(); // kolejka pusta: jeden flush na wszystko, co zapisalismy
+                    unflushed = false;
+                } else if (c.kind == Chunk.DEFLATE) {
+                    rawOut.flush(); // potwierdzenie COMPRESS jeszcze bez kompresji
+                    rawOut = StreamCompression.deflating(socketOut); // flush = sync flush
+                } else {
+                    rawOut.write(c.bytes);
+                    unflushed = true;
+                }
+            } catch (IOException e) {
+                System.err.println("Send failed to p" + playerId + ": " + e.getMessage());
+                lock.lock();
+                try {
+                    closed = true;
+                    queue.clear();
+                    queuedBytes = 0;
+                    writing = false;
+                    Writers.ACTIVE.remove(this);
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            } finally {
+                writeStarted = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes waiting to be written to the client.
+     *
+     * @return queued bytes
+     */
+    @Override
+    public int getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of chunks (batches and boards) waiting to be written.
+     *
+     * @return queue depth
+     */
+    public int getQueuedChunks() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of superseded boards dropped because the client was too slow.
+     *
+     * @return dropped board count
+     */
+    @Override
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a message encoded for both protocols; the variant matching this client is written.
+     *
+     * @param text text line bytes
+     * @param textLen length of the text line
+     * @param frame binary frame bytes
+     * @param frameLen length of the frame
+     */
+    @Override
+    public void sendEncoded(byte[] text, int textLen, byte[] frame, int frameLen) {
+        lock.lock();
+        try {
+            if (binary) sendBytes(frame, 0, frameLen);
+            else sendBytes(text, 0, textLen);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a full board; uses the encoding of the snapshot matching this client's
+     * protocol, which is computed once per version and shared by all clients.
+     *
+     * @param snapshot published board snapshot
+     */
+    @Override
+    public void sendBoard(BoardSnapshot snapshot) {
+        lock.lock();
+        try {
+            closePending();
+            // bajty obrazu sa wspolne i niezmienne, kolejka ich nie kopiuje
+            batchChunks.add(new Chunk(Chunk.BOARD, binary ? snapshot.getBinaryFrame() : snapshot.getTextLine()));
+            if (batchDepth == 0) handOff();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether this client uses the binary protocol.
+     *
+     * @return true after PROTO BINARY was negotiated
+     */
+    public boolean isBinary() {
+        lock.lock();
+        try {
+            return binary;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether this client asked for BOARD_DELTA messages.
+     *
+     * @return true after the DELTAS command
+     */
+    @Override
+    public boolean wantsDeltas() { return deltas; }
+
+    @Override
+    public void enableDeltas() { deltas = true; }
+
+    /**
+     * Sends already encoded bytes (complete lines including '\n') to the client.
+     * The bytes are copied before this method returns, so the caller may reuse the buffer;
+     * the socket write itself happens in the writer thread.
+     *
+     * @param buf source buffer
+     * @param off start offset
+     * @param len number of bytes
+     */
+    public void sendBytes(byte[] buf, int off, int len) {
+        lock.lock();
+        try {
+            pending.write(buf, off, len);
+            if (batchDepth == 0) handOff(); // w paczce oddajemy dopiero w endBatch
+        } finally {
+            lock.unlock();
+        }
     }
 
      /**
      * Main loop for reading and handling client commands.
      * <p>
      * Runs in its own thread. Parses commands and forwards them
-     * to the singleton GameSession instance for processing.
+     * to this client's GameSession for processing ({@link CommandDispatcher}).
      */
     @Override
     public void run() {
         try {
-            sendLine("INFO Connected as player " + playerId);
-            String raw;
-            while ((raw = in.readLine()) != null) {
-                if (raw == null) break;
-                String trimmed = raw.trim();
-                if (trimmed.isEmpty()) continue;
-
-                // split into command and optional argument (like MOVE json)
-                String[] parts = trimmed.split("\\s+", 2); // Rozdziel tekst po dowolnej liczbie białych znaków; Podziel maksymalnie na 2 części
-                String cmd = parts[0].toUpperCase(); // komenda
-                String arg = parts.length > 1 ? parts[1].trim() : ""; // argumenty
-
-                switch (cmd) {
-                    case "MOVE":
-                        if (arg.isEmpty()) {
-                            sendLine("ERROR MOVE requires JSON argument");
-                        } else {
-                            try {
-                                Move m = JsonUtil.jsonToMove(arg);
-                                m.player = this.playerId; // enforce player id !
-                                GameSession.getInstance().applyMove(m, this); //przez obecnego clientHandlera obslugujemy move (wywolujac applyMove w GameSession)
-                            } catch (IllegalArgumentException ex) {
-                                sendLine("ERROR Bad move JSON: " + ex.getMessage());
-                            }
-                        }
-                        break;
-
-                    case "PASS":
-                        GameSession.getInstance().playerPassed(this);
-                        break;
-
-                    case "RESIGN":
-                        GameSession.getInstance().playerResigned(this);
-                        break;
-
-                    case "RESUME":
-                        GameSession.getInstance().playerResume(this);
-                        break;
-
-                    case "FINISH":
-                        GameSession.getInstance().playerVotedFinish(this);
-                        break;
-
-                    default:
-                        sendLine("ERROR Unknown command: [" + cmd + "]");
+            byte[] frame = null;
+            LineBuffer line = new LineBuffer(); // jedna linia na cale polaczenie, komendy dekodowane wprost z bajtow
+            while (true) {
+                if (framedInput) {
+                    if (frame == null) frame = new byte[BinaryProtocol.MAX_FRAME];
+                    int len = BinaryProtocol.readFrame(in, frame);
+                    if (len < 0) break;
+                    dispatcher.handleFrame(frame, len);
+                } else {
+                    if (!line.readLine(in)) break;
+                    dispatcher.handleLine(line);
                 }
             }
         } catch (IOException e) {
             System.err.println("Client " + playerId + " disconnected: " + e.getMessage());
         } finally { //jak klient się zamknie to jego handler po stronie serwera to przechwyci, jak klient uzyje quit/exit to wywola sie resign (bez info o bledzie), a jak zamknie okno po prostu to clientdisconnected
             try { socket.close(); } catch (IOException ignored) {}
-            try { GameSession.getInstance().clientDisconnected(this); } catch (Exception ignored) {}
+            try { dispatcher.disconnected(); } catch (Exception ignored) {}
+        }
+    }
+
+    /**
+     * Handles PROTO BINARY and COMPRESS DEFLATE: acknowledges and switches the stream.
+     * <p>
+     * If another thread has a batch open, the acknowledgement and the switch wait until
+     * the batch is closed, so the whole batch goes out in the old format before them.
+     *
+     * @param option {@link BinaryProtocol#NEGOTIATE} or {@link StreamCompression#NEGOTIATE}
+     */
+    @Override
+    public void negotiate(String option) {
+        lock.lock();
+        try {
+            // klient wysyla ramki dopiero po potwierdzeniu, wiec czytanie przelaczamy od razu
+            if (option.equals(BinaryProtocol.NEGOTIATE)) framedInput = true;
+            if (batchDepth > 0) {
+                deferredOptions.add(option); // nie wcinamy sie w srodek cudzej paczki
+                return;
+            }
+            switchProtocol(option);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the acknowledgement and switches the outgoing stream; called with the lock held, outside batches.
+     *
+     * @param option negotiated option
+     */
+    private void switchProtocol(String option) {
+        if (option.equals(StreamCompression.NEGOTIATE)) {
+            // tylko przed PROTO BINARY, zeby potwierdzenie bylo zwykla linia tekstu
+            if (binary || compressed) {
+                sendLine("ERROR Unsupported compression: DEFLATE");
+                return;
+            }
+            sendLine(StreamCompression.NEGOTIATE); // potwierdzenie jeszcze bez kompresji
+            // przelaczenie strumienia w kolejce: za potwierdzeniem, przed nastepnymi paczkami
+            batchChunks.add(new Chunk(Chunk.DEFLATE, new byte[0]));
+            handOff();
+            compressed = true;
+        } else if (option.equals(BinaryProtocol.NEGOTIATE)) {
+            sendLine(BinaryProtocol.NEGOTIATE); // potwierdzenie jeszcze tekstem, potem tylko ramki
+            binary = true;
+        } else {
+            sendLine("ERROR Unsupported protocol: " + option);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package lab4.server;
+
+/**
+ * Dekoder komend tekstowych bez alokacji: znajduje komende i argument jako zakresy w linii
+ * (np. {@link lab4.common.LineBuffer}) i zamienia komende na kod z gotowej tabeli.
+ * <p>
+ * Skladnia jest ta sama co dawnego {@code trim().split("\\s+", 2)} + {@code toUpperCase()}:
+ * znaki &lt;= ' ' na brzegach sa pomijane, komenda konczy sie na pierwszym bialym znaku
+ * ({@code [ \t\n\x0B\f\r]}), argument to reszta bez znakow &lt;= ' ' z przodu.
+ * Wielkosc liter w komendzie nie ma znaczenia (tylko ASCII).
+ * <p>
+ * Jeden dekoder na polaczenie - pola sa nadpisywane przy kazdym {@link #decode(CharSequence)}.
+ */
+final class CommandDecoder {
+    /** Empty line (only whitespace) */
+    static final int EMPTY = -1;
+    /** Command not in the table */
+    static final int UNKNOWN = 0;
+    static final int MOVE = 1;
+    static final int PASS = 2;
+    static final int RESIGN = 3;
+    static final int RESUME = 4;
+    static final int FINISH = 5;
+    static final int DELTAS = 6;
+    static final int SYNC = 7;
+    static final int COMPRESS = 8;
+    static final int PROTO = 9;
+    static final int WATCH = 10;
+    static final int QUEUE = 11;
+
+    /** Command names indexed by code */
+    private static final String[] NAMES = {
+            null, "MOVE", "PASS", "RESIGN", "RESUME", "FINISH", "DELTAS", "SYNC", "COMPRESS", "PROTO", "WATCH", "QUEUE"
+    };
+    /** Codes of commands starting with each letter A-Z (precomputed from {@link #NAMES}) */
+    private static final int[][] BY_FIRST_LETTER = new int[26][];
+
+    static {
+        for (int l = 0; l < 26; l++) {
+            int n = 0;
+            for (int code = 1; code < NAMES.length; code++) if (NAMES[code].charAt(0) == 'A' + l) n++;
+            BY_FIRST_LETTER[l] = new int[n];
+            n = 0;
+            for (int code = 1; code < NAMES.length; code++) if (NAMES[code].charAt(0) == 'A' + l) BY_FIRST_LETTER[l][n++] = code;
+        }
+    }
+
+    /** Last decoded line */
+    private CharSequence line;
+    /** Start of the command in {@link #line} */
+    private int cmdStart;
+    /** End (exclusive) of the command */
+    private int cmdEnd;
+    /** Start of the argument; equal to {@link #argEnd} when there is none */
+    private int argStart;
+    /** End (exclusive) of the argument */
+    private int argEnd;
+
+    /**
+     * Splits a line into command and argument and looks up the command.
+     *
+     * @param line received line (not copied, must not change until the next decode)
+     * @return command code, {@link #UNKNOWN} or {@link #EMPTY}
+     */
+    int decode(CharSequence line) {
+        this.line = line;
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') start++; // jak String.trim()
+        while (end > start && line.charAt(end - 1) <= ' ') end--;
+        cmdStart = start;
+        int i = start;
+        while (i < end && !isSpace(line.charAt(i))) i++;
+        cmdEnd = i;
+        while (i < end && line.charAt(i) <= ' ') i++;
+        argStart = i;
+        argEnd = end;
+        if (start == end) return EMPTY;
+        return lookup();
+    }
+
+    private int lookup() {
+        int first = upper(line.charAt(cmdStart)) - 'A';
+        if (first < 0 || first >= 26) return UNKNOWN;
+        int len = cmdEnd - cmdStart;
+        for (int code : BY_FIRST_LETTER[first]) {
+            String name = NAMES[code];
+            if (name.length() == len && regionMatches(cmdStart, name)) return code;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns the start of the argument in the decoded line (for decoders taking an offset).
+     *
+     * @return argument start index
+     */
+    int argumentStart() {
+        return argStart;
+    }
+
+    /**
+     * Returns whether the command has an argument.
+     *
+     * @return true if anything follows the command
+     */
+    boolean hasArgument() {
+        return argStart < argEnd;
+    }
+
+    /**
+     * Compares the argument with an upper-case ASCII word, ignoring case.
+     *
+     * @param word expected argument
+     * @return true if equal
+     */
+    boolean argumentIs(String word) {
+        return argEnd - argStart == word.length() && regionMatches(argStart, word);
+    }
+
+    /**
+     * Returns the argument as a String (allocates; for error messages and rare commands).
+     *
+     * @return argument or empty string
+     */
+    String argument() {
+        return line.subSequence(argStart, argEnd).toString();
+    }
+
+    /**
+     * Returns the command in upper case as a String (allocates; for error messages).
+     *
+     * @return command
+     */
+    String command() {
+        return line.subSequence(cmdStart, cmdEnd).toString().toUpperCase();
+    }
+
+    private boolean regionMatches(int from, String upperWord) {
+        for (int k = 0; k < upperWord.length(); k++) {
+            if (upper(line.charAt(from + k)) != upperWord.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private static char upper(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - 32) : c;
+    }
+
+    /** Same characters as {@code \s} in java.util.regex (without UNICODE_CHARACTER_CLASS). */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,283 @@
+package lab4.server;
+
+import lab4.common.BinaryProtocol;
+import lab4.common.JsonUtil;
+import lab4.common.Move;
+import lab4.common.StreamCompression;
+
+/**
+ * Zamienia komendy klienta (linie tekstu albo ramki {@link BinaryProtocol}) na wywolania
+ * {@link GameSession}. Wspolny dla wszystkich transportow - transport tylko dostarcza linie/ramki.
+ * <p>
+ * Jeden dispatcher na polaczenie, uzywany przez jeden watek naraz (watek czytajacy albo petla zdarzen).
+ * <p>
+ * Nowe polaczenie nie ma jeszcze gry: {@code QUEUE [size [rating]]} stawia je (albo gracza czekajacego
+ * na przeciwnika, albo widza) w kolejce {@link Lobby} z tymi preferencjami. Po {@code WATCH <gameId>}
+ * gracz opuszcza swoja (jeszcze nie rozpoczeta) gre i zostaje widzem innej: dostaje jej plansze,
+ * a komendy gry sa odrzucane.
+ */
+final class CommandDispatcher {
+    /** Reply to game commands of a connection without a game */
+    private static final String NOT_IN_GAME = "ERROR Not in a game, send QUEUE <size> [rating]";
+
+    /** Connection the commands come from */
+    private final PlayerConnection conn;
+    /** Registry with the lobby, null for a single session without a lobby */
+    private final GameSessionRegistry registry;
+    /** Decoder of text commands */
+    private final CommandDecoder commands = new CommandDecoder();
+    /** Move object reused for every MOVE of this client (GameSession does not keep it) */
+    private final Move move = new Move();
+    /** Game watched after WATCH, null while playing */
+    private GameSession watching;
+
+    /**
+     * Creates a dispatcher for one connection.
+     *
+     * @param conn connection of the player
+     * @param registry registry with the lobby (QUEUE, WATCH), or null
+     */
+    CommandDispatcher(PlayerConnection conn, GameSessionRegistry registry) {
+        this.conn = conn;
+        this.registry = registry;
+    }
+
+    /**
+     * Handles one command of the text protocol.
+     * The line is split by {@link CommandDecoder} without creating Strings.
+     *
+     * @param raw received line
+     */
+    void handleLine(CharSequence raw) {
+        GameSession session = conn.getSession();
+        int code = commands.decode(raw);
+        if (code >= CommandDecoder.MOVE && code <= CommandDecoder.FINISH && !canPlay(session)) return;
+        switch (code) {
+            case CommandDecoder.EMPTY:
+                break;
+
+            case CommandDecoder.MOVE:
+                if (!commands.hasArgument()) {
+                    conn.sendLine("ERROR MOVE requires JSON argument");
+                } else {
+                    try {
+                        Move m = JsonUtil.decodeMove(raw, commands.argumentStart(), move); // JSON czytany wprost z linii
+                        m.player = conn.getPlayerId(); // enforce player id !
+                        session.applyMove(m, conn); //przez obecne polaczenie obslugujemy move (wywolujac applyMove w GameSession)
+                    } catch (IllegalArgumentException ex) {
+                        conn.sendLine("ERROR Bad move JSON: " + ex.getMessage());
+                    }
+                }
+                break;
+
+            case CommandDecoder.PASS:
+                session.playerPassed(conn);
+                break;
+
+            case CommandDecoder.RESIGN:
+                session.playerResigned(conn);
+                break;
+
+            case CommandDecoder.RESUME:
+                session.playerResume(conn);
+                break;
+
+            case CommandDecoder.FINISH:
+                session.playerVotedFinish(conn);
+                break;
+
+            case CommandDecoder.DELTAS:
+                conn.enableDeltas();
+                break;
+
+            case CommandDecoder.SYNC:
+                resync(session);
+                break;
+
+            case CommandDecoder.WATCH:
+                watch();
+                break;
+
+            case CommandDecoder.QUEUE:
+                queue();
+                break;
+
+            case CommandDecoder.COMPRESS:
+                if (commands.argumentIs("DEFLATE")) conn.negotiate(StreamCompression.NEGOTIATE);
+                else conn.sendLine("ERROR Unsupported compression: " + commands.argument());
+                break;
+
+            case CommandDecoder.PROTO:
+                if (commands.argumentIs("BINARY")) conn.negotiate(BinaryProtocol.NEGOTIATE);
+                else conn.sendLine("ERROR Unsupported protocol: " + commands.argument());
+                break;
+
+            default:
+                conn.sendLine("ERROR Unknown command: [" + commands.command() + "]");
+        }
+    }
+
+    /**
+     * Handles one frame of the binary protocol.
+     *
+     * @param frame frame body (opcode at index 0)
+     * @param len length of the body
+     */
+    void handleFrame(byte[] frame, int len) {
+        GameSession session = conn.getSession();
+        int opcode = frame[0] & 0xFF;
+        if (opcode >= BinaryProtocol.MOVE && opcode <= BinaryProtocol.FINISH && !canPlay(session)) return;
+        switch (opcode) {
+            case BinaryProtocol.MOVE:
+                if (len < 3) {
+                    conn.sendLine("ERROR MOVE frame too short");
+                } else {
+                    move.row = frame[1] & 0xFF;
+                    move.col = frame[2] & 0xFF;
+                    move.player = conn.getPlayerId();
+                    session.applyMove(move, conn);
+                }
+                break;
+            case BinaryProtocol.PASS:
+                session.playerPassed(conn);
+                break;
+            case BinaryProtocol.RESIGN:
+                session.playerResigned(conn);
+                break;
+            case BinaryProtocol.RESUME:
+                session.playerResume(conn);
+                break;
+            case BinaryProtocol.FINISH:
+                session.playerVotedFinish(conn);
+                break;
+            case BinaryProtocol.DELTAS:
+                conn.enableDeltas();
+                break;
+            case BinaryProtocol.SYNC:
+                resync(session);
+                break;
+            case BinaryProtocol.TEXT:
+                handleLine(BinaryProtocol.readText(frame, len));
+                break;
+            default:
+                conn.sendLine("ERROR Unknown opcode: " + opcode);
+        }
+    }
+
+    /**
+     * Checks that a game command has a game to go to; answers ERROR if not.
+     *
+     * @param session session of the connection
+     * @return true if the player may send it to the session
+     */
+    private boolean canPlay(GameSession session) {
+        if (watching != null) {
+            conn.sendLine("ERROR Spectators cannot play");
+            return false;
+        }
+        if (session == null) {
+            conn.sendLine(NOT_IN_GAME);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * SYNC: sends the full board of the played or watched game again.
+     *
+     * @param session session of the connection
+     */
+    private void resync(GameSession session) {
+        GameSession target = (watching != null ? watching : session);
+        if (target == null) conn.sendLine(NOT_IN_GAME);
+        else target.resync(conn);
+    }
+
+    /**
+     * WATCH: leaves the own game (if it has not started), or the lobby before the first QUEUE,
+     * and becomes a spectator of the given one.
+     */
+    private void watch() {
+        long gameId;
+        try {
+            gameId = Long.parseLong(commands.argument());
+        } catch (NumberFormatException e) {
+            conn.sendLine("ERROR WATCH requires game id");
+            return;
+        }
+        GameSession target = (registry == null ? null : registry.get(gameId));
+        if (target == null || target == watching) {
+            conn.sendLine("ERROR No game " + gameId + " to watch");
+            return;
+        }
+        if (watching != null) {
+            watching.removeSpectator(conn);
+        } else if (!registry.getLobby().claim(conn)) { // polaczenie jeszcze bez gry tylko wychodzi z poczekalni
+            GameSession own = conn.getSession();
+            if (own == target) {
+                conn.sendLine("ERROR Cannot watch your own game");
+                return;
+            }
+            if (own != null && !own.leave(conn)) {
+                conn.sendLine("ERROR Cannot watch while playing");
+                return;
+            }
+        }
+        watching = target;
+        target.addSpectator(conn);
+    }
+
+    /**
+     * QUEUE: leaves the own game (if it has not started) or stops watching,
+     * and waits in the lobby for an opponent with the given board size and rating bucket.
+     * Without arguments: the default board size and any rating.
+     */
+    private void queue() {
+        if (registry == null) {
+            conn.sendLine("ERROR No lobby on this server");
+            return;
+        }
+        int size = registry.getBoardSize(), rating = -1;
+        if (commands.hasArgument()) {
+            String[] args = commands.argument().split("\\s+");
+            try {
+                size = Integer.parseInt(args[0]);
+                if (args.length > 1) rating = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                conn.sendLine("ERROR QUEUE requires board size and optional rating");
+                return;
+            }
+        }
+        if (!Lobby.isSupportedSize(size)) {
+            conn.sendLine("ERROR Unsupported board size: " + size);
+            return;
+        }
+        Lobby lobby = registry.getLobby();
+        if (!lobby.claim(conn)) { // juz w jakiejs sesji (albo widz)
+            GameSession own = conn.getSession();
+            if (own != null && !own.leave(conn)) {
+                conn.sendLine("ERROR Cannot queue while playing");
+                return;
+            }
+        }
+        if (watching != null) {
+            watching.removeSpectator(conn);
+            watching = null;
+        }
+        lobby.enqueue(conn, size, Lobby.bucketOf(rating));
+    }
+
+    /**
+     * Called by the transport once when the connection is closed:
+     * the player leaves its game, a spectator the watched one.
+     */
+    void disconnected() {
+        if (watching != null) {
+            watching.removeSpectator(conn);
+            return;
+        }
+        if (registry != null && registry.getLobby().claim(conn)) return; // jeszcze bez gry - tylko znika z poczekalni
+        GameSession session = conn.getSession();
+        if (session != null) session.clientDisconnected(conn);
+    }
+}
@@ -3,20 +3,45 @@ package lab4.server;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import lab4.common.AreaScorer;
+import lab4.common.BinaryProtocol;
 import lab4.common.Board;
+import lab4.common.BoardDelta;
+import lab4.common.BoardSnapshot;
 import lab4.common.JsonUtil;
+import lab4.common.LongHashSet;
 import lab4.common.Move;
+import lab4.common.PackedBoard;
+import lab4.common.SerialExecutor;
+import lab4.common.TaskThreads;
 import lab4.database.GameEntity;
 import lab4.database.GameRepository;
 import lab4.database.MoveEntity;
 import lab4.database.MoveRepository;
 
 /**
- * Singleton: jedna sesja gry.
+ * Jedna sesja gry (dwoch graczy, wlasna plansza i wlasny wpis w bazie).
  * Zarządza stanem gry, graczami i zapisem do bazy.
+ * <p>
+ * Serwer tworzy wiele sesji przez {@link GameSessionRegistry}; statyczne {@link #getInstance()}
+ * zostalo dla starego trybu jednej gry (i testow).
+ * <p>
+ * Komendy graczy nie zmieniaja stanu w watku sieciowym: {@link #applyMove}, {@link #playerPassed} itd.
+ * tylko wrzucaja zadanie do skrzynki sesji ({@link SerialExecutor}), ktora wykonuje je po kolei
+ * na wspolnej puli watkow. Wiadomosci do graczy oddajemy polaczeniom (ktore wysylaja je same),
+ * a zapisy do bazy ida przez osobna skrzynke, wiec wolny socket ani wolna baza nie wstrzymuja
+ * ruchow drugiego gracza.
+ * <p>
+ * Poza dwoma graczami gre moga ogladac widzowie (komenda WATCH, {@link SpectatorFeed}).
  */
 public class GameSession
 {
@@ -28,9 +53,35 @@ public class GameSession
     private GameRepository gameRepository;
     private MoveRepository moveRepository;
 
-    // Obiekt gry w bazie danych
+    /** Threads running the command mailboxes of all sessions (commands never block) */
+    private static final ExecutorService COMMAND_THREADS =
+            SerialExecutor.newPool("session", Runtime.getRuntime().availableProcessors());
+    /** Threads running the database mailboxes of all sessions */
+    private static final ExecutorService DATABASE_THREADS = SerialExecutor.newPool("db-writer", 2);
+    /** Delay between replayed moves, in milliseconds */
+    private static final long REPLAY_DELAY_MS = 800;
+    /** Schedules the replay steps (instead of sleeping in the mailbox) */
+    private static final ScheduledExecutorService REPLAY_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "replay-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Identifier of this session (unique within the registry) */
+    private final long id;
+    /** Registry owning this session, null for the singleton */
+    private final GameSessionRegistry registry;
+
+    /** Commands of this session, run one at a time in arrival order */
+    private final SerialExecutor mailbox = new SerialExecutor(COMMAND_THREADS);
+    /** Database writes of this session, in order (the game row before its moves) */
+    private final SerialExecutor database = new SerialExecutor(DATABASE_THREADS);
+
+    // Obiekt gry w bazie danych (zapisywany tylko przez skrzynke database)
     private GameEntity currentGameEntity;
     private int moveCounter = 0;
+    /** Incremented by reset and a new game, so that a running replay stops (guarded by lock) */
+    private int replayRun = 0;
 
     // utwórz lub pobierz instancję (wywołujemy z ServerMain przy starcie)
      /**
@@ -41,7 +92,7 @@ public class GameSession
      */
     public static synchronized GameSession getInstance(int boardSize)
     {
-        if (instance == null) instance = new GameSession(boardSize);
+        if (instance == null) instance = new GameSession(0, boardSize, null);
         return instance;
     }
 
@@ -50,6 +101,21 @@ public class GameSession
         this.moveRepository = mr;
     }
 
+    /**
+     * Enables or disables the positional superko rule
+     * (no position of the current game may be repeated).
+     *
+     * @param enabled true to use superko, false for simple Ko
+     */
+    public void setPositionalSuperko(boolean enabled) {
+        lock.lock();
+        try {
+            this.positionalSuperko = enabled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     // pobierz istniejącą instancję (np. z handlerów)
     /**
      * Returns the existing singleton instance.
@@ -63,10 +129,17 @@ public class GameSession
         return instance;
     }
 
+    /** Guards the session state between the mailbox, the registry (join) and the console (reset);
+     *  held only briefly, sends and database writes are handed off and do not block */
+    private final ReentrantLock lock = new ReentrantLock();
     /** Game board */
     private final Board board;
+    /** Area scoring at the end of the game */
+    private final AreaScorer scorer;
     /** Registered clients (observers) */
-    private final List<ClientHandler> observers = new ArrayList<>();
+    private final List<PlayerConnection> observers = new ArrayList<>();
+    /** Read-only spectators, served outside the session lock */
+    private final SpectatorFeed spectators;
     /** ID of the player whose turn it is */
     private int currentPlayer = 1;
     /** Flags for game state */
@@ -79,53 +152,163 @@ public class GameSession
     /** Captured stones for each player (index 0 = player 1, index 1 = player 2) */
     final int[] wyniki = {0,0}; // 0 indeks -> zbite 1 gracza; 1 indeks -> zbite 2 gracza (do uzycia pozniej w gui)
 
-    // previousBoard used to detect Ko (position before last move)
-    /** Previous board state used to detect Ko */
-    private int[][] previousBoard = null;
+    // Ko: hash pozycji sprzed ostatniego ruchu (zamiast kopii planszy)
+    /** Zobrist hash of the position before the last move, used to detect Ko */
+    private long previousHash = 0;
+    /** Whether previousHash holds a position */
+    private boolean hasPreviousPosition = false;
+    /** Point of the last accepted move (r * size + c), -1 after pass or start */
+    private int lastMovePoint = -1;
+    /** The single stone captured by the last accepted move, -1 if it captured 0 or more than 1 */
+    private int lastSingleCapture = -1;
+
+    // Superko: zadna pozycja z tej gry nie moze sie powtorzyc (opcjonalne)
+    /** Whether the positional superko rule is used instead of simple Ko */
+    private boolean positionalSuperko = false;
+    /** Hashes of all positions of the current game */
+    private final LongHashSet positionHistory = new LongHashSet(512);
+    /** The same positions (superko only), compared when a hash is found in {@link #positionHistory} */
+    private final List<PackedBoard> positionArchive = new ArrayList<>();
 
     /**
-     * Private constructor for singleton.
+     * Creates a session; used by {@link GameSessionRegistry} and the singleton.
      *
+     * @param id session identifier
      * @param boardSize size of the board
+     * @param registry owning registry, or null
      */
-    private GameSession(int boardSize)
+    GameSession(long id, int boardSize, GameSessionRegistry registry)
     {
+        this.id = id;
+        this.registry = registry;
         this.board = new Board(boardSize);
+        this.scorer = new AreaScorer(boardSize);
+        this.spectators = new SpectatorFeed(id, board, COMMAND_THREADS);
     }
 
     /**
-     * Metoda wywoływana przez ServerMain w pętli.
+     * Returns the identifier of this session.
+     *
+     * @return session id
+     */
+    public long getId() { return id; }
+
+    /**
+     * Returns the board size of this session.
+     *
+     * @return board size
+     */
+    public int getBoardSize() { return board.size; }
+
+    /**
+     * Returns whether two players are already registered.
+     *
+     * @return true if no player can join
+     */
+    public boolean isFull() {
+        lock.lock();
+        try {
+            return observers.size() >= 2;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of registered players.
+     *
+     * @return 0, 1 or 2
+     */
+    public int getPlayerCount() {
+        lock.lock();
+        try {
+            return observers.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates the connection of a player joining a session; the transport decides what it is
+     * ({@link ClientHandler} with its own thread, or a connection of {@link NioServer}).
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        /**
+         * Creates the connection.
+         *
+         * @param playerId assigned player ID (1 or 2)
+         * @param session session the player joins
+         * @return new connection
+         * @throws IOException if the connection cannot be set up
+         */
+        PlayerConnection create(int playerId, GameSession session) throws IOException;
+    }
+
+    /**
+     * Dodaje gracza wprost do tej sesji (tryb jednej gry; rejestr paruje graczy przez {@link Lobby}).
      * Próbuje dodać gracza do sesji. Jeśli jest miejsce -> tworzy handler i wątek.
+     *
+     * @param socket connected client socket
+     * @return true if the player joined, false if the session is full (the socket is closed)
      */
-    public synchronized void tryAddPlayer(Socket socket) {
-        // Jeśli jest już 2 graczy, odrzucamy połączenie
-        if (observers.size() >= 2) {
+    public boolean tryAddPlayer(Socket socket) {
+        lock.lock();
+        try {
+            // Jeśli jest już 2 graczy, odrzucamy połączenie
+            if (observers.size() >= 2) {
+                try {
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    out.println("ERROR Server full (game in progress). Try again later.");
+                    socket.close();
+                } catch (IOException e) {
+                    System.err.println("Error rejecting client: " + e.getMessage());
+                }
+                return false;
+            }
+
             try {
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                out.println("ERROR Server full (game in progress). Try again later.");
-                socket.close();
+                ClientHandler handler = (ClientHandler) join((playerId, s) -> new ClientHandler(socket, playerId, s));
+                TaskThreads.shared().start("game-" + id + "-p" + handler.getPlayerId(), handler); // zwykly albo wirtualny watek
+                return true;
             } catch (IOException e) {
-                System.err.println("Error rejecting client: " + e.getMessage());
+                System.err.println("Failed to create ClientHandler: " + e.getMessage());
+                try { socket.close(); } catch (IOException ignored) {}
+                return false;
             }
-            return;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // Przydzielamy ID: 1 jeśli lista pusta, 2 jeśli jest już jeden
-        int newId = observers.size() + 1;
-
+    /**
+     * Adds a player with a connection created by the transport; starts the game
+     * when this is the second player.
+     *
+     * @param factory creates the connection for the assigned player ID
+     * @return the new connection, or null if the session is full
+     * @throws IOException if the factory fails
+     */
+    public PlayerConnection join(ConnectionFactory factory) throws IOException {
+        lock.lock();
         try {
-            ClientHandler handler = new ClientHandler(socket, newId);
-            register(handler);
-            new Thread(handler).start();
-            System.out.println("Player joined with ID: " + newId);
+            if (observers.size() >= 2) return null;
+
+            // Przydzielamy ID: 1 jeśli lista pusta, 2 jeśli jest już jeden
+            int newId = observers.size() + 1;
+            PlayerConnection conn = factory.create(newId, this);
+            register(conn);
+            conn.sendLine("INFO Connected as player " + newId + " in game " + id);
+            System.out.println("Game " + id + ": player joined with ID: " + newId);
 
             // Jeśli po dodaniu mamy 2 graczy -> START GRY
             if (observers.size() == 2) {
-                System.out.println("Two players present. Starting game...");
+                System.out.println("Game " + id + ": two players present. Starting game...");
                 startGame();
             }
-        } catch (IOException e) {
-            System.err.println("Failed to create ClientHandler: " + e.getMessage());
+            return conn;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -134,134 +317,316 @@ public class GameSession
      *
      * @param h client handler
      */
-    public synchronized void register(ClientHandler h)
+    public void register(PlayerConnection h)
     {
-        if (observers.size() >= 2)
-        {
-            h.sendLine("ERROR Server already has two players");
-            return;
+        lock.lock();
+        try {
+            if (observers.size() >= 2)
+            {
+                h.sendLine("ERROR Server already has two players");
+                return;
+            }
+            observers.add(h);
+        } finally {
+            lock.unlock();
         }
-        observers.add(h);
     }
 
     /**
      * Starts the game if two players are registered.
      */
-    public synchronized void startGame()
+    public void startGame()
     {
-        if (started) return;
-        if (observers.size() != 2)
-        {
-            System.out.println("Need exactly 2 players to start game");
-            return;
-        }
+        lock.lock();
+        try {
+            if (started) return;
+            if (observers.size() != 2)
+            {
+                System.out.println("Need exactly 2 players to start game");
+                return;
+            }
+
+            // 1. Zapis nowej gry w bazie
+            if (gameRepository != null) {
+                GameEntity entity = new GameEntity();
+                entity.setResult("In Progress");
+                currentGameEntity = entity;
+                moveCounter = 0;
+                database.execute(() -> {
+                    gameRepository.save(entity); // nowa encja: persist nadaje id temu samemu obiektowi
+                    System.out.println("Game will be saved to DB with ID: " + entity.getId());
+                });
+            }
+            replayRun++; // przerywa ewentualne odtwarzanie
+
+            // 2. Czyszczenie planszy (WAŻNE, bo po porzedniej grze cos moglo zostac)
+            board.clear();
+            board.publish();
 
-        // 1. Zapis nowej gry w bazie
-        if (gameRepository != null) {
-            currentGameEntity = new GameEntity();
-            currentGameEntity.setResult("In Progress");
-            currentGameEntity = gameRepository.save(currentGameEntity);
-            moveCounter = 0;
-            System.out.println("Game will be saved to DB with ID: " + currentGameEntity.getId());
+            // 3. Reset flags
+            started = true;
+            gameOver = false;
+            currentPlayer = 1;
+            consecutivePasses = 0;
+            stoppedForAgreement = false;
+            ONEvotedForFinish = false;
+            TWOvotedForFinish = false;
+            clearKoState();
+            wyniki[0] = 0;
+            wyniki[1] = 0;
+
+            // 4. Powiadomienie graczy (jedna paczka na klienta)
+            PlayerConnection[] batch = beginBatch();
+            try {
+                for (PlayerConnection h : observers) h.sendLine("START " + h.getPlayerId());
+                broadcastBoard();
+                notifyTurn();
+            } finally {
+                endBatch(batch);
+            }
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // 2. Czyszczenie planszy (WAŻNE, bo po porzedniej grze cos moglo zostac)
-        board.clear();
-
-        // 3. Reset flags
-        started = true;
-        gameOver = false;
-        currentPlayer = 1;
-        consecutivePasses = 0;
-        stoppedForAgreement = false;
-        ONEvotedForFinish = false;
-        TWOvotedForFinish = false;
-        previousBoard = null;
-        wyniki[0] = 0;
-        wyniki[1] = 0;
-
-        // 4. Powiadomienie graczy
-        for (ClientHandler h : observers) h.sendLine("START " + h.getPlayerId());
-        broadcastBoard();
-        notifyTurn();
+    /**
+     * Opens a message batch for every current observer, so that all messages
+     * of one state change reach each client with a single flush.
+     *
+     * @return observers the batch was opened for (pass them to {@link #endBatch})
+     */
+    private PlayerConnection[] beginBatch()
+    {
+        PlayerConnection[] batch = observers.toArray(new PlayerConnection[0]);
+        for (PlayerConnection h : batch) h.beginBatch();
+        return batch;
+    }
+
+    /**
+     * Closes the batch opened by {@link #beginBatch()} and flushes every client once.
+     *
+     * @param batch observers returned by beginBatch
+     */
+    private void endBatch(PlayerConnection[] batch)
+    {
+        for (PlayerConnection h : batch) h.endBatch();
     }
 
     /** Notifies clients whose turn it is. */
-    private synchronized void notifyTurn()
+    private void notifyTurn()
     {
-        for (ClientHandler h : observers)
-        {
-            if (h.getPlayerId() == currentPlayer) h.sendLine("YOUR_TURN"); //wysylamy do klienta ze jego ruch
-            else h.sendLine("OPPONENT_TURN"); //albo ze kolej przeciwnika
+        lock.lock();
+        try {
+            for (PlayerConnection h : observers)
+            {
+                if (h.getPlayerId() == currentPlayer) h.sendLine("YOUR_TURN"); //wysylamy do klienta ze jego ruch
+                else h.sendLine("OPPONENT_TURN"); //albo ze kolej przeciwnika
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     /** Broadcasts the current board state to all clients. */
-    public synchronized void broadcastBoard()
+    public void broadcastBoard()
+    {
+        lock.lock();
+        try {
+            // opublikowany obraz planszy (nie zywa plansza) koduje sie najwyzej raz na wersje, bajty sa wspolne
+            BoardSnapshot snapshot = board.getSnapshot();
+            for (PlayerConnection h : observers) h.sendBoard(snapshot); //wysylamy klientowi board (json albo ramka)
+            spectators.publishBoard(snapshot);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Broadcasts the change made by an accepted move. Clients that did not ask
+     * for deltas (DELTAS command) get the full board instead.
+     *
+     * @param delta change of the last move
+     */
+    private void broadcastDelta(BoardDelta delta)
+    {
+        lock.lock();
+        try {
+            byte[] text = ("BOARD_DELTA " + JsonUtil.deltaToJson(delta) + "\n").getBytes(StandardCharsets.UTF_8);
+            byte[] frame = BinaryProtocol.deltaFrame(delta);
+            BoardSnapshot snapshot = board.getSnapshot();
+            for (PlayerConnection h : observers) {
+                if (h.wantsDeltas()) h.sendEncoded(text, text.length, frame, frame.length);
+                else h.sendBoard(snapshot); // cala plansza kodowana tylko gdy ktos jej potrzebuje
+            }
+            spectators.publishBoard(snapshot); // widzowie zawsze dostaja cala plansze (wspolne bajty)
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the full current board to one client (answer to SYNC after a missed delta).
+     *
+     * @param ch requesting client
+     */
+    public void resync(PlayerConnection ch)
     {
-        String json = JsonUtil.boardToJson(board);
-        for (ClientHandler h : observers) h.sendLine("BOARD " + json); //wysylamy klientowi board w json
+        mailbox.execute(() -> handleResync(ch));
+    }
+
+    private void handleResync(PlayerConnection ch)
+    {
+        lock.lock();
+        try {
+            ch.sendBoard(board.getSnapshot()); // zwykle juz zakodowana dla innych odbiorcow
+        } finally {
+            lock.unlock();
+        }
     }
 
     /** Broadcasts an informational message to all clients. */
-    private synchronized void broadcastInfo(String msg)
+    private void broadcastInfo(String msg)
     {
-        for (ClientHandler h : observers) h.sendLine("INFO " + msg);
+        lock.lock();
+        try {
+            for (PlayerConnection h : observers) h.sendLine("INFO " + msg);
+            spectators.publishLine("INFO " + msg);
+        } finally {
+            lock.unlock();
+        }
     }
 
     // APPLY MOVE
     /**
-     * Applies a move made by a client.
+     * Queues a move made by a client; the move object is copied, so the caller may reuse it.
      *
      * @param m move
      * @param ch client handler
      */
-    public synchronized void applyMove(Move m, ClientHandler ch)
+    public void applyMove(Move m, PlayerConnection ch)
     {
-        if (stoppedForAgreement) {ch.sendLine("ERROR Game stopped. Use RESUME to continue game or FINISH if you have agreed.");return;}
-        if (gameOver) { ch.sendLine("ERROR Game already finished"); return; }
-        if (m.player != ch.getPlayerId()) { ch.sendLine("ERROR Player id mismatch"); return; }
-        if (m.player != currentPlayer) { ch.sendLine("ERROR Not your turn"); return; }
+        Move copy = new Move(m.row, m.col, m.player); // dispatcher uzywa tego samego obiektu dla kolejnych ruchow
+        mailbox.execute(() -> handleMove(copy, ch));
+    }
 
-        // backup before move (for Ko detection and possible rollback)
-        int[][] before = board.getGridCopy();
+    private void handleMove(Move m, PlayerConnection ch)
+    {
+        lock.lock();
+        try {
+            if (stoppedForAgreement) {ch.sendLine("ERROR Game stopped. Use RESUME to continue game or FINISH if you have agreed.");return;}
+            if (gameOver) { ch.sendLine("ERROR Game already finished"); return; }
+            if (m.player != ch.getPlayerId()) { ch.sendLine("ERROR Player id mismatch"); return; }
+            if (m.player != currentPlayer) { ch.sendLine("ERROR Not your turn"); return; }
 
-        int result = board.applyMoveAndCapture(m.row, m.col, m.player);
+            // hash before move (for Ko detection)
+            long before = board.getHash();
 
-        if (result == -1) { ch.sendLine("ERROR Field occupied or out of bounds"); return; }
-        if (result == -2) { ch.sendLine("ERROR Suicide move not allowed"); return; }
+            int result = board.applyMoveAndCapture(m.row, m.col, m.player);
 
-        // detect Ko: new board equal to previousBoard -> illegal
-        if (previousBoard != null && Board.gridsEqual(board.getGridCopy(), previousBoard))
-        {
-            // rollback
-            board.setGridFromCopy(before);
-            ch.sendLine("ERROR Ko rule: immediate recapture not allowed");
-            return;
-        }
+            if (result == -1) { ch.sendLine("ERROR Field occupied or out of bounds"); return; }
+            if (result == -2) { ch.sendLine("ERROR Suicide move not allowed"); return; }
 
-        // move accepted: set previousBoard = before (position before this move)
-        previousBoard = before;
+            // detect superko: any earlier position of this game -> illegal (hash, potem pelne porownanie)
+            if (positionalSuperko && positionHistory.contains(board.getHash()) && repeatsEarlierPosition())
+            {
+                board.undo();
+                ch.sendLine("ERROR Superko rule: position already occurred in this game");
+                return;
+            }
+
+            // detect Ko: new position equal to the one before last move -> illegal
+            if (hasPreviousPosition && board.getHash() == previousHash && repeatsPreviousPosition(m, result))
+            {
+                // rollback (only the stones changed by this move)
+                board.undo();
+                ch.sendLine("ERROR Ko rule: immediate recapture not allowed");
+                return;
+            }
 
-        // Zapis ruchu do bazy
-        if (moveRepository != null && currentGameEntity != null) {
-            MoveEntity me = new MoveEntity(++moveCounter, m.row, m.col, m.player, currentGameEntity);
-            moveRepository.save(me);
+            // move accepted: remember position before this move
+            previousHash = before;
+            hasPreviousPosition = true;
+            lastMovePoint = m.row * board.size + m.col;
+            lastSingleCapture = (result == 1 ? board.getLastCapturedPoint(0) : -1);
+            positionHistory.add(board.getHash());
+            if (positionalSuperko) positionArchive.add(PackedBoard.of(board));
+            BoardSnapshot snapshot = board.publish(); // od teraz czytelnicy widza nowa pozycje
+            BoardDelta delta = BoardDelta.ofLastMove(snapshot.version, board, m.row, m.col, m.player);
+
+            // Zapis ruchu do bazy (w tle, po zapisie gry)
+            if (moveRepository != null && currentGameEntity != null) {
+                MoveEntity me = new MoveEntity(++moveCounter, m.row, m.col, m.player, currentGameEntity);
+                database.execute(() -> moveRepository.save(me));
+            }
+            // reset consecutive passes
+            consecutivePasses = 0;
+
+            PlayerConnection[] batch = beginBatch(); // plansza, INFO, wyniki i tura idą jednym flushem
+            try {
+                broadcastDelta(delta);
+                if (result > 0) broadcastInfo("Player " + m.player + " captured " + result + " stone(s).");
+                wyniki[m.player-1]+=result; // update wyników i rozesłanie ich
+                for (PlayerConnection h : observers)
+                {
+                    h.sendLine("WYNIKI1 " + wyniki[0]);
+                    h.sendLine("WYNIKI2 " + wyniki[1]);
+                }
+                // change turn
+                currentPlayer = (currentPlayer == 1 ? 2 : 1);
+                notifyTurn();
+            } finally {
+                endBatch(batch);
+            }
+        } finally {
+            lock.unlock();
         }
-        // reset consecutive passes
-        consecutivePasses = 0;
-
-        broadcastBoard();
-        if (result > 0) broadcastInfo("Player " + m.player + " captured " + result + " stone(s).");
-        wyniki[m.player-1]+=result; // update wyników i rozesłanie ich
-        for (ClientHandler h : observers)
-        {
-            h.sendLine("WYNIKI1 " + wyniki[0]);
-            h.sendLine("WYNIKI2 " + wyniki[1]);
+    }
+
+    /**
+     * Full check made only when hashes match (protects against hash collisions).
+     * <p>
+     * The position after this move equals the one before the last move only when
+     * both moves captured exactly one stone, each on the point of the other move.
+     *
+     * @param m move that has just been applied
+     * @param result number of stones captured by it
+     * @return true if the position really repeats
+     */
+    private boolean repeatsPreviousPosition(Move m, int result)
+    {
+        int point = m.row * board.size + m.col;
+        return result == 1
+                && lastSingleCapture == point
+                && board.getLastCapturedPoint(0) == lastMovePoint;
+    }
+
+    /**
+     * Full check made only when the hash of the new position is in the superko history
+     * (protects against hash collisions, like {@link #repeatsPreviousPosition} for Ko).
+     * Scans the archive, but runs only on a hash hit, which is almost always a real repetition.
+     *
+     * @return true if the current position really occurred earlier in this game
+     */
+    private boolean repeatsEarlierPosition()
+    {
+        PackedBoard now = PackedBoard.of(board);
+        for (PackedBoard earlier : positionArchive) {
+            if (earlier.equals(now)) return true;
         }
-        // change turn
-        currentPlayer = (currentPlayer == 1 ? 2 : 1);
-        notifyTurn();
+        return false;
+    }
+
+    /** Forgets the Ko and superko history (new game or reset). */
+    private void clearKoState()
+    {
+        hasPreviousPosition = false;
+        previousHash = 0;
+        lastMovePoint = -1;
+        lastSingleCapture = -1;
+        positionHistory.clear();
+        positionHistory.add(board.getHash()); // pozycja startowa (pusta plansza)
+        positionArchive.clear();
+        if (positionalSuperko) positionArchive.add(PackedBoard.of(board));
     }
 
     // PASS
@@ -270,22 +635,47 @@ public class GameSession
      *
      * @param ch client handler
      */
-    public synchronized void playerPassed(ClientHandler ch)
+    public void playerPassed(PlayerConnection ch)
+    {
+        mailbox.execute(() -> handlePass(ch));
+    }
+
+    private void handlePass(PlayerConnection ch)
     {
-        if (stoppedForAgreement) {ch.sendLine("ERROR Game stopped. Use RESUME to continue game or FINISH if you have agreed.");return;}
-        if (gameOver) { ch.sendLine("ERROR Game already finished"); return; }
-        if (ch.getPlayerId() != currentPlayer) { ch.sendLine("ERROR Not your turn"); return; }
+        lock.lock();
+        try {
+            if (stoppedForAgreement) {ch.sendLine("ERROR Game stopped. Use RESUME to continue game or FINISH if you have agreed.");return;}
+            if (gameOver) { ch.sendLine("ERROR Game already finished"); return; }
+            if (ch.getPlayerId() != currentPlayer) { ch.sendLine("ERROR Not your turn"); return; }
+
+            PlayerConnection[] batch = beginBatch();
+            try {
+                passAccepted();
+            } finally {
+                endBatch(batch);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    /** Applies an accepted PASS and notifies the clients. */
+    private void passAccepted()
+    {
         broadcastInfo("Player " + currentPlayer + " passed.");
 
-        // For Ko: treat pass as a move that sets previousBoard to current position
-        previousBoard = board.getGridCopy();
+        // For Ko: treat pass as a move that sets previous position to current position
+        board.pass();
+        previousHash = board.getHash();
+        hasPreviousPosition = true;
+        lastMovePoint = -1;
+        lastSingleCapture = -1;
         consecutivePasses++;
 
         if (consecutivePasses >= 2) {
             stoppedForAgreement = true;
             //powiadamiamy klientow
-            for (ClientHandler h : observers)
+            for (PlayerConnection h : observers)
             {
                 h.sendLine("AGREEMENT_ON");
             }
@@ -304,26 +694,41 @@ public class GameSession
      *
      * @param ch client handler
      */
-    public synchronized void playerResume(ClientHandler ch)
+    public void playerResume(PlayerConnection ch)
     {
-        if (!stoppedForAgreement) {
-            ch.sendLine("ERROR Game is not stopped");
-            return;
-        }
-        //powiadamiamy klientow
-        stoppedForAgreement = false;
-        for (ClientHandler h : observers)
-        {
-            h.sendLine("AGREEMENT_OFF");
+        mailbox.execute(() -> handleResume(ch));
+    }
+
+    private void handleResume(PlayerConnection ch)
+    {
+        lock.lock();
+        try {
+            if (!stoppedForAgreement) {
+                ch.sendLine("ERROR Game is not stopped");
+                return;
+            }
+            PlayerConnection[] batch = beginBatch();
+            try {
+                //powiadamiamy klientow
+                stoppedForAgreement = false;
+                for (PlayerConnection h : observers)
+                {
+                    h.sendLine("AGREEMENT_OFF");
+                }
+                consecutivePasses = 0;
+                ONEvotedForFinish = false;
+                TWOvotedForFinish = false;
+                // przeciwnik gracza żądającego wznowienia zaczyna
+                currentPlayer = (ch.getPlayerId() == 1 ? 2 : 1);
+                broadcastBoard();
+                broadcastInfo("Game resumed. Player " + currentPlayer + " to move.");
+                notifyTurn();
+            } finally {
+                endBatch(batch);
+            }
+        } finally {
+            lock.unlock();
         }
-        consecutivePasses = 0;
-        ONEvotedForFinish = false;
-        TWOvotedForFinish = false;
-        // przeciwnik gracza żądającego wznowienia zaczyna
-        currentPlayer = (ch.getPlayerId() == 1 ? 2 : 1);
-        broadcastBoard();
-        broadcastInfo("Game resumed. Player " + currentPlayer + " to move.");
-        notifyTurn();
     }
 
     // FINISH
@@ -332,18 +737,63 @@ public class GameSession
      *
      * @param ch client handler
      */
-    public synchronized void playerVotedFinish(ClientHandler ch)
+    public void playerVotedFinish(PlayerConnection ch)
     {
-    if (ch.getPlayerId() == 1){ONEvotedForFinish = true; broadcastInfo("Player 1 voted FINISH");}
-    else if (ch.getPlayerId() == 2){TWOvotedForFinish = true; broadcastInfo("Player 2 voted FINISH");}
-    if(ONEvotedForFinish && TWOvotedForFinish) {
-        gameOver = true;
-            if (currentGameEntity != null && gameRepository != null) {
-                currentGameEntity.setResult("Finished by agreement");
-                gameRepository.save(currentGameEntity);
+        mailbox.execute(() -> handleFinish(ch));
+    }
+
+    private void handleFinish(PlayerConnection ch)
+    {
+        lock.lock();
+        try {
+            PlayerConnection[] batch = beginBatch();
+            try {
+                if (ch.getPlayerId() == 1){ONEvotedForFinish = true; broadcastInfo("Player 1 voted FINISH");}
+                else if (ch.getPlayerId() == 2){TWOvotedForFinish = true; broadcastInfo("Player 2 voted FINISH");}
+                if(ONEvotedForFinish && TWOvotedForFinish) {
+                    gameOver = true;
+                    String result = scoreGame();
+                    saveResult(result);
+                    broadcastInfo("Final score: " + result);
+                    for (PlayerConnection h : observers) h.sendLine("GAME_OVER You both agreed. " + result + ". Thanks for game:)"); //konczy gre
+                    spectators.publishLine("GAME_OVER " + result);
+                }
+            } finally {
+                endBatch(batch);
             }
-        for (ClientHandler h : observers) h.sendLine("GAME_OVER You both agreed. Thanks for game:)"); //konczy gre
+        } finally {
+            lock.unlock();
+        }
     }
+
+    /**
+     * Saves the result of the current game in the background (after its earlier writes).
+     *
+     * @param result result description
+     */
+    private void saveResult(String result)
+    {
+        GameEntity entity = currentGameEntity;
+        if (entity == null || gameRepository == null) return;
+        database.execute(() -> {
+            entity.setResult(result); // encje zmienia tylko skrzynka bazy
+            gameRepository.save(entity);
+        });
+    }
+
+    /**
+     * Counts the final area score (Tromp-Taylor). Gracze nie oznaczaja jeszcze
+     * martwych kamieni w protokole, wiec wszystkie kamienie na planszy sa liczone jako zywe.
+     *
+     * @return result description saved in the database
+     */
+    private String scoreGame()
+    {
+        int diff = scorer.score(board, null);
+        String areas = "(area P1: " + scorer.getArea(1) + ", P2: " + scorer.getArea(2) + ")";
+        if (diff == 0) return "Draw " + areas;
+        int winner = (diff > 0 ? 1 : 2);
+        return "Player " + winner + " wins by " + Math.abs(diff) + " " + areas;
     }
 
     // RESIGN
@@ -352,19 +802,32 @@ public class GameSession
      *
      * @param ch client handler
      */
-    public synchronized void playerResigned(ClientHandler ch)
+    public void playerResigned(PlayerConnection ch)
     {
-        if (gameOver) { ch.sendLine("ERROR Game already finished"); return; }
-        int winner = (ch.getPlayerId() == 1 ? 2 : 1);
-        gameOver = true;
+        mailbox.execute(() -> handleResign(ch));
+    }
 
-        if (currentGameEntity != null && gameRepository != null) {
-            currentGameEntity.setResult("Player " + ch.getPlayerId() + " resigned");
-            gameRepository.save(currentGameEntity);
-        }
+    private void handleResign(PlayerConnection ch)
+    {
+        lock.lock();
+        try {
+            if (gameOver) { ch.sendLine("ERROR Game already finished"); return; }
+            int winner = (ch.getPlayerId() == 1 ? 2 : 1);
+            gameOver = true;
+
+            saveResult("Player " + ch.getPlayerId() + " resigned");
 
-        broadcastInfo("Player " + ch.getPlayerId() + " resigned. Player " + winner + " wins.");
-        for (ClientHandler h : observers) h.sendLine("GAME_OVER Player " + winner + " wins (resign)");
+            PlayerConnection[] batch = beginBatch();
+            try {
+                broadcastInfo("Player " + ch.getPlayerId() + " resigned. Player " + winner + " wins.");
+                for (PlayerConnection h : observers) h.sendLine("GAME_OVER Player " + winner + " wins (resign)");
+                spectators.publishLine("GAME_OVER Player " + winner + " wins (resign)");
+            } finally {
+                endBatch(batch);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     // client disconnected
@@ -373,102 +836,298 @@ public class GameSession
      *
      * @param ch client handler
      */
-    public synchronized void clientDisconnected(ClientHandler ch)
+    public void clientDisconnected(PlayerConnection ch)
     {
-        observers.remove(ch);
-        if (started && !gameOver)
-        {
-            gameOver = true;
-            for (ClientHandler o : observers)
-            {
-                o.sendLine("ERROR Opponent disconnected. Game ended.");
-                o.sendLine("GAME_OVER Opponent disconnected");
-            }
-            // Zapisz w bazie, ze przerwano
-            if (currentGameEntity != null && gameRepository != null) {
-                currentGameEntity.setResult("Aborted (Disconnect)");
-                gameRepository.save(currentGameEntity);
-            }
-        }
+        mailbox.execute(() -> {
+            // rejestr poza blokada sesji (rejestr blokuje najpierw siebie, potem sesje)
+            if (removePlayer(ch) && registry != null) registry.remove(this);
+        });
+    }
 
-        // Jeśli nikt nie został, resetujemy sesję dla nowych graczy
-        if (observers.isEmpty()) {
-            System.out.println("All players disconnected. Resetting session automatically.");
-            reset();
+    /**
+     * Takes a player out of this session so that it can watch another game or queue again.
+     * Allowed only while the player's game is not running (waiting for an opponent or over).
+     *
+     * @param ch player connection
+     * @return false if the game is running and the player must stay
+     */
+    boolean leave(PlayerConnection ch)
+    {
+        boolean empty;
+        lock.lock();
+        try {
+            if (!observers.contains(ch)) return true; // juz nie gra w tej sesji (np. widz)
+            if (started && !gameOver) return false;
+            empty = removePlayer(ch);
+        } finally {
+            lock.unlock();
         }
+        if (empty && registry != null) registry.remove(this); // jak w clientDisconnected: rejestr poza blokada
+        return true;
     }
 
     /**
-     * Resets the session state so a new game can be played without restarting server.
+     * Sends a line to the players of this session (lobby queue position).
+     *
+     * @param line text line
      */
-    public synchronized void reset() {
-        // Powiadamiamy i usuwamy resztki graczy (jeśli reset wywołany ręcznie)
-        for (ClientHandler h : observers) {
-            try {h.sendLine("GAME_OVER Session reset by admin. Disconnecting.");} catch (Exception ignored) {}
+    void notifyPlayers(String line)
+    {
+        lock.lock();
+        try {
+            for (PlayerConnection h : observers) h.sendLine(line);
+        } finally {
+            lock.unlock();
         }
-        observers.clear();
+    }
 
-        // Czyszczenie planszy
-        board.clear();
+    /**
+     * Adds a read-only spectator; it gets the current board at once.
+     *
+     * @param ch spectator connection
+     */
+    public void addSpectator(PlayerConnection ch)
+    {
+        spectators.add(ch);
+    }
 
-        this.previousBoard = null;
-        this.started = false;
-        this.gameOver = false;
-        this.currentPlayer = 1;
-        this.consecutivePasses = 0;
-        this.stoppedForAgreement = false;
-        this.ONEvotedForFinish = false;
-        this.TWOvotedForFinish = false;
-        this.wyniki[0] = 0;
-        this.wyniki[1] = 0;
+    /**
+     * Removes a spectator.
+     *
+     * @param ch spectator connection
+     */
+    public void removeSpectator(PlayerConnection ch)
+    {
+        spectators.remove(ch);
+    }
 
-        this.currentGameEntity = null;
-        this.moveCounter = 0;
+    /**
+     * Returns the number of spectators of this game.
+     *
+     * @return spectator count
+     */
+    public int getSpectatorCount()
+    {
+        return spectators.size();
+    }
 
-        System.out.println("Game Session has been reset. Ready for new players.");
+    /**
+     * Returns the registry owning this session.
+     *
+     * @return registry, or null for the singleton
+     */
+    GameSessionRegistry getRegistry()
+    {
+        return registry;
     }
 
     /**
-     * Odtwarza gre z bazy danych.
+     * Removes a disconnected client and ends the game if it was running.
+     *
+     * @param ch client handler
+     * @return true if the last client left
      */
-    public synchronized void replayGameFromDb(Long gameId) {
-        if(started){
-            System.out.println("Game in progress! Use 'reset' first.");
-            return;
-        }
-        if(observers.isEmpty()){
-            System.out.println("No players connected, cant show replay");
-            return;
+    private boolean removePlayer(PlayerConnection ch)
+    {
+        lock.lock();
+        try {
+            if (!observers.remove(ch)) return false; // nie gracz tej sesji (np. juz przeszedl do WATCH)
+            if (started && !gameOver)
+            {
+                gameOver = true;
+                spectators.publishLine("GAME_OVER Player " + ch.getPlayerId() + " disconnected");
+                for (PlayerConnection o : observers)
+                {
+                    o.beginBatch();
+                    o.sendLine("ERROR Opponent disconnected. Game ended.");
+                    o.sendLine("GAME_OVER Opponent disconnected");
+                    o.endBatch();
+                }
+                // Zapisz w bazie, ze przerwano
+                saveResult("Aborted (Disconnect)");
+            }
+
+            // Jeśli nikt nie został, resetujemy sesję dla nowych graczy (albo usuwamy ja z rejestru)
+            if (observers.isEmpty()) {
+                System.out.println("Game " + id + ": all players disconnected. Resetting session automatically.");
+                reset();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
         }
-        if (gameRepository == null) {
-            System.out.println("DB not initialized");
-            return;
+    }
+
+    /**
+     * Resets the session state so a new game can be played without restarting server.
+     * Remaining players are unbound from the session; the caller hands them back to the lobby.
+     *
+     * @return players that were still in the session (empty after the automatic reset)
+     */
+    public List<PlayerConnection> reset() {
+        lock.lock();
+        try {
+            // Powiadamiamy i odpinamy resztki graczy (jeśli reset wywołany ręcznie)
+            List<PlayerConnection> players = new ArrayList<>(observers);
+            for (PlayerConnection h : players) {
+                try {h.sendLine("GAME_OVER Session reset by admin. Back to the lobby.");} catch (Exception ignored) {}
+                h.bind(0, null);
+            }
+            observers.clear();
+
+            // Czyszczenie planszy
+            board.clear();
+            board.publish();
+
+            clearKoState();
+            this.started = false;
+            this.gameOver = false;
+            this.currentPlayer = 1;
+            this.consecutivePasses = 0;
+            this.stoppedForAgreement = false;
+            this.ONEvotedForFinish = false;
+            this.TWOvotedForFinish = false;
+            this.wyniki[0] = 0;
+            this.wyniki[1] = 0;
+
+            this.currentGameEntity = null;
+            this.moveCounter = 0;
+            this.replayRun++;
+
+            System.out.println("Game Session has been reset. Ready for new players.");
+            return players;
+        } finally {
+            lock.unlock();
         }
-        GameEntity game = gameRepository.findById(gameId).orElse(null);
-        if (game == null) {
-            broadcastInfo("Game with ID " + gameId + " not found.");
-            return;
+    }
+
+    /**
+     * Odtwarza gre z bazy danych. Ruchy czyta skrzynka bazy, a kolejne kroki planuje
+     * zegar co {@value #REPLAY_DELAY_MS} ms, wiec skrzynka sesji nie czeka w tym czasie.
+     *
+     * @param gameId id of the saved game
+     */
+    public void replayGameFromDb(Long gameId) {
+        mailbox.execute(() -> startReplay(gameId));
+    }
+
+    private void startReplay(Long gameId) {
+        lock.lock();
+        try {
+            if(started){
+                System.out.println("Game in progress! Use 'reset' first.");
+                return;
+            }
+            if(observers.isEmpty()){
+                System.out.println("No players connected, cant show replay");
+                return;
+            }
+            if (gameRepository == null) {
+                System.out.println("DB not initialized");
+                return;
+            }
+            int run = ++replayRun;
+            database.execute(() -> {
+                GameEntity game = gameRepository.findById(gameId).orElse(null);
+                List<MoveEntity> moves = (game == null ? null : new ArrayList<>(game.getMoves()));
+                mailbox.execute(() -> replayLoaded(run, gameId, game, moves));
+            });
+        } finally {
+            lock.unlock();
         }
+    }
 
-        broadcastInfo("REPLAYING GAME ID: " + gameId);
+    private void replayLoaded(int run, Long gameId, GameEntity game, List<MoveEntity> moves) {
+        lock.lock();
+        try {
+            if (run != replayRun) return; // w miedzyczasie reset albo nowa gra
+            if (game == null) {
+                broadcastInfo("Game with ID " + gameId + " not found.");
+                return;
+            }
 
-        // Czyścimy planszę przed odtwarzaniem
-        board.clear();
-        broadcastBoard();
+            broadcastInfo("REPLAYING GAME ID: " + gameId);
 
-        List<MoveEntity> moves = game.getMoves();
-        for (MoveEntity me : moves) {
-            try {
-                // Opoznienie dla efektu wizualnego
-                Thread.sleep(800);
-            } catch (InterruptedException ignored) {}
+            // Czyścimy planszę przed odtwarzaniem
+            board.clear();
+            board.publish();
+            broadcastBoard();
+            scheduleReplayStep(run, moves, 0, game.getResult());
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    private void scheduleReplayStep(int run, List<MoveEntity> moves, int index, String result) {
+        // Opoznienie dla efektu wizualnego; sam krok znowu przez skrzynke sesji
+        REPLAY_TIMER.schedule(() -> mailbox.execute(() -> replayStep(run, moves, index, result)),
+                REPLAY_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void replayStep(int run, List<MoveEntity> moves, int index, String result) {
+        lock.lock();
+        try {
+            if (run != replayRun) return;
+            if (index == moves.size()) {
+                broadcastInfo("REPLAY FINISHED. Result: " + result);
+                //zeby teraz zagrac wystarczy ze dolaczy drugi gracz
+                return;
+            }
+            MoveEntity me = moves.get(index);
             board.applyMoveAndCapture(me.getRowInd(), me.getColInd(), me.getPlayerId());
-            broadcastBoard();
-            broadcastInfo("Replay move: Player " + me.getPlayerId() + " at " + me.getRowInd() + "," + me.getColInd());
+            board.publish();
+            PlayerConnection[] batch = beginBatch();
+            try {
+                broadcastBoard();
+                broadcastInfo("Replay move: Player " + me.getPlayerId() + " at " + me.getRowInd() + "," + me.getColInd());
+            } finally {
+                endBatch(batch);
+            }
+            scheduleReplayStep(run, moves, index + 1, result);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the bytes waiting to be sent to the players of this session (monitoring).
+     *
+     * @return sum of the players' outbound queues
+     */
+    public int getQueuedOutboundBytes() {
+        lock.lock();
+        try {
+            int sum = 0;
+            for (PlayerConnection h : observers) sum += h.getQueuedBytes();
+            return sum;
+        } finally {
+            lock.unlock();
         }
-        broadcastInfo("REPLAY FINISHED. Result: " + game.getResult());
+    }
 
-        //zeby teraz zagrac wystarczy ze dolaczy drugi gracz
+    /**
+     * Returns the messages dropped for slow players of this session (monitoring).
+     *
+     * @return sum of the players' drop counters
+     */
+    public long getDroppedOutbound() {
+        lock.lock();
+        try {
+            long sum = 0;
+            for (PlayerConnection h : observers) sum += h.getDroppedCount();
+            return sum;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of commands waiting in this session's mailbox (monitoring).
+     *
+     * @return queued command count
+     */
+    public int getQueuedCommands() {
+        return mailbox.getQueuedCount();
     }
-}
\ No newline at end of file
+}
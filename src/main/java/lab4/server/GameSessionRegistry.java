@@ -0,0 +1,175 @@
+package lab4.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lab4.common.TaskThreads;
+import lab4.database.GameRepository;
+import lab4.database.MoveRepository;
+
+/**
+ * Rejestr wielu niezaleznych sesji gry na jednym serwerze.
+ * <p>
+ * Nowe polaczenie czeka w {@link Lobby} na QUEUE albo WATCH; potem (albo po czasie, w kolejce
+ * domyslnego rozmiaru planszy bez rankingu) trafia do sesji czekajacej na drugiego gracza,
+ * a gdy takiej nie ma, tworzona jest nowa sesja.
+ * Kazda sesja ma wlasna plansze, graczy i wpis w bazie; pusta sesja (wszyscy sie rozlaczyli)
+ * jest usuwana z rejestru.
+ */
+public class GameSessionRegistry {
+    /** Board size of players who did not ask for one */
+    private final int boardSize;
+    /** Whether new sessions use positional superko */
+    private final boolean positionalSuperko;
+    /** Repositories passed to every session (may be null in tests) */
+    private final GameRepository gameRepository;
+    private final MoveRepository moveRepository;
+
+    /** Number of accepted connections (thread names) */
+    private final AtomicInteger connections = new AtomicInteger();
+    /** Next session id */
+    private final AtomicLong nextId = new AtomicLong(1);
+    /** All live sessions by id */
+    private final ConcurrentHashMap<Long, GameSession> sessions = new ConcurrentHashMap<>();
+    /** Matchmaking queues of players waiting for an opponent */
+    private final Lobby lobby = new Lobby(this);
+
+    /**
+     * Creates an empty registry.
+     *
+     * @param boardSize board size of new sessions
+     * @param positionalSuperko true to use superko instead of simple Ko
+     * @param gameRepository game repository, or null
+     * @param moveRepository move repository, or null
+     */
+    public GameSessionRegistry(int boardSize, boolean positionalSuperko,
+                               GameRepository gameRepository, MoveRepository moveRepository) {
+        this.boardSize = boardSize;
+        this.positionalSuperko = positionalSuperko;
+        this.gameRepository = gameRepository;
+        this.moveRepository = moveRepository;
+    }
+
+    /**
+     * Creates the handler of a new connection, hands it to the lobby and starts its thread.
+     * Called from the accept loop.
+     *
+     * @param socket connected client socket
+     * @return the handler, or null if creating it failed
+     */
+    public ClientHandler assign(Socket socket) {
+        try {
+            ClientHandler handler = new ClientHandler(socket, this);
+            assign(handler);
+            TaskThreads.shared().start("client-" + connections.incrementAndGet(), handler); // zwykly albo wirtualny watek
+            return handler;
+        } catch (IOException e) {
+            System.err.println("Failed to create ClientHandler: " + e.getMessage());
+            try { socket.close(); } catch (IOException ignored) {}
+            return null;
+        }
+    }
+
+    /**
+     * Hands a new connection of any transport, not yet in a session, to the lobby;
+     * it gets a game after QUEUE, or in the default queue when it sends nothing in time.
+     *
+     * @param conn new connection
+     */
+    public void assign(PlayerConnection conn) {
+        lobby.arrive(conn);
+    }
+
+    /**
+     * Returns the board size of players who did not ask for one.
+     *
+     * @return default board size
+     */
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    /**
+     * Creates and registers a new empty session with the default board size.
+     *
+     * @return new session
+     */
+    public GameSession create() {
+        return create(boardSize);
+    }
+
+    /**
+     * Creates and registers a new empty session.
+     *
+     * @param size board size
+     * @return new session
+     */
+    public GameSession create(int size) {
+        GameSession s = new GameSession(nextId.getAndIncrement(), size, this);
+        s.setRepositories(gameRepository, moveRepository);
+        s.setPositionalSuperko(positionalSuperko);
+        sessions.put(s.getId(), s);
+        return s;
+    }
+
+    /**
+     * Removes a session (called by the session when its last player left).
+     * A session that got a new player in the meantime stays.
+     *
+     * @param s session to remove
+     */
+    void remove(GameSession s) {
+        if (lobby.withdraw(s)) sessions.remove(s.getId()); // lobby sprawdza graczy pod blokada swojej kolejki
+    }
+
+    /**
+     * Returns a live session.
+     *
+     * @param id session id
+     * @return session, or null if there is no such session
+     */
+    public GameSession get(long id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * Returns the session waiting for a second player with the default board size and no rating.
+     *
+     * @return open session, or null
+     */
+    public GameSession getOpenSession() {
+        return lobby.peek(boardSize, Lobby.ANY_RATING);
+    }
+
+    /**
+     * Returns the matchmaking lobby.
+     *
+     * @return lobby
+     */
+    public Lobby getLobby() {
+        return lobby;
+    }
+
+    /**
+     * Returns a copy of the list of live sessions.
+     *
+     * @return sessions
+     */
+    public List<GameSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * Returns the number of live sessions.
+     *
+     * @return session count
+     */
+    public int size() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,458 @@
+package lab4.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Poczekalnia: gracze czekajacy na przeciwnika, w osobnej kolejce dla kazdego rozmiaru planszy.
+ * <p>
+ * Nowe polaczenie nie jest od razu parowane: ma chwile ({@link #setAutoQueueDelay}) na
+ * {@code QUEUE <size> [rating]} albo {@code WATCH}, a jesli nic nie wysle, trafia do kolejki
+ * domyslnego rozmiaru bez rankingu.
+ * <p>
+ * W kolejce stoja sesje z jednym graczem, w kolejnosci przyjscia (od niej zalezy pozycja),
+ * i te same sesje pogrupowane po przedziale rankingu. Nowy gracz dolacza do najstarszej czekajacej
+ * sesji, ktora go akceptuje: z tego samego przedzialu, albo z sasiedniego, jesli tamten gracz czeka
+ * juz dosc dlugo (tolerancja rosnie o jeden przedzial co {@link #WIDEN_MS}, najwyzej do
+ * {@link #MAX_WIDEN}). Gracz bez rankingu gra tylko z innym bez rankingu.
+ * <p>
+ * Parowanie nie zwalnia z liczba czekajacych: sprawdza tylko pierwsze sesje kilku przedzialow,
+ * a sesja wychodzaca z kolejki jest tylko oznaczana - z poczatku kolejki znika od razu, ze srodka
+ * dopiero przy rozsylaniu pozycji. Nowe pozycje rozsyla timer, najwyzej raz na
+ * {@link #POSITION_UPDATE_MS}, a linie wysyla juz poza blokada kolejki.
+ * <p>
+ * Kazda kolejka ma wlasna blokade; kolejnosc blokad: kolejka, potem sesja.
+ */
+public class Lobby {
+    /** Rating bucket of players without a rating */
+    public static final int ANY_RATING = -1;
+    /** Width of one rating bucket */
+    public static final int RATING_BUCKET = 200;
+    /** Waiting time after which a player accepts opponents one more bucket away */
+    static final long WIDEN_MS = 15_000;
+    /** Largest bucket distance reached by waiting */
+    static final int MAX_WIDEN = 2;
+    /** Default time a new connection has for QUEUE or WATCH before it joins the default queue */
+    static final long AUTO_QUEUE_MS = 3_000;
+    /** Delay between a change in a queue and sending the new positions to its players */
+    static final long POSITION_UPDATE_MS = 500;
+    /** Board sizes that can be requested */
+    private static final int[] BOARD_SIZES = {9, 13, 19};
+    /** Moves connections that sent nothing to the default queue and sends queue positions */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lobby-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Registry creating the sessions */
+    private final GameSessionRegistry registry;
+    /** Queues by board size */
+    private final ConcurrentHashMap<Integer, Queue> queues = new ConcurrentHashMap<>();
+    /** Every waiting session, by session id */
+    private final ConcurrentHashMap<Long, Entry> waitingIn = new ConcurrentHashMap<>();
+    /** Connections that have not chosen a queue yet */
+    private final ConcurrentHashMap<PlayerConnection, Arrival> arrivals = new ConcurrentHashMap<>();
+    /** Number of waiting sessions in all queues */
+    private final AtomicInteger waiting = new AtomicInteger();
+    /** Time for QUEUE or WATCH after connecting, in milliseconds; 0 joins the default queue at once */
+    private volatile long autoQueueMs = AUTO_QUEUE_MS;
+    /** Waiting time per bucket of tolerance, in milliseconds */
+    private volatile long widenMs = WIDEN_MS;
+
+    /** Sessions waiting for a second player with one board size */
+    private static final class Queue {
+        final int boardSize;
+        final ReentrantLock lock = new ReentrantLock();
+        /** Waiting sessions, oldest first; may contain removed entries, never at the head (guarded by lock) */
+        final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        /** The same entries by rating bucket, oldest first, also with removed ones (guarded by lock) */
+        final HashMap<Integer, ArrayDeque<Entry>> buckets = new HashMap<>();
+        /** Number of entries not removed (guarded by lock) */
+        int live = 0;
+        /** Whether a position update is scheduled (guarded by lock) */
+        boolean updateScheduled = false;
+
+        Queue(int boardSize) {
+            this.boardSize = boardSize;
+        }
+    }
+
+    /** Place of a waiting session in its queue */
+    private static final class Entry {
+        final Queue queue;
+        final GameSession session;
+        final int bucket;
+        /** {@link System#nanoTime()} when the player started waiting */
+        final long since;
+        /** Set when the session left the queue; the entry is dropped later (guarded by the queue lock) */
+        boolean removed = false;
+        /** Position last sent to the player (guarded by the queue lock) */
+        int sentPosition;
+
+        Entry(Queue queue, GameSession session, int bucket, long since) {
+            this.queue = queue;
+            this.session = session;
+            this.bucket = bucket;
+            this.since = since;
+        }
+    }
+
+    /** Connection before its first QUEUE or WATCH */
+    private static final class Arrival {
+        /** Held while the connection is being taken from the lobby (timer or command) */
+        final ReentrantLock lock = new ReentrantLock();
+        /** Joins the default queue when the time is up */
+        volatile ScheduledFuture<?> timer;
+    }
+
+    /**
+     * Creates the lobby of a registry.
+     *
+     * @param registry registry creating new sessions
+     */
+    Lobby(GameSessionRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Returns the bucket of a rating.
+     *
+     * @param rating player's rating, negative if none
+     * @return bucket, or {@link #ANY_RATING}
+     */
+    public static int bucketOf(int rating) {
+        return rating < 0 ? ANY_RATING : rating / RATING_BUCKET;
+    }
+
+    /**
+     * Returns whether players may ask for this board size.
+     *
+     * @param size board size
+     * @return true for 9, 13 and 19
+     */
+    public static boolean isSupportedSize(int size) {
+        for (int s : BOARD_SIZES) if (s == size) return true;
+        return false;
+    }
+
+    /**
+     * Sets how long a new connection may wait with QUEUE or WATCH before it joins the default queue.
+     *
+     * @param ms time in milliseconds, 0 to join at once
+     */
+    public void setAutoQueueDelay(long ms) {
+        autoQueueMs = ms;
+    }
+
+    /**
+     * Sets the waiting time after which a player accepts opponents one more bucket away (tests).
+     *
+     * @param ms time in milliseconds
+     */
+    void setWidenInterval(long ms) {
+        widenMs = ms;
+    }
+
+    private static String describe(int boardSize, int bucket) {
+        return boardSize + "x" + boardSize + ", rating " + (bucket == ANY_RATING
+                ? "any" : (bucket * RATING_BUCKET) + "-" + ((bucket + 1) * RATING_BUCKET - 1));
+    }
+
+    private Queue queue(int boardSize) {
+        return queues.computeIfAbsent(boardSize, Queue::new);
+    }
+
+    /**
+     * Takes a new connection that is not in any game yet. It joins the default queue
+     * unless it sends QUEUE or WATCH in time (then {@link #claim} takes it out).
+     *
+     * @param conn new connection (no session)
+     */
+    void arrive(PlayerConnection conn) {
+        long delay = autoQueueMs;
+        if (delay <= 0) {
+            enqueue(conn, registry.getBoardSize(), ANY_RATING);
+            return;
+        }
+        Arrival a = new Arrival();
+        arrivals.put(conn, a);
+        conn.sendLine("INFO Send QUEUE <size> [rating] to choose an opponent, otherwise you join the "
+                + describe(registry.getBoardSize(), ANY_RATING) + " queue in " + delay + " ms");
+        a.timer = TIMER.schedule(() -> autoQueue(conn, a), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void autoQueue(PlayerConnection conn, Arrival a) {
+        a.lock.lock();
+        try {
+            if (arrivals.remove(conn, a)) enqueue(conn, registry.getBoardSize(), ANY_RATING);
+        } finally {
+            a.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a connection out of the lobby before its first QUEUE or WATCH, or on disconnect.
+     * If the timer is just moving it to the default queue, waits until that is done.
+     *
+     * @param conn connection
+     * @return true if it had no game yet, false if it is (or was) in a session
+     */
+    boolean claim(PlayerConnection conn) {
+        Arrival a = arrivals.get(conn);
+        if (a == null) return false;
+        a.lock.lock();
+        try {
+            if (!arrivals.remove(conn, a)) return false; // timer byl pierwszy
+            ScheduledFuture<?> timer = a.timer;
+            if (timer != null) timer.cancel(false);
+            return true;
+        } finally {
+            a.lock.unlock();
+        }
+    }
+
+    /**
+     * Puts an existing connection (without a running game) in a queue; the connection is rebound
+     * to the session it joins.
+     *
+     * @param conn connection
+     * @param boardSize requested board size
+     * @param bucket rating bucket ({@link #bucketOf}) or {@link #ANY_RATING}
+     */
+    void enqueue(PlayerConnection conn, int boardSize, int bucket) {
+        try {
+            join((playerId, session) -> {
+                conn.bind(playerId, session);
+                return conn;
+            }, boardSize, bucket);
+        } catch (IOException e) {
+            conn.sendLine("ERROR " + e.getMessage()); // nie powinno sie zdarzyc, polaczenie juz istnieje
+        }
+    }
+
+    /**
+     * Pairs a player with the oldest waiting one that accepts it (the game starts),
+     * or puts the player in a new session to wait.
+     *
+     * @param factory creates (or rebinds) the connection for the assigned player ID and session
+     * @param boardSize requested board size
+     * @param bucket rating bucket ({@link #bucketOf}) or {@link #ANY_RATING}
+     * @return the player's connection
+     * @throws IOException if the factory fails
+     */
+    public PlayerConnection join(GameSession.ConnectionFactory factory, int boardSize, int bucket) throws IOException {
+        Queue q = queue(boardSize);
+        q.lock.lock();
+        try {
+            GameSession s;
+            while ((s = match(q, bucket)) != null) {
+                PlayerConnection conn = s.join(factory);
+                if (conn == null) { // pelna (nie powinno sie zdarzyc), nastepna
+                    dequeue(q, s);
+                    continue;
+                }
+                if (s.isFull()) dequeue(q, s); // drugi gracz: gra wystartowala
+                return conn;
+            }
+
+            s = registry.create(boardSize);
+            PlayerConnection conn;
+            try {
+                conn = s.join(factory);
+            } catch (IOException | RuntimeException e) {
+                registry.remove(s); // pusta, nikt jej jeszcze nie widzial
+                throw e;
+            }
+            Entry e = new Entry(q, s, bucket, System.nanoTime());
+            q.entries.addLast(e);
+            q.buckets.computeIfAbsent(bucket, b -> new ArrayDeque<>()).addLast(e);
+            waitingIn.put(s.getId(), e);
+            waiting.incrementAndGet();
+            e.sentPosition = ++q.live; // ostatni w kolejce: pozycja = liczba czekajacych
+            conn.sendLine("INFO Waiting for opponent (" + describe(boardSize, bucket) + "), position " + e.sentPosition);
+            return conn;
+        } finally {
+            q.lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the oldest waiting session that accepts a player of the bucket (queue lock held).
+     * Only the first session of each near bucket is checked: the others waited less, so they accept less.
+     *
+     * @param q queue of the board size
+     * @param bucket bucket of the new player
+     * @return session, or null
+     */
+    private GameSession match(Queue q, int bucket) {
+        if (bucket == ANY_RATING) return first(q, ANY_RATING);
+        long now = System.nanoTime();
+        Entry best = null;
+        for (int b = Math.max(0, bucket - MAX_WIDEN); b <= bucket + MAX_WIDEN; b++) {
+            Entry e = firstEntry(q, b);
+            if (e == null || Math.abs(b - bucket) > tolerance(now - e.since)) continue;
+            if (best == null || e.since < best.since) best = e;
+        }
+        return best == null ? null : best.session;
+    }
+
+    private static GameSession first(Queue q, int bucket) {
+        Entry e = firstEntry(q, bucket);
+        return e == null ? null : e.session;
+    }
+
+    /**
+     * Returns the oldest entry of a bucket, dropping removed ones from its head (queue lock held).
+     *
+     * @param q queue
+     * @param bucket rating bucket
+     * @return entry, or null
+     */
+    private static Entry firstEntry(Queue q, int bucket) {
+        ArrayDeque<Entry> d = q.buckets.get(bucket);
+        if (d == null) return null;
+        while (!d.isEmpty() && d.peekFirst().removed) d.pollFirst();
+        if (d.isEmpty()) {
+            q.buckets.remove(bucket);
+            return null;
+        }
+        return d.peekFirst();
+    }
+
+    /**
+     * Returns how many buckets away a player accepts opponents after waiting.
+     *
+     * @param waitedNanos waiting time
+     * @return 0 to {@link #MAX_WIDEN}
+     */
+    private int tolerance(long waitedNanos) {
+        long step = widenMs;
+        if (step <= 0) return MAX_WIDEN;
+        return (int) Math.min(MAX_WIDEN, TimeUnit.NANOSECONDS.toMillis(waitedNanos) / step);
+    }
+
+    /**
+     * Takes an empty session out of its queue, before the registry forgets it.
+     *
+     * @param s session whose last player left
+     * @return false if a player joined it in the meantime (it stays)
+     */
+    boolean withdraw(GameSession s) {
+        Entry e = waitingIn.get(s.getId());
+        if (e == null) return s.getPlayerCount() == 0; // nie czeka w kolejce, nikt do niej nie dolaczy
+        e.queue.lock.lock();
+        try {
+            if (s.getPlayerCount() > 0) return false;
+            dequeue(e.queue, s);
+            return true;
+        } finally {
+            e.queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a session from its queue in O(1): marks its entry and drops removed entries from
+     * the head; the players behind get their new position from {@link #sendPositions} (queue lock held).
+     *
+     * @param q queue
+     * @param s session leaving the queue
+     */
+    private void dequeue(Queue q, GameSession s) {
+        Entry e = waitingIn.remove(s.getId());
+        if (e == null) return; // juz nie czeka
+        e.removed = true;
+        q.live--;
+        waiting.decrementAndGet();
+        while (!q.entries.isEmpty() && q.entries.peekFirst().removed) q.entries.pollFirst();
+        firstEntry(q, e.bucket); // zdejmuje e, jesli bylo pierwsze w swoim przedziale
+        if (!q.updateScheduled && q.live > 0) {
+            q.updateScheduled = true;
+            TIMER.schedule(() -> sendPositions(q), POSITION_UPDATE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Timer: drops removed entries from the middle of a queue and tells the players whose
+     * position changed; the lines are sent after the queue lock is released.
+     *
+     * @param q queue
+     */
+    private void sendPositions(Queue q) {
+        List<Entry> moved = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        q.lock.lock();
+        try {
+            q.updateScheduled = false;
+            int position = 0;
+            for (Iterator<Entry> it = q.entries.iterator(); it.hasNext(); ) {
+                Entry e = it.next();
+                if (e.removed) {
+                    it.remove();
+                    continue;
+                }
+                if (++position != e.sentPosition) {
+                    e.sentPosition = position;
+                    moved.add(e);
+                    positions.add(position);
+                }
+            }
+            for (ArrayDeque<Entry> d : q.buckets.values()) d.removeIf(e -> e.removed);
+            q.buckets.values().removeIf(ArrayDeque::isEmpty);
+        } finally {
+            q.lock.unlock();
+        }
+        for (int i = 0; i < moved.size(); i++) {
+            Entry e = moved.get(i);
+            // bez blokady kolejki: gracz mogl juz dostac przeciwnika, wtedy INFO jest zbedne, ale nieszkodliwe
+            e.session.notifyPlayers("INFO Waiting for opponent (" + describe(q.boardSize, e.bucket) + "), position " + positions.get(i));
+        }
+    }
+
+    /**
+     * Returns the first session waiting for an opponent of a bucket.
+     *
+     * @param boardSize board size
+     * @param bucket rating bucket
+     * @return waiting session, or null
+     */
+    public GameSession peek(int boardSize, int bucket) {
+        Queue q = queues.get(boardSize);
+        if (q == null) return null;
+        q.lock.lock();
+        try {
+            return first(q, bucket);
+        } finally {
+            q.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of players waiting for an opponent in all queues.
+     *
+     * @return waiting player count
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    /**
+     * Returns the number of connections that have not chosen a queue yet.
+     *
+     * @return connection count
+     */
+    public int getArrivingCount() {
+        return arrivals.size();
+    }
+}
@@ -0,0 +1,238 @@
+package lab4.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import lab4.common.BoardSnapshot;
+import lab4.common.LineBuffer;
+import lab4.common.StreamCompression;
+
+/**
+ * Polaczenie gracza w {@link NioServer}: czyta i pisze nieblokujaco przez kanal,
+ * linie protokolu tekstowego skleja {@link LineBuffer#feed}.
+ * <p>
+ * Wysylanie moze przyjsc z dowolnego watku (ruch przeciwnika obsluguje inna petla):
+ * bajty trafiaja do bezposredniego bufora i sa od razu zapisywane do kanalu; czego kanal
+ * nie przyjal, dopisuje petla tego polaczenia po OP_WRITE.
+ */
+final class NioConnection implements PlayerConnection {
+    /** Initial size of the direct write buffer */
+    static final int INITIAL_WRITE_BUFFER = 4 * 1024;
+    /** Unsent bytes above which the client is treated as too slow and disconnected */
+    static final int MAX_PENDING = 1024 * 1024;
+    /** Longest accepted command line */
+    static final int MAX_LINE = 64 * 1024;
+
+    /** Server (connection counter) */
+    private final NioServer server;
+    /** Event loop owning this connection */
+    private final NioServer.EventLoop loop;
+    /** Non-blocking channel */
+    private final SocketChannel channel;
+    /** Key of the channel in the loop's selector */
+    private final SelectionKey key;
+    /** Player ID assigned by the session */
+    private volatile int playerId;
+    /** Game session of this player, null before the lobby pairs it */
+    private volatile GameSession session;
+    /** Turns received lines into session calls (loop thread only) */
+    private final CommandDispatcher dispatcher;
+    /** Line being received (loop thread only) */
+    private final LineBuffer line = new LineBuffer();
+    /** Bytes not yet written to the channel, in fill mode (guarded by this) */
+    private ByteBuffer out = ByteBuffer.allocateDirect(INITIAL_WRITE_BUFFER);
+    /** Number of open batches; bytes are written only when it drops to 0 */
+    private int batchDepth = 0;
+    /** Whether the client applies BOARD_DELTA messages */
+    private volatile boolean deltas = false;
+    /** Whether nothing more may be sent (guarded by this) */
+    private boolean closed = false;
+    /** Whether {@link #close()} already ran (loop thread only) */
+    private boolean released = false;
+
+    NioConnection(NioServer server, NioServer.EventLoop loop, SocketChannel channel, SelectionKey key,
+                  GameSessionRegistry registry) {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.dispatcher = new CommandDispatcher(this, registry);
+    }
+
+    @Override
+    public int getPlayerId() { return playerId; }
+
+    @Override
+    public GameSession getSession() { return session; }
+
+    @Override
+    public void bind(int playerId, GameSession session) {
+        this.playerId = playerId;
+        this.session = session;
+    }
+
+    @Override
+    public void sendLine(String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        sendBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void sendBoard(BoardSnapshot snapshot) {
+        byte[] bytes = snapshot.getTextLine();
+        sendBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void sendEncoded(byte[] text, int textLen, byte[] frame, int frameLen) {
+        sendBytes(text, 0, textLen); // tylko protokol tekstowy
+    }
+
+    @Override
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    @Override
+    public synchronized void endBatch() {
+        if (batchDepth == 0) return;
+        if (--batchDepth == 0) flush();
+    }
+
+    @Override
+    public boolean wantsDeltas() { return deltas; }
+
+    @Override
+    public void enableDeltas() { deltas = true; }
+
+    /**
+     * PROTO BINARY and COMPRESS need a stream transport; this one answers with an error,
+     * so the client stays with plain text lines.
+     */
+    @Override
+    public void negotiate(String option) {
+        if (option.equals(StreamCompression.NEGOTIATE)) sendLine("ERROR Unsupported compression: DEFLATE");
+        else sendLine("ERROR Unsupported protocol: BINARY");
+    }
+
+    @Override
+    public synchronized int getQueuedBytes() {
+        return out.position();
+    }
+
+    /**
+     * This transport does not drop messages: a client with {@value #MAX_PENDING} bytes pending is disconnected.
+     *
+     * @return always 0
+     */
+    @Override
+    public long getDroppedCount() {
+        return 0;
+    }
+
+    /**
+     * Appends bytes to the write buffer and writes them unless a batch is open.
+     *
+     * @param buf source buffer
+     * @param off start offset
+     * @param len number of bytes
+     */
+    synchronized void sendBytes(byte[] buf, int off, int len) {
+        if (closed) return;
+        if (out.remaining() < len && !grow(len)) return;
+        out.put(buf, off, len);
+        if (batchDepth == 0) flush();
+    }
+
+    /**
+     * Replaces the write buffer with a bigger one.
+     *
+     * @param len bytes that must fit
+     * @return false if the client is too slow (the connection is being closed)
+     */
+    private boolean grow(int len) {
+        int needed = out.position() + len;
+        if (needed > MAX_PENDING) {
+            System.err.println("Client p" + playerId + " too slow, " + out.position() + " bytes pending. Disconnecting.");
+            closed = true;
+            loop.execute(this::close);
+            return false;
+        }
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.min(MAX_PENDING, Math.max(needed, out.capacity() * 2)));
+        out.flip();
+        bigger.put(out);
+        out = bigger;
+        return true;
+    }
+
+    /** Writes as much as the channel takes; the rest waits for OP_WRITE. */
+    private void flush() {
+        if (out.position() == 0) return;
+        out.flip();
+        try {
+            channel.write(out);
+        } catch (IOException e) {
+            System.err.println("Send failed to p" + playerId + ": " + e.getMessage());
+            out.clear();
+            closed = true;
+            loop.execute(this::close);
+            return;
+        }
+        out.compact();
+        if (out.position() > 0 && key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            loop.wakeup();
+        }
+    }
+
+    /** Channel is writable again (loop thread). */
+    synchronized void onWritable() {
+        flush();
+        if (out.position() == 0 && key.isValid()) key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Reads what arrived and handles every complete line (loop thread).
+     *
+     * @param readBuffer loop's shared read buffer
+     */
+    void onReadable(ByteBuffer readBuffer) {
+        readBuffer.clear();
+        int n;
+        try {
+            n = channel.read(readBuffer);
+        } catch (IOException e) {
+            System.err.println("Client " + playerId + " disconnected: " + e.getMessage());
+            close();
+            return;
+        }
+        if (n < 0) {
+            close();
+            return;
+        }
+        readBuffer.flip();
+        while (line.feed(readBuffer)) dispatcher.handleLine(line);
+        if (line.length() > MAX_LINE) {
+            sendLine("ERROR Line too long");
+            close();
+        }
+    }
+
+    /**
+     * Closes the channel and tells the session the player left (loop thread, once).
+     */
+    void close() {
+        if (released) return;
+        released = true;
+        synchronized (this) {
+            closed = true;
+        }
+        key.cancel();
+        try { channel.close(); } catch (IOException ignored) {}
+        server.connectionClosed();
+        try { dispatcher.disconnected(); } catch (Exception ignored) {}
+    }
+}
@@ -0,0 +1,212 @@
+package lab4.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Nieblokujacy transport serwera na {@link Selector}: stala liczba watkow petli zdarzen
+ * niezaleznie od liczby polaczen (zamiast watku {@link ClientHandler} na gracza).
+ * <p>
+ * Petla 0 przyjmuje tez polaczenia i rozdziela je po kolei na wszystkie petle.
+ * Kazde polaczenie ({@link NioConnection}) jest obslugiwane zawsze przez te sama petle;
+ * protokol to zwykle linie tekstu (bez PROTO BINARY i COMPRESS).
+ */
+public class NioServer implements Closeable {
+    /** Size of the direct read buffer shared by the connections of one loop */
+    static final int READ_BUFFER = 16 * 1024;
+
+    /** Registry assigning connections to game sessions */
+    private final GameSessionRegistry registry;
+    /** Listening channel */
+    private final ServerSocketChannel serverChannel;
+    /** Event loops (one thread each) */
+    private final EventLoop[] loops;
+    /** Number of open connections */
+    private final AtomicInteger connections = new AtomicInteger();
+    /** Round-robin index of the next loop for an accepted connection (accepting loop only) */
+    private int nextLoop = 0;
+    /** Cleared by {@link #close()} */
+    private volatile boolean running = true;
+
+    /**
+     * Opens the listening channel and the selectors; {@link #start()} starts the threads.
+     *
+     * @param registry registry assigning connections to sessions
+     * @param port port to listen on (0 = any free port)
+     * @param threads number of event loop threads
+     * @throws IOException if the channel or a selector cannot be opened
+     */
+    public NioServer(GameSessionRegistry registry, int port, int threads) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+        this.registry = registry;
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) loops[i] = new EventLoop(i);
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** Starts the event loop threads. */
+    public void start() {
+        for (EventLoop loop : loops) loop.thread.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return local port
+     * @throws IOException if the address cannot be read
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Returns the number of event loop threads (constant for the server's lifetime).
+     *
+     * @return thread count
+     */
+    public int getThreadCount() {
+        return loops.length;
+    }
+
+    /**
+     * Returns the number of open connections.
+     *
+     * @return connection count
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /** Called by a connection once when it is closed. */
+    void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    /** Stops the loops and closes the listening channel (open connections are closed by their loops). */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (EventLoop loop : loops) loop.selector.wakeup();
+        serverChannel.close();
+    }
+
+    /** Accepts all pending connections and hands each to the next loop. */
+    private void accept() {
+        while (true) {
+            SocketChannel ch;
+            try {
+                ch = serverChannel.accept();
+                if (ch == null) return;
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                System.err.println("Accept failed: " + e.getMessage());
+                return;
+            }
+            EventLoop target = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            target.execute(() -> target.register(ch));
+        }
+    }
+
+    /**
+     * One selector with its thread; runs tasks queued by other threads between selects.
+     */
+    final class EventLoop implements Runnable {
+        /** Selector of this loop */
+        final Selector selector;
+        /** Thread running this loop */
+        final Thread thread;
+        /** Tasks from other threads (new connections, closes) */
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        /** Read buffer shared by all connections of this loop (used only by its thread) */
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER);
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-loop-" + index);
+        }
+
+        /**
+         * Runs a task on this loop's thread.
+         *
+         * @param task task to run
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Wakes the selector so that changed interest sets are used.
+         */
+        void wakeup() {
+            selector.wakeup();
+        }
+
+        /**
+         * Registers an accepted channel and hands its connection to the lobby (loop thread).
+         *
+         * @param ch accepted channel
+         */
+        private void register(SocketChannel ch) {
+            try {
+                SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+                NioConnection conn = new NioConnection(NioServer.this, this, ch, key, registry);
+                key.attach(conn);
+                connections.incrementAndGet();
+                registry.assign(conn);
+            } catch (IOException e) {
+                System.err.println("Failed to register connection: " + e.getMessage());
+                try { ch.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    System.err.println("Select failed: " + e.getMessage());
+                    break;
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) task.run();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    NioConnection conn = (NioConnection) key.attachment();
+                    if (conn == null) continue;
+                    if (key.isReadable()) conn.onReadable(readBuffer);
+                    if (key.isValid() && key.isWritable()) conn.onWritable();
+                }
+            }
+            // zatrzymanie serwera: zamykamy polaczenia tej petli
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof NioConnection) ((NioConnection) key.attachment()).close();
+            }
+            try { selector.close(); } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package lab4.server;
+
+import lab4.common.BoardSnapshot;
+
+/**
+ * Polaczenie gracza widziane przez {@link GameSession}, niezalezne od transportu
+ * (blokujacy {@link ClientHandler} na watek albo {@link NioServer} z petla zdarzen).
+ * <p>
+ * Komendy od klienta dekoduje {@link CommandDispatcher}; implementacja dostarcza tylko
+ * wysylanie i opcje zalezne od transportu (PROTO, COMPRESS).
+ */
+public interface PlayerConnection {
+
+    /**
+     * Returns the player ID of this connection.
+     *
+     * @return 1 or 2, 0 before the connection joins a session
+     */
+    int getPlayerId();
+
+    /**
+     * Returns the game session of this connection.
+     *
+     * @return session, or null before the lobby pairs the connection
+     */
+    GameSession getSession();
+
+    /**
+     * Moves the connection to another session with a new player ID (QUEUE in the {@link Lobby}).
+     * Called by the session the player joins, before anything is sent there.
+     *
+     * @param playerId new player ID
+     * @param session new session
+     */
+    void bind(int playerId, GameSession session);
+
+    /**
+     * Sends a line of text (without the terminator).
+     *
+     * @param line text to send
+     */
+    void sendLine(String line);
+
+    /**
+     * Sends a full board using the snapshot's memoized encoding for this connection's protocol.
+     *
+     * @param snapshot published board snapshot
+     */
+    void sendBoard(BoardSnapshot snapshot);
+
+    /**
+     * Sends a message encoded for both protocols; the variant matching this connection is written.
+     * The bytes are copied before this method returns.
+     *
+     * @param text text line bytes
+     * @param textLen length of the text line
+     * @param frame binary frame bytes
+     * @param frameLen length of the frame
+     */
+    void sendEncoded(byte[] text, int textLen, byte[] frame, int frameLen);
+
+    /**
+     * Opens a batch: following messages are sent together at the matching {@link #endBatch()}.
+     * Batches may be nested.
+     */
+    void beginBatch();
+
+    /**
+     * Closes a batch; the outermost one sends everything buffered at once.
+     */
+    void endBatch();
+
+    /**
+     * Returns whether the client asked for BOARD_DELTA messages.
+     *
+     * @return true after the DELTAS command
+     */
+    boolean wantsDeltas();
+
+    /**
+     * Marks that the client applies BOARD_DELTA messages (DELTAS command).
+     */
+    void enableDeltas();
+
+    /**
+     * Handles a transport option requested by the client; the dispatcher has already
+     * recognized the argument. The connection answers itself: acknowledgement or ERROR
+     * (e.g. the transport cannot do it, or the order of options is wrong).
+     *
+     * @param option {@link lab4.common.BinaryProtocol#NEGOTIATE} or {@link lab4.common.StreamCompression#NEGOTIATE}
+     */
+    void negotiate(String option);
+
+    /**
+     * Returns the number of bytes waiting to be written to the client (monitoring).
+     *
+     * @return queued bytes
+     */
+    int getQueuedBytes();
+
+    /**
+     * Returns the number of messages dropped because the client did not keep up.
+     *
+     * @return dropped message count
+     */
+    long getDroppedCount();
+}
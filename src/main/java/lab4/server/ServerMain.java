@@ -1,5 +1,6 @@
 package lab4.server;
 
+import lab4.common.TaskThreads;
 import lab4.database.GameRepository;
 import lab4.database.MoveRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,9 +16,11 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * Server: listens for connections and delegates them to GameSession.
+ * Server: listens for connections and delegates them to game sessions ({@link GameSessionRegistry}).
  * Uruchamiany przez Spring Boot.
  */
 @SpringBootApplication
@@ -41,43 +44,40 @@ public class ServerMain implements CommandLineRunner
     public void run(String... args) throws Exception {
         final int port = 55555;
         final int boardSize = 19; //tu bedzie mozna zmienic rozmiar planszy
+        final boolean positionalSuperko = false; //true -> zadna pozycja w grze nie moze sie powtorzyc (zamiast prostego KO)
+
+        if (Arrays.asList(args).contains("--virtual")) TaskThreads.configure(TaskThreads.Mode.VIRTUAL);
+        TaskThreads threads = TaskThreads.shared();
+        if (Arrays.asList(args).contains("--disconnect-slow")) {
+            // zamiast wyrzucac stare plansze z kolejki, od razu rozlaczamy klienta, ktory nie nadaza
+            ClientHandler.setDefaultPolicy(ClientHandler.OverflowPolicy.DISCONNECT);
+        }
+        int bots = 0;
 
         System.out.println("Server starting on port " + port + " (board " + boardSize + "x" + boardSize + ")");
 
-        // Inicjalizacja Singletona z repozytoriami
-        GameSession session = GameSession.getInstance(boardSize);
-        session.setRepositories(gameRepository, moveRepository);
+        // Rejestr sesji: kazda para graczy dostaje wlasna gre (wlasna plansza i wpis w bazie)
+        GameSessionRegistry registry = new GameSessionRegistry(boardSize, positionalSuperko, gameRepository, moveRepository);
 
-        // Osobny wątek do nasłuchiwania graczy w pętli nieskończonej
-        new Thread(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(port))
-            {
-                System.out.println("Waiting for players...");
-
-                while (true) // Petla nieskonczona - serwer dziala caly czas
-                {
-                    try {
-                        Socket client = serverSocket.accept();
-                        // Delegujemy dodanie gracza do GameSession
-                        // To GameSession decyduje czy przyjąć (czy jest miejsce) i kiedy zacząć grę.
-                        // zmieniam to dlatego, zeby moc obslugiwac wiele gier z rzedu !!!!
-                        GameSession.getInstance().tryAddPlayer(client);
-                    } catch (IOException e) {
-                        System.err.println("Accept failed: " + e.getMessage());
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }).start();
+        if (Arrays.asList(args).contains("--nio")) {
+            // nieblokujacy transport: stala liczba watkow petli zdarzen zamiast watku na gracza
+            int loops = Runtime.getRuntime().availableProcessors();
+            NioServer nio = new NioServer(registry, port, loops);
+            nio.start();
+            System.out.println("NIO transport with " + loops + " event loop thread(s). Waiting for players...");
+        } else {
+            startBlockingAcceptor(registry, port);
+        }
 
         // Menu konsolowe serwera
         BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
         System.out.println("=== SERVER CONSOLE ===");
         System.out.println("Commands:");
         System.out.println("  bot       -> Add a bot player");
-        System.out.println("  replay ID -> Replay game with ID");
-        System.out.println("  reset     -> Force reset session");
+        System.out.println("  games     -> List running sessions");
+        System.out.println("  threads   -> Show connection/bot threads");
+        System.out.println("  replay ID -> Replay game with ID (to the player waiting for an opponent)");
+        System.out.println("  reset     -> Force reset all sessions");
         System.out.println("  exit      -> Stop server");
 
         while (true) {
@@ -90,19 +90,70 @@ public class ServerMain implements CommandLineRunner
             }
             else if (cmd.equalsIgnoreCase("bot")) {
                 System.out.println("Starting bot...");
-                new Thread(new SimpleBot()).start();
+                threads.start("bot-" + (++bots), new SimpleBot());
+            }
+            else if (cmd.equalsIgnoreCase("games")) {
+                for (GameSession s : registry.getSessions()) {
+                    System.out.println("  game " + s.getId() + " (" + s.getBoardSize() + "x" + s.getBoardSize() + "): " + s.getPlayerCount() + " player(s), "
+                            + s.getSpectatorCount() + " spectator(s), "
+                            + s.getQueuedCommands() + " queued command(s), "
+                            + s.getQueuedOutboundBytes() + " B to send, " + s.getDroppedOutbound() + " dropped");
+                }
+                System.out.println(registry.size() + " session(s), "
+                        + registry.getLobby().getWaitingCount() + " player(s) waiting in lobby");
+            }
+            else if (cmd.equalsIgnoreCase("threads")) {
+                System.out.println("Mode: " + threads.getMode() + ", running: " + threads.getRunningCount()
+                        + ", started: " + threads.getStartedCount());
+                for (String name : threads.getThreadNames()) System.out.println("  " + name);
             }
             else if (cmd.equalsIgnoreCase("reset")) {
-                GameSession.getInstance().reset();
+                for (GameSession s : registry.getSessions()) {
+                    List<PlayerConnection> players = s.reset();
+                    registry.remove(s);
+                    for (PlayerConnection p : players) registry.assign(p); // gracze wracaja do poczekalni, nie zostaja bez sesji
+                }
             }
             else if (cmd.toLowerCase().startsWith("replay ")) {
                 try {
                     long id = Long.parseLong(cmd.split(" ")[1]);
-                    GameSession.getInstance().replayGameFromDb(id);
+                    GameSession waiting = registry.getOpenSession();
+                    if (waiting == null) System.out.println("No player waiting for an opponent, cant show replay");
+                    else waiting.replayGameFromDb(id);
                 } catch (Exception e) {
                     System.out.println("Invalid replay format. Use: replay <ID>");
                 }
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Starts the classic transport: one accept thread and one thread per player ({@link ClientHandler}).
+     *
+     * @param registry registry assigning connections to sessions
+     * @param port port to listen on
+     */
+    private static void startBlockingAcceptor(GameSessionRegistry registry, int port) {
+        // Osobny wątek do nasłuchiwania graczy w pętli nieskończonej
+        new Thread(() -> {
+            try (ServerSocket serverSocket = new ServerSocket(port))
+            {
+                System.out.println("Waiting for players...");
+
+                while (true) // Petla nieskonczona - serwer dziala caly czas
+                {
+                    try {
+                        Socket client = serverSocket.accept();
+                        // Rejestr dokłada gracza do sesji czekającej na przeciwnika albo tworzy nową;
+                        // GameSession startuje grę, gdy ma dwóch graczy
+                        registry.assign(client);
+                    } catch (IOException e) {
+                        System.err.println("Accept failed: " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "accept").start();
+    }
+}
@@ -1,8 +1,10 @@
 package lab4.server;
 
 import lab4.common.Board;
+import lab4.common.BoardDelta;
 import lab4.common.JsonUtil;
 import lab4.common.Move;
+import lab4.common.PackedBoard;
 
 import java.io.*;
 import java.net.Socket;
@@ -19,8 +21,16 @@ public class SimpleBot implements Runnable {
     private final Random random = new Random();
 
     private Board currentBoard;
-    // Zapamiętujemy planszę sprzed ruchu przeciwnika, aby wykryć KO
-    private int[][] gridBeforeOpponentMove = null;
+    // Plansza do dekodowania kolejnego BOARD (zamieniana z currentBoard)
+    private Board spareBoard;
+    // Zapamiętujemy hash planszy sprzed ruchu przeciwnika, aby wykryć KO
+    private long hashBeforeOpponentMove = 0;
+    private boolean hasPositionBeforeOpponentMove = false;
+    // Sama pozycja - porownywana tylko gdy hashe sa rowne (ochrona przed kolizja)
+    private PackedBoard positionBeforeOpponentMove;
+    // Wersja currentBoard (z BOARD / BOARD_DELTA), -1 gdy nieznana
+    private long boardVersion = -1;
+    private boolean syncRequested = false;
 
     private int myId;
 
@@ -32,9 +42,16 @@ public class SimpleBot implements Runnable {
 
             String line;
             boolean connectionConfirmed = false;
+            out.println("DELTAS"); // po ruchach dostajemy tylko zmiany planszy
+            out.println("QUEUE"); // od razu do domyslnej kolejki, bez czekania az serwer nas tam wstawi
 
             while ((line = in.readLine()) != null) {
 
+                // serwer bez delt odrzuca DELTAS - to nie odmowa polaczenia, dalej dostajemy cale plansze;
+                // starszy serwer paruje od razu i nie zna QUEUE
+                if (line.startsWith("ERROR Unknown command: [DELTAS]")) continue;
+                if (line.startsWith("ERROR Unknown command: [QUEUE]")) continue;
+
                 // --- Logika połączenia ---
                 if (!connectionConfirmed) {
                     if (line.startsWith("ERROR")) {
@@ -55,15 +72,36 @@ public class SimpleBot implements Runnable {
                     try {
                         // Zanim zaktualizujemy currentBoard o ruch przeciwnika,
                         // zapisujemy jej obecny stan jako "historię" dla reguły KO.
-                        if (currentBoard != null) {
-                            gridBeforeOpponentMove = currentBoard.getGridCopy();
-                        }
-
-                        currentBoard = JsonUtil.jsonToBoard(line.substring(6).trim());
+                        if (currentBoard != null) rememberPositionBeforeOpponentMove();
+
+                        // dekodujemy do zapasowej planszy; podmiana dopiero po udanym dekodowaniu,
+                        // zeby blad w polowie nie zostawil w currentBoard pol z dwoch pozycji
+                        int size = JsonUtil.peekBoardSize(line, 6);
+                        if (spareBoard == null || spareBoard.size != size) spareBoard = new Board(size);
+                        boardVersion = JsonUtil.decodeBoard(line, 6, spareBoard);
+                        Board previous = currentBoard;
+                        currentBoard = spareBoard;
+                        spareBoard = previous; // stara plansza posluzy przy nastepnym BOARD
+                        syncRequested = false;
                     } catch (Exception e) {
                         System.err.println("[BOT] Parse error: " + e.getMessage());
                     }
                 }
+                else if (line.startsWith("BOARD_DELTA ")) {
+                    try {
+                        BoardDelta d = JsonUtil.decodeDelta(line, 12);
+                        if (currentBoard != null && boardVersion >= 0 && d.version == boardVersion + 1) {
+                            rememberPositionBeforeOpponentMove(); // jak przy BOARD: historia dla KO
+                            d.applyTo(currentBoard); // play() na planszy, bez przebudowy lancuchow
+                            boardVersion = d.version;
+                        } else if (d.version > boardVersion && !syncRequested) {
+                            syncRequested = true; // zgubiona zmiana -> prosimy o cala plansze
+                            out.println("SYNC");
+                        }
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("[BOT] Parse error: " + e.getMessage());
+                    }
+                }
                 else if (line.equals("YOUR_TURN")) {
                     makeMove(out);
                 }
@@ -95,27 +133,25 @@ public class SimpleBot implements Runnable {
         int bestC = -1;
         int maxScore = -10000;
 
-        // Robimy kopię planszy, żeby móc na niej "brudzić" testując ruchy
-        int[][] originalGrid = currentBoard.getGridCopy();
-
         // Przeglądamy każde pole planszy
         for (int r = 0; r < size; r++) {
             for (int c = 0; c < size; c++) {
                 // Interesują nas tylko puste pola
-                if (currentBoard.grid[r][c] != 0) continue;
+                if (currentBoard.get(r, c) != 0) continue;
 
                 // --- SYMULACJA RUCHU ---
-                currentBoard.setGridFromCopy(originalGrid); // Reset przed testem
-
-                // Wykonujemy próbny ruch na obiekcie Board
-                int captureResult = currentBoard.applyMoveAndCapture(r, c, myId);
+                // Próbny ruch na obiekcie Board (play), potem cofamy go (undo) - bez kopiowania planszy
+                int captureResult = currentBoard.play(r, c, myId);
 
                 // 1. Sprawdzenie legalności podstawowej (zajęte/poza planszą/samobójstwo)
                 if (captureResult < 0) continue;
 
                 // 2. SPRAWDZENIE KO
                 // Jeśli wynikowa plansza jest identyczna jak ta sprzed ruchu przeciwnika -> KO -> Zabronione
-                if (gridBeforeOpponentMove != null && Board.gridsEqual(currentBoard.grid, gridBeforeOpponentMove)) {
+                boolean ko = hasPositionBeforeOpponentMove && currentBoard.getHash() == hashBeforeOpponentMove
+                        && PackedBoard.of(currentBoard).equals(positionBeforeOpponentMove);
+                currentBoard.undo();
+                if (ko) {
                     // To jest sytuacja KO
                     continue;
                 }
@@ -124,8 +160,6 @@ public class SimpleBot implements Runnable {
 
                 // A. Jeśli ruch coś zbija -> PRIORYTET ABSOLUTNY
                 if (captureResult > 0) {
-                    // Przywracamy planszę do stanu faktycznego przed wysłaniem ruchu
-                    currentBoard.setGridFromCopy(originalGrid);
                     sendMove(out, r, c);
                     return; // Kończymy szukanie, gramy od razu
                 }
@@ -141,7 +175,7 @@ public class SimpleBot implements Runnable {
                     int nr = r + d[0];
                     int nc = c + d[1];
                     if (nr >= 0 && nr < size && nc >= 0 && nc < size) {
-                        int neighbor = originalGrid[nr][nc];
+                        int neighbor = currentBoard.get(nr, nc);
                         if (neighbor != 0) {
                             hasNeighbor = true;
                             if (neighbor == myId) {
@@ -170,9 +204,6 @@ public class SimpleBot implements Runnable {
             }
         }
 
-        // Przywracamy planszę po wszystkich symulacjach
-        currentBoard.setGridFromCopy(originalGrid);
-
         // Wykonujemy najlepszy ruch
         if (bestR != -1) {
             sendMove(out, bestR, bestC);
@@ -182,6 +213,12 @@ public class SimpleBot implements Runnable {
         }
     }
 
+    private void rememberPositionBeforeOpponentMove() {
+        hashBeforeOpponentMove = currentBoard.getHash();
+        positionBeforeOpponentMove = PackedBoard.of(currentBoard);
+        hasPositionBeforeOpponentMove = true;
+    }
+
     private boolean isEdge(int coord, int size) {
         return coord == 0 || coord == size - 1;
     }
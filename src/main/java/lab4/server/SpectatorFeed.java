@@ -0,0 +1,111 @@
+package lab4.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lab4.common.BinaryProtocol;
+import lab4.common.Board;
+import lab4.common.BoardSnapshot;
+import lab4.common.SerialExecutor;
+
+/**
+ * Widzowie jednej gry (komenda WATCH): dostaja plansze i komunikaty gry, ale nie graja.
+ * <p>
+ * Sesja oddaje tu tylko gotowe bajty - obraz planszy koduje sie raz na wersje w {@link BoardSnapshot},
+ * linie INFO/GAME_OVER raz na wiadomosc - a petla po widzach dziala w osobnej skrzynce
+ * ({@link SerialExecutor}), nie pod blokada sesji. Dodanie widza idzie ta sama skrzynka, wiec
+ * spozniony widz dostaje od razu aktualna plansze, a potem wszystko, co nowsze. Dlatego kazda
+ * wiadomosc trafia do skrzynki, nawet gdy na razie nikt nie patrzy: widz, ktorego dodanie jeszcze
+ * czeka w skrzynce, dostanie tez wszystko wyslane po nim (np. GAME_OVER).
+ */
+final class SpectatorFeed {
+    /** Game being watched */
+    private final long gameId;
+    /** Board of the game (only its published snapshot is read) */
+    private final Board board;
+    /** Runs additions, removals and fan-outs in order */
+    private final SerialExecutor fanout;
+    /** Current spectators (fan-out mailbox only) */
+    private final Set<PlayerConnection> spectators = new LinkedHashSet<>();
+    /** Number of spectators, readable from any thread */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Creates the feed of one game.
+     *
+     * @param gameId id of the game
+     * @param board board of the game
+     * @param pool threads running the fan-out mailbox
+     */
+    SpectatorFeed(long gameId, Board board, Executor pool) {
+        this.gameId = gameId;
+        this.board = board;
+        this.fanout = new SerialExecutor(pool);
+    }
+
+    /**
+     * Adds a spectator; it gets the current board before any later message.
+     *
+     * @param c spectator connection
+     */
+    void add(PlayerConnection c) {
+        fanout.execute(() -> {
+            if (spectators.add(c)) count.incrementAndGet();
+            c.beginBatch();
+            try {
+                c.sendLine("INFO Watching game " + gameId);
+                c.sendBoard(board.getSnapshot()); // najnowsza opublikowana wersja, zwykle juz zakodowana
+            } finally {
+                c.endBatch();
+            }
+        });
+    }
+
+    /**
+     * Removes a spectator (WATCH of another game or disconnect).
+     *
+     * @param c spectator connection
+     */
+    void remove(PlayerConnection c) {
+        fanout.execute(() -> {
+            if (spectators.remove(c)) count.decrementAndGet();
+        });
+    }
+
+    /**
+     * Sends a published board to all spectators.
+     *
+     * @param snapshot board snapshot (its encodings are shared by all receivers)
+     */
+    void publishBoard(BoardSnapshot snapshot) {
+        fanout.execute(() -> {
+            for (PlayerConnection c : spectators) c.sendBoard(snapshot);
+        });
+    }
+
+    /**
+     * Sends a message line to all spectators, encoded once for both protocols.
+     *
+     * @param line text line without the terminator
+     */
+    void publishLine(String line) {
+        fanout.execute(() -> {
+            if (spectators.isEmpty()) return; // zwykle nikt nie patrzy - bez kodowania
+            byte[] text = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            byte[] frame = BinaryProtocol.encodeLine(line);
+            for (PlayerConnection c : spectators) c.sendEncoded(text, text.length, frame, frame.length);
+        });
+    }
+
+    /**
+     * Returns the number of spectators.
+     *
+     * @return spectator count
+     */
+    int size() {
+        return count.get();
+    }
+}
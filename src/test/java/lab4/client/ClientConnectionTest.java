@@ -0,0 +1,78 @@
+package lab4.client;
+
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import lab4.common.Board;
+import lab4.common.BoardDelta;
+import lab4.common.JsonUtil;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientConnectionTest {
+
+    /** Zapamietuje plansze i bledy; konczy na GAME_OVER. */
+    private static final class Recorder implements ClientConnection.MessageHandler {
+        final List<Board> boards = new CopyOnWriteArrayList<>();
+        final List<String> errors = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override public void onStart(int myId) {}
+        @Override public void onBoard(Board b) { boards.add(b); }
+        @Override public void onBoardDelta(BoardDelta d) {}
+        @Override public void onYourTurn() {}
+        @Override public void onOpponentTurn() {}
+        @Override public void onInfo(String msg) {}
+        @Override public void onError(String msg) { errors.add(msg); }
+        @Override public void onGameOver(String msg) { done.countDown(); }
+        @Override public void onDisconnect() { done.countDown(); }
+        @Override public void onUnknown(String line) {}
+        @Override public void onstoppedForAgreement() {}
+        @Override public void offstoppedForAgreement() {}
+        @Override public void wynikiPierwszego(int a) {}
+        @Override public void wynikiDrugiego(int a) {}
+    }
+
+    @Test
+    void testOldServerAndBrokenBoard() throws Exception {
+        Board first = new Board(9);
+        first.play(2, 3, 1);
+        Board second = new Board(9);
+        second.play(4, 4, 2);
+        String good = JsonUtil.boardToJson(first);
+
+        try (ServerSocket server = new ServerSocket(0)) {
+            ClientConnection conn = new ClientConnection("localhost", server.getLocalPort());
+            try (Socket s = server.accept();
+                 PrintWriter out = new PrintWriter(s.getOutputStream(), true, StandardCharsets.UTF_8)) {
+                Recorder handler = new Recorder();
+                conn.startListening(handler);
+                // serwer bez delt, potem plansza, plansza uciata w polowie i kolejna plansza
+                out.println("ERROR Unknown command: [DELTAS]");
+                out.println("BOARD " + good);
+                out.println("BOARD " + good.substring(0, good.length() / 2));
+                out.println("BOARD " + JsonUtil.boardToJson(second));
+                out.println("ERROR Not your turn");
+                out.println("GAME_OVER");
+                assertTrue(handler.done.await(5, TimeUnit.SECONDS));
+
+                assertEquals(List.of("Not your turn"), handler.errors, "Odrzucenie DELTAS nie trafia do handlera");
+                assertEquals(2, handler.boards.size(), "Zepsuta plansza nie trafia do handlera");
+                assertNotSame(handler.boards.get(0), handler.boards.get(1), "Kazda plansza to nowy obiekt");
+                assertEquals(1, handler.boards.get(0).get(2, 3), "Pierwsza plansza nie zmieniona przez kolejne");
+                assertEquals(0, handler.boards.get(0).get(4, 4));
+                assertEquals(2, handler.boards.get(1).get(4, 4));
+                assertEquals(0, handler.boards.get(1).get(2, 3));
+            } finally {
+                conn.close();
+            }
+        }
+    }
+}
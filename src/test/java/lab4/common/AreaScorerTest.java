@@ -0,0 +1,54 @@
+package lab4.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AreaScorerTest {
+
+    @Test
+    void testEmptyBoardIsNeutral() {
+        AreaScorer scorer = new AreaScorer(5);
+        assertEquals(0, scorer.score(new Board(5), null));
+        assertEquals(25, scorer.getNeutral());
+        assertEquals(0, scorer.getArea(1));
+    }
+
+    @Test
+    void testBoardSplitByWall() {
+        Board b = new Board(5);
+        // kolumna 1 gracza 1, kolumna 2 gracza 2 -> lewo dla 1, prawo dla 2
+        for (int r = 0; r < 5; r++) {
+            b.set(r, 1, 1);
+            b.set(r, 2, 2);
+        }
+        AreaScorer scorer = new AreaScorer(5);
+        int diff = scorer.score(b, null);
+
+        assertEquals(5, scorer.getStones(1));
+        assertEquals(5, scorer.getTerritory(1));
+        assertEquals(10, scorer.getTerritory(2));
+        assertEquals(10, scorer.getArea(1));
+        assertEquals(15, scorer.getArea(2));
+        assertEquals(-5, diff);
+        assertEquals(0, scorer.getNeutral());
+    }
+
+    @Test
+    void testDeadStonesCountForOpponent() {
+        Board b = new Board(5);
+        for (int r = 0; r < 5; r++) b.set(r, 2, 1);
+        b.set(2, 4, 2); // samotny kamien na terenie gracza 1
+
+        AreaScorer scorer = new AreaScorer(5);
+        scorer.score(b, null);
+        assertEquals(10, scorer.getTerritory(1), "Bez oznaczenia prawa strona jest sporna");
+        assertEquals(9, scorer.getNeutral());
+
+        boolean[] dead = new boolean[25];
+        dead[2 * 5 + 4] = true;
+        assertEquals(25, scorer.score(b, dead), "Martwy kamien: cala plansza nalezy do gracza 1");
+        assertEquals(0, scorer.getStones(2));
+        assertThrows(IllegalArgumentException.class, () -> scorer.score(new Board(9), null));
+    }
+}
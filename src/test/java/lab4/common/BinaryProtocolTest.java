@@ -0,0 +1,83 @@
+package lab4.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryProtocolTest {
+
+    @Test
+    void testBoardFrameRoundtrip() throws Exception {
+        Board b = new Board(19);
+        b.applyMoveAndCapture(0, 0, 1);
+        b.applyMoveAndCapture(18, 18, 2);
+        b.applyMoveAndCapture(9, 10, 1);
+        byte[] buf = new byte[BinaryProtocol.boardFrameLength(19)];
+        int len = BinaryProtocol.writeBoardFrame(b.publish(), buf);
+        assertEquals(103, len, "Plansza 19x19 to 103 bajty");
+
+        byte[] body = new byte[BinaryProtocol.MAX_FRAME];
+        int bodyLen = BinaryProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(buf, 0, len)), body);
+        assertEquals(BinaryProtocol.BOARD, body[0]);
+        Board decoded = BinaryProtocol.readBoard(body, bodyLen);
+        assertTrue(Board.gridsEqual(b.getGridCopy(), decoded.getGridCopy()));
+    }
+
+    @Test
+    void testDeltaFrameRoundtrip() throws Exception {
+        BoardDelta d = new BoardDelta(1L << 40, 18, 17, 2, new int[] {0, 360});
+        byte[] f = BinaryProtocol.deltaFrame(d);
+        byte[] body = new byte[BinaryProtocol.MAX_FRAME];
+        int len = BinaryProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(f)), body);
+        BoardDelta back = BinaryProtocol.readDelta(body, len);
+        assertEquals(d.version, back.version);
+        assertEquals(18, back.row);
+        assertEquals(17, back.col);
+        assertEquals(2, back.player);
+        assertArrayEquals(d.removed, back.removed);
+    }
+
+    @Test
+    void testServerLinesGetOpcodes() {
+        assertArrayEquals(BinaryProtocol.frame(BinaryProtocol.YOUR_TURN), BinaryProtocol.encodeLine("YOUR_TURN"));
+        byte[] start = BinaryProtocol.encodeLine("START 2");
+        assertEquals(BinaryProtocol.START, start[2]);
+        assertEquals(2, start[3]);
+
+        byte[] wyniki = BinaryProtocol.encodeLine("WYNIKI2 300");
+        assertEquals(BinaryProtocol.WYNIKI2, wyniki[2]);
+        assertEquals(300, BinaryProtocol.readInt(Arrays.copyOfRange(wyniki, 2, wyniki.length)));
+
+        byte[] info = BinaryProtocol.encodeLine("INFO Zażółć");
+        assertEquals(BinaryProtocol.INFO, info[2]);
+        assertEquals("Zażółć", BinaryProtocol.readText(Arrays.copyOfRange(info, 2, info.length), info.length - 2));
+    }
+
+    @Test
+    void testClientCommands() {
+        assertArrayEquals(BinaryProtocol.moveFrame(3, 4), BinaryProtocol.encodeCommand("MOVE {\"row\":3,\"col\":4,\"player\":1}"));
+        assertArrayEquals(BinaryProtocol.frame(BinaryProtocol.PASS), BinaryProtocol.encodeCommand(" pass "));
+        assertEquals(BinaryProtocol.TEXT, BinaryProtocol.encodeCommand("HELLO")[2], "Nieznana komenda idzie jako tekst");
+    }
+
+    @Test
+    void testReadLineLeavesFramesUnread() throws Exception {
+        byte[] ack = (BinaryProtocol.NEGOTIATE + "\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] pass = BinaryProtocol.frame(BinaryProtocol.PASS);
+        byte[] all = new byte[ack.length + pass.length];
+        System.arraycopy(ack, 0, all, 0, ack.length);
+        System.arraycopy(pass, 0, all, ack.length, pass.length);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(all));
+        assertEquals(BinaryProtocol.NEGOTIATE, BinaryProtocol.readLine(in));
+        byte[] body = new byte[BinaryProtocol.MAX_FRAME];
+        assertEquals(1, BinaryProtocol.readFrame(in, body), "Ramka po linii nie jest zjedzona");
+        assertEquals(BinaryProtocol.PASS, body[0]);
+        assertEquals(-1, BinaryProtocol.readFrame(in, body));
+    }
+}
@@ -0,0 +1,156 @@
+package lab4.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Porownanie BitBoard i Board z pierwotnymi regulami (flood fill na int[][]) na losowych partiach.
+ */
+class BitBoardTest {
+
+    /**
+     * Pierwotna implementacja regul: po postawieniu kamienia przeszukiwanie grup
+     * sasiadow i wlasnej grupy w poszukiwaniu oddechow. Wolna, ale oczywiscie poprawna.
+     */
+    private static final class ReferenceBoard {
+        final int size;
+        final int[][] grid;
+
+        ReferenceBoard(int size) {
+            this.size = size;
+            this.grid = new int[size][size];
+        }
+
+        boolean inBounds(int r, int c) {
+            return r >= 0 && c >= 0 && r < size && c < size;
+        }
+
+        int applyMoveAndCapture(int r, int c, int player) {
+            if (!inBounds(r, c) || grid[r][c] != 0) return -1;
+            grid[r][c] = player;
+            int enemy = (player == 1 ? 2 : 1);
+            int captured = 0;
+            int[][] dirs = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+            for (int[] d : dirs) {
+                int nr = r + d[0], nc = c + d[1];
+                if (inBounds(nr, nc) && grid[nr][nc] == enemy && !hasLiberties(nr, nc)) captured += removeGroup(nr, nc);
+            }
+            if (captured == 0 && !hasLiberties(r, c)) {
+                grid[r][c] = 0; // samobojstwo
+                return -2;
+            }
+            return captured;
+        }
+
+        boolean hasLiberties(int r, int c) {
+            boolean[][] visited = new boolean[size][size];
+            ArrayDeque<int[]> st = new ArrayDeque<>();
+            st.push(new int[]{r, c});
+            visited[r][c] = true;
+            while (!st.isEmpty()) {
+                int[] p = st.pop();
+                for (int[] d : new int[][]{{1, 0}, {-1, 0}, {0, 1}, {0, -1}}) {
+                    int nr = p[0] + d[0], nc = p[1] + d[1];
+                    if (!inBounds(nr, nc)) continue;
+                    if (grid[nr][nc] == 0) return true;
+                    if (!visited[nr][nc] && grid[nr][nc] == grid[r][c]) {
+                        visited[nr][nc] = true;
+                        st.push(new int[]{nr, nc});
+                    }
+                }
+            }
+            return false;
+        }
+
+        int removeGroup(int r, int c) {
+            int color = grid[r][c];
+            int removed = 0;
+            ArrayDeque<int[]> st = new ArrayDeque<>();
+            st.push(new int[]{r, c});
+            grid[r][c] = 0;
+            while (!st.isEmpty()) {
+                int[] p = st.pop();
+                removed++;
+                for (int[] d : new int[][]{{1, 0}, {-1, 0}, {0, 1}, {0, -1}}) {
+                    int nr = p[0] + d[0], nc = p[1] + d[1];
+                    if (inBounds(nr, nc) && grid[nr][nc] == color) {
+                        grid[nr][nc] = 0;
+                        st.push(new int[]{nr, nc});
+                    }
+                }
+            }
+            return removed;
+        }
+    }
+
+    @Test
+    void testRandomGamesMatchReferenceRules() {
+        Random random = new Random(42);
+        for (int size : new int[]{3, 5, 9, 13, 19}) {
+            for (int game = 0; game < 20; game++) {
+                ReferenceBoard ref = new ReferenceBoard(size);
+                GoBoard[] boards = {new Board(size), new BitBoard(size)};
+                int player = 1;
+                for (int move = 0; move < size * size * 3; move++) {
+                    int r = random.nextInt(size + 2) - 1; // czasem poza plansza
+                    int c = random.nextInt(size + 2) - 1;
+                    int expected = ref.applyMoveAndCapture(r, c, player);
+                    for (GoBoard b : boards) {
+                        String name = b.getClass().getSimpleName();
+                        assertEquals(expected, b.applyMoveAndCapture(r, c, player), name + ": wynik ruchu (" + r + "," + c + ") na planszy " + size);
+                        assertTrue(Board.gridsEqual(ref.grid, b.getGridCopy()), name + ": rozna plansza po ruchu na planszy " + size);
+                    }
+                    if (expected >= 0) player = (player == 1 ? 2 : 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testRandomPositionsMatchReferenceRules() {
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            int size = 2 + random.nextInt(18);
+            ReferenceBoard ref = new ReferenceBoard(size);
+            for (int r = 0; r < size; r++)
+                for (int c = 0; c < size; c++)
+                    ref.grid[r][c] = random.nextInt(3);
+            // pozycja losowa moze miec grupy bez oddechow - tak jak po setGridFromCopy
+
+            GoBoard[] boards = {new Board(size), new BitBoard(size)};
+            for (GoBoard b : boards) b.setGridFromCopy(ref.grid);
+
+            int r = random.nextInt(size), c = random.nextInt(size), player = 1 + random.nextInt(2);
+            boolean empty = ref.grid[r][c] == 0;
+            int expected = ref.applyMoveAndCapture(r, c, player);
+            for (GoBoard b : boards) {
+                assertEquals(empty, b.isEmpty(r, c));
+                assertEquals(expected, b.applyMoveAndCapture(r, c, player), b.getClass().getSimpleName());
+                assertTrue(Board.gridsEqual(ref.grid, b.getGridCopy()), b.getClass().getSimpleName());
+            }
+        }
+    }
+
+    @Test
+    void testConversionAndClear() {
+        Board b = new Board(6);
+        b.set(0, 5, 1);
+        b.set(5, 0, 2);
+        BitBoard bb = BitBoard.fromBoard(b);
+        assertEquals(1, bb.get(0, 5));
+        assertEquals(2, bb.get(5, 0));
+        assertEquals(b.toString(), bb.toString());
+        assertEquals(JsonUtil.boardToJson(b), JsonUtil.boardToJson(bb));
+        assertEquals(new AreaScorer(6).score(b, null), new AreaScorer(6).score(bb, null), "Ten sam wynik dla obu plansz");
+
+        bb.set(0, 5, 0);
+        assertTrue(bb.isEmpty(0, 5));
+        bb.clear();
+        assertTrue(Board.gridsEqual(new int[6][6], bb.getGridCopy()));
+        assertThrows(IllegalArgumentException.class, () -> new BitBoard(64));
+    }
+}
@@ -0,0 +1,40 @@
+package lab4.common;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoardLineEncoderTest {
+
+    @Test
+    void testSameBytesAsJsonUtil() {
+        Board b = new Board(9);
+        b.applyMoveAndCapture(0, 0, 1);
+        b.applyMoveAndCapture(4, 5, 2);
+        b.applyMoveAndCapture(8, 8, 1);
+        BoardSnapshot snap = b.publish();
+
+        BoardLineEncoder enc = new BoardLineEncoder();
+        int len = enc.encode(snap);
+        String expected = "BOARD " + JsonUtil.boardToJson(snap) + "\n";
+        assertEquals(expected, new String(enc.getBuffer(), 0, len, StandardCharsets.UTF_8));
+        assertEquals(len, enc.getLength());
+    }
+
+    @Test
+    void testBufferReusedAcrossSizes() {
+        BoardLineEncoder enc = new BoardLineEncoder();
+        Board big = new Board(19);
+        big.applyMoveAndCapture(18, 0, 2);
+        enc.encode(big.publish());
+        byte[] first = enc.getBuffer();
+
+        Board small = new Board(5);
+        int len = enc.encode(small.publish());
+        assertSame(first, enc.getBuffer(), "Mniejsza plansza nie alokuje nowego bufora");
+        assertEquals("BOARD " + JsonUtil.boardToJson(small.getSnapshot()) + "\n",
+                new String(enc.getBuffer(), 0, len, StandardCharsets.UTF_8));
+    }
+}
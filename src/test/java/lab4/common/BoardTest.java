@@ -2,7 +2,10 @@ package lab4.common;
 
 import org.junit.jupiter.api.Test;
 
+import java.lang.management.ManagementFactory;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class BoardTest {
 
@@ -11,18 +14,18 @@ class BoardTest {
         Board b = new Board(3);
 
         // ustawienie: przeciwnik (2) ma pojedynczy kamień na (1,1)
-        b.grid[1][1] = 2;
+        b.set(1, 1, 2);
 
         // gracz 1 ma trzy kamienie otaczające go z trzech stron; wolne pole (2,1) -> tam zagramy i zbierzemy kamień (1,1)
-        b.grid[0][1] = 1;
-        b.grid[1][0] = 1;
-        b.grid[1][2] = 1;
+        b.set(0, 1, 1);
+        b.set(1, 0, 1);
+        b.set(1, 2, 1);
 
         int result = b.applyMoveAndCapture(2, 1, 1);
 
         assertEquals(1, result, "Powinien zostać złapany dokładnie 1 kamień");
-        assertEquals(0, b.grid[1][1], "Złapany kamień powinien zostać usunięty");
-        assertEquals(1, b.grid[2][1], "Postawiony kamień powinien zostać na miejscu");
+        assertEquals(0, b.get(1, 1), "Złapany kamień powinien zostać usunięty");
+        assertEquals(1, b.get(2, 1), "Postawiony kamień powinien zostać na miejscu");
     }
 
     @Test
@@ -30,21 +33,21 @@ class BoardTest {
         Board b = new Board(3);
 
         // wokół pola (1,1) wszystkie cztery są zajęte przez przeciwnika -> ruch w (1,1) to samobójstwo
-        b.grid[0][1] = 2;
-        b.grid[1][0] = 2;
-        b.grid[1][2] = 2;
-        b.grid[2][1] = 2;
+        b.set(0, 1, 2);
+        b.set(1, 0, 2);
+        b.set(1, 2, 2);
+        b.set(2, 1, 2);
 
         int result = b.applyMoveAndCapture(1, 1, 1);
         assertEquals(-2, result, "Ruch samobójczy zwraca -2");
-        assertEquals(0, b.grid[1][1], "Pole powinno pozostać puste po odrzuceniu ruchu");
+        assertEquals(0, b.get(1, 1), "Pole powinno pozostać puste po odrzuceniu ruchu");
     }
 
     @Test
     void testGetGridCopyAndSetAndGridsEqual() {
         Board b = new Board(4);
-        b.grid[0][0] = 1;
-        b.grid[3][3] = 2;
+        b.set(0, 0, 1);
+        b.set(3, 3, 2);
 
         int[][] copy = b.getGridCopy();
         assertTrue(Board.gridsEqual(copy, b.getGridCopy()), "Kopia powinna być równa obecnemu gridowi");
@@ -52,7 +55,7 @@ class BoardTest {
         // zmieniamy kopię i przywracamy przez setGridFromCopy
         copy[0][0] = 0;
         b.setGridFromCopy(copy);
-        assertEquals(0, b.grid[0][0], "setGridFromCopy powinno przywrócić zmiany z kopii");
+        assertEquals(0, b.get(0, 0), "setGridFromCopy powinno przywrócić zmiany z kopii");
     }
 
     @Test
@@ -63,7 +66,278 @@ class BoardTest {
         assertFalse(b.isEmpty(3, 0), "Poza planszą -> false");
         assertTrue(b.isEmpty(0, 0), "Puste pole -> true");
 
-        b.grid[0][0] = 1;
+        b.set(0, 0, 1);
         assertFalse(b.isEmpty(0, 0), "Zajęte pole -> false");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCaptureOfMergedChain() {
+        Board b = new Board(5);
+
+        // dwa kamienie gracza 2 w rogu, laczone dopiero ruchem
+        assertEquals(0, b.applyMoveAndCapture(0, 0, 2));
+        assertEquals(0, b.applyMoveAndCapture(0, 1, 2));
+        assertEquals(0, b.applyMoveAndCapture(1, 0, 1));
+        assertEquals(0, b.applyMoveAndCapture(1, 1, 1));
+
+        // ostatni oddech grupy (0,0)-(0,1) to (0,2)
+        int result = b.applyMoveAndCapture(0, 2, 1);
+        assertEquals(2, result, "Cala grupa dwoch kamieni powinna zostac zbita");
+        assertEquals(0, b.get(0, 0));
+        assertEquals(0, b.get(0, 1));
+
+        // po zbiciu pola sa znowu wolne, a sasiednie grupy maja oddechy
+        assertEquals(0, b.applyMoveAndCapture(0, 0, 2), "Ruch w (0,0) ma oddech w (0,1), nie jest samobojstwem");
+    }
+
+    @Test
+    void testSetIsPickedUpByRules() {
+        Board b = new Board(3);
+        b.applyMoveAndCapture(0, 0, 1);
+
+        // ustawienie pozycji przez set() po wczesniejszych ruchach
+        b.set(0, 0, 0);
+        b.set(0, 1, 2);
+        b.set(1, 0, 2);
+
+        assertEquals(-2, b.applyMoveAndCapture(0, 0, 1), "Plansza zmieniona z zewnatrz: ruch w rog jest samobojstwem");
+        assertEquals(0, b.applyMoveAndCapture(1, 1, 1));
+        assertEquals(0, b.applyMoveAndCapture(0, 2, 1));
+        assertEquals(1, b.applyMoveAndCapture(0, 0, 1), "Teraz (0,0) zbija kamien (0,1), ktory stracil ostatni oddech");
+    }
+
+    @Test
+    void testSetClearsJournal() {
+        Board b = new Board(5);
+        b.play(1, 1, 1);
+        b.play(2, 2, 2);
+        b.set(1, 1, 1); // ta sama wartosc - nic sie nie zmienia
+        assertEquals(2, b.getJournalSize());
+
+        b.set(3, 3, 1);
+        assertFalse(b.undo(), "Po zmianie przez set() nie ma czego cofac");
+        assertEquals(1, b.get(3, 3));
+        assertEquals(2, b.get(2, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> b.set(5, 0, 1));
+    }
+
+    @Test
+    void testHashDependsOnlyOnPosition() {
+        Board a = new Board(5);
+        Board b = new Board(5);
+        assertEquals(a.getHash(), b.getHash(), "Puste plansze maja ten sam hash");
+
+        a.applyMoveAndCapture(1, 1, 1);
+        a.applyMoveAndCapture(2, 2, 2);
+        b.applyMoveAndCapture(2, 2, 2);
+        b.applyMoveAndCapture(1, 1, 1);
+        assertEquals(a.getHash(), b.getHash(), "Kolejnosc ruchow nie zmienia hasha");
+
+        b.set(3, 3, 1); // ustawienie przez set() tez jest uwzgledniane
+        assertNotEquals(a.getHash(), b.getHash());
+    }
+
+    @Test
+    void testUndoRestoresCapturedStones() {
+        Board b = new Board(3);
+        b.set(1, 1, 2);
+        b.set(0, 1, 1);
+        b.set(1, 0, 1);
+        b.set(1, 2, 1);
+        int[][] before = b.getGridCopy();
+        long hashBefore = b.getHash();
+
+        assertEquals(1, b.applyMoveAndCapture(2, 1, 1));
+        assertEquals(1, b.getLastCaptureCount());
+        assertEquals(1 * 3 + 1, b.getLastCapturedPoint(0), "Zbity kamien (1,1)");
+
+        b.undo();
+        assertTrue(Board.gridsEqual(before, b.getGridCopy()), "Cofniecie przywraca zbity kamien i zdejmuje postawiony");
+        assertEquals(hashBefore, b.getHash());
+        assertEquals(-1, b.applyMoveAndCapture(1, 1, 1), "Pole (1,1) znowu zajete");
+    }
+
+    @Test
+    void testUndoSplitsMergedChain() {
+        Board b = new Board(5);
+        b.applyMoveAndCapture(2, 1, 1);
+        b.applyMoveAndCapture(2, 3, 1);
+        int[][] before = b.getGridCopy();
+        long hashBefore = b.getHash();
+
+        b.applyMoveAndCapture(2, 2, 1); // laczy dwa kamienie w jeden lancuch
+        b.undo();
+        assertTrue(Board.gridsEqual(before, b.getGridCopy()));
+        assertEquals(hashBefore, b.getHash());
+
+        // po rozdzieleniu lancuchy maja poprawne oddechy: otaczamy (2,1) i zbijamy
+        b.applyMoveAndCapture(1, 1, 2);
+        b.applyMoveAndCapture(3, 1, 2);
+        b.applyMoveAndCapture(2, 0, 2);
+        assertEquals(1, b.applyMoveAndCapture(2, 2, 2), "Kamien (2,1) jest osobnym lancuchem z jednym oddechem");
+        assertEquals(1, b.get(2, 3), "Kamien (2,3) zostaje");
+    }
+
+    @Test
+    void testPlayAndUndoSeveralMoves() {
+        Board b = new Board(5);
+        b.play(0, 1, 1);
+        b.play(1, 1, 2);
+        b.play(1, 0, 1);
+        long[] hashes = new long[6];
+        int[][][] grids = new int[6][][];
+        hashes[0] = b.getHash();
+        grids[0] = b.getGridCopy();
+
+        // ruchy z biciem i laczeniem lancuchow
+        int[][] moves = {{1, 2, 1}, {3, 3, 2}, {2, 1, 1}, {4, 4, 2}, {1, 1, 1}};
+        for (int i = 0; i < moves.length; i++) {
+            assertTrue(b.play(moves[i][0], moves[i][1], moves[i][2]) >= 0, "Ruch " + i + " powinien byc legalny");
+            hashes[i + 1] = b.getHash();
+            grids[i + 1] = b.getGridCopy();
+        }
+        assertEquals(8, b.getJournalSize());
+
+        for (int i = moves.length; i > 0; i--) {
+            assertTrue(b.undo());
+            assertTrue(Board.gridsEqual(grids[i - 1], b.getGridCopy()), "Plansza po cofnieciu ruchu " + i);
+            assertEquals(hashes[i - 1], b.getHash());
+        }
+        b.clear();
+        assertFalse(b.undo(), "Po clear() nie ma czego cofac");
+    }
+
+    @Test
+    void testSnapshotIsPublishedExplicitly() {
+        Board b = new Board(5);
+        BoardSnapshot empty = b.getSnapshot();
+        assertEquals(0, empty.version);
+
+        b.applyMoveAndCapture(2, 2, 1);
+        assertSame(empty, b.getSnapshot(), "Proba ruchu nie jest widoczna dla czytelnikow przed publish()");
+
+        BoardSnapshot published = b.publish();
+        assertEquals(1, published.version);
+        assertEquals(1, b.getSnapshot().get(2, 2));
+
+        b.applyMoveAndCapture(0, 0, 2);
+        assertEquals(0, published.get(0, 0), "Obraz planszy jest niezmienny");
+        String json = JsonUtil.boardToJson(published);
+        assertEquals(1, JsonUtil.boardVersion(json), "JSON obrazu niesie jego wersje");
+        assertTrue(Board.gridsEqual(published.position.toBoard().getGridCopy(), JsonUtil.jsonToBoard(json).getGridCopy()));
+    }
+
+    @Test
+    void testApplyMoveDoesNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+
+        Board b = new Board(19);
+        playMoves(b, 20_000); // rozgrzewka (JIT, ladowanie klas)
+        bean.getCurrentThreadAllocatedBytes();
+
+        long before = bean.getCurrentThreadAllocatedBytes();
+        int moves = playMoves(b, 20_000);
+        long allocated = bean.getCurrentThreadAllocatedBytes() - before;
+
+        assertTrue(moves > 0);
+        assertEquals(0L, allocated, "applyMoveAndCapture nie powinno niczego alokowac");
+    }
+
+    /**
+     * Gra pseudolosowe ruchy (LCG, bez obiektow), z biciami, samobojstwami i cofaniem.
+     *
+     * @return liczba zaakceptowanych ruchow
+     */
+    private static int playMoves(Board b, int count) {
+        int seed = 12345, player = 1, accepted = 0;
+        b.clear();
+        for (int i = 0; i < count; i++) {
+            seed = seed * 1103515245 + 12345;
+            int p = (seed >>> 8) % (b.size * b.size);
+            int result = b.applyMoveAndCapture(p / b.size, p % b.size, player);
+            if (result >= 0) {
+                accepted++;
+                if (i % 7 == 0) b.undo();
+                else player = (player == 1 ? 2 : 1);
+            }
+            if (i % 1000 == 999) b.clear();
+        }
+        return accepted;
+    }
+
+    @Test
+    void testLegalMovesMask() {
+        Board b = new Board(3);
+        long[] mask = new long[b.getMaskLength()];
+        assertEquals(9, b.legalMoves(1, mask), "Pusta plansza: wszystkie pola legalne");
+        assertEquals(0x1FFL, mask[0]);
+
+        b.applyMoveAndCapture(0, 1, 1);
+        b.applyMoveAndCapture(1, 0, 1);
+        // (0,0) dla gracza 2 to samobojstwo, (0,1) i (1,0) zajete
+        assertEquals(6, b.legalMoves(2, mask));
+        assertEquals(0L, mask[0] & (1L << 0), "Samobojstwo nie jest legalne");
+        assertFalse(b.isLegal(0, 0, 2));
+        assertTrue(b.isLegal(0, 0, 1));
+        assertEquals(7, b.legalMoves(1, mask));
+    }
+
+    @Test
+    void testKoPointExcludedAndRestoredByUndo() {
+        Board b = new Board(4);
+        b.set(0, 1, 1);
+        b.set(1, 0, 1);
+        b.set(2, 1, 1);
+        b.set(1, 1, 2);
+        b.set(0, 2, 2);
+        b.set(2, 2, 2);
+        b.set(1, 3, 2);
+        long[] mask = new long[b.getMaskLength()];
+
+        assertEquals(1, b.applyMoveAndCapture(1, 2, 1));
+        assertFalse(b.isLegal(1, 1, 2), "Natychmiastowe odbicie KO jest zabronione");
+        b.legalMoves(2, mask);
+        assertEquals(0L, mask[0] & (1L << (1 * 4 + 1)), "Punkt KO nie jest w masce");
+        assertTrue(b.isLegal(1, 1, 1), "KO dotyczy tylko przeciwnika");
+
+        b.applyMoveAndCapture(3, 3, 2);
+        assertTrue(b.isLegal(1, 1, 2), "Po innym ruchu KO znika");
+        b.undo();
+        assertFalse(b.isLegal(1, 1, 2), "Cofniecie przywraca punkt KO");
+        b.pass();
+        assertTrue(b.isLegal(1, 1, 2), "Pass kasuje punkt KO");
+    }
+
+    @Test
+    void testMaskFollowsPlayUndoAndPass() {
+        Board b = new Board(5);
+        long[][] masks = {new long[b.getMaskLength()], new long[b.getMaskLength()]};
+        b.legalMoves(1, masks[0]);
+        b.legalMoves(2, masks[1]); // od teraz maski sa tylko poprawiane
+        java.util.Random random = new java.util.Random(7);
+        int player = 1;
+        for (int i = 0; i < 3000; i++) {
+            int action = random.nextInt(10);
+            if (action == 0) b.undo();
+            else if (action == 1) b.pass();
+            else if (b.play(random.nextInt(5), random.nextInt(5), player) >= 0) player = 3 - player;
+            if (i % 500 == 499) b.clear();
+
+            for (int pl = 1; pl <= 2; pl++) {
+                int count = b.legalMoves(pl, masks[pl - 1]);
+                int expected = 0;
+                for (int r = 0; r < 5; r++) {
+                    for (int c = 0; c < 5; c++) {
+                        boolean legal = b.isLegal(r, c, pl);
+                        if (legal) expected++;
+                        int bit = r * 5 + c;
+                        assertEquals(legal, (masks[pl - 1][0] & (1L << bit)) != 0, "Krok " + i + ", pole " + r + "," + c + ", gracz " + pl);
+                    }
+                }
+                assertEquals(expected, count, "Liczba legalnych ruchow w kroku " + i);
+            }
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package lab4.common;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -29,13 +32,13 @@ class JsonUtilTest {
     @Test
     void testBoardRoundtrip() {
         Board b = new Board(3);
-        b.grid[0][0] = 1;
-        b.grid[1][2] = 2;
+        b.set(0, 0, 1);
+        b.set(1, 2, 2);
         String json = JsonUtil.boardToJson(b);
 
         Board parsed = JsonUtil.jsonToBoard(json);
         assertEquals(b.size, parsed.size);
-        assertTrue(Board.gridsEqual(b.grid, parsed.grid), "Plansza po serializacji i deserializacji powinna być równa");
+        assertTrue(Board.gridsEqual(b.getGridCopy(), parsed.getGridCopy()), "Plansza po serializacji i deserializacji powinna być równa");
     }
 
     @Test
@@ -43,4 +46,77 @@ class JsonUtilTest {
         assertThrows(IllegalArgumentException.class, () -> JsonUtil.jsonToBoard("not a board"));
         assertThrows(IllegalArgumentException.class, () -> JsonUtil.jsonToBoard("{\"size\":3}")); // brak grid
     }
-}
\ No newline at end of file
+
+    @Test
+    void testDeltaRoundtripKeepsCopyInSync() {
+        Board server = new Board(3);
+        server.set(1, 1, 2);
+        server.set(0, 1, 1);
+        server.set(1, 0, 1);
+        server.set(1, 2, 1);
+        Board client = JsonUtil.jsonToBoard(JsonUtil.boardToJson(server));
+
+        server.applyMoveAndCapture(2, 1, 1);
+        BoardDelta d = BoardDelta.ofLastMove(7, server, 2, 1, 1);
+        BoardDelta parsed = JsonUtil.jsonToDelta(JsonUtil.deltaToJson(d));
+        assertEquals(7, parsed.version);
+        assertArrayEquals(new int[] {1 * 3 + 1}, parsed.removed, "Zbity kamien (1,1)");
+
+        parsed.applyTo(client);
+        assertTrue(Board.gridsEqual(server.getGridCopy(), client.getGridCopy()), "Po delcie kopia klienta rowna planszy serwera");
+        assertThrows(IllegalArgumentException.class, () -> JsonUtil.jsonToDelta("{\"version\":1}"));
+    }
+
+    @Test
+    void testDeltaOnDifferentBoardWritesServerPoints() {
+        Board client = new Board(3);
+        client.set(2, 1, 2); // klient ma inna plansze niz serwer: pole ruchu zajete
+        BoardDelta d = new BoardDelta(3, 2, 1, 1, new int[] {0});
+        client.set(0, 0, 2);
+
+        d.applyTo(client);
+        assertEquals(1, client.get(2, 1), "Kamien jak u serwera");
+        assertEquals(0, client.get(0, 0), "Zbity punkt wyczyszczony");
+        assertEquals(0, client.applyMoveAndCapture(0, 0, 2), "Lancuchy przebudowane po zapisie");
+    }
+
+    @Test
+    void testDecodeIntoExistingObjects() {
+        Move m = new Move();
+        assertSame(m, JsonUtil.decodeMove("MOVE { \"row\" : 4, \"col\":12,\"player\":2 }", 5, m));
+        assertEquals(4, m.row);
+        assertEquals(12, m.col);
+        assertEquals(2, m.player);
+
+        Board server = new Board(5);
+        server.applyMoveAndCapture(1, 3, 1);
+        server.applyMoveAndCapture(4, 0, 2);
+        String line = "BOARD " + JsonUtil.boardToJson(server.publish());
+
+        Board target = new Board(5);
+        target.set(0, 0, 2); // stare dane musza zostac nadpisane
+        assertEquals(5, JsonUtil.peekBoardSize(line, 6));
+        assertEquals(1, JsonUtil.decodeBoard(line, 6, target), "Zwracana jest wersja");
+        assertTrue(Board.gridsEqual(server.getGridCopy(), target.getGridCopy()));
+        assertThrows(IllegalArgumentException.class, () -> JsonUtil.decodeBoard(line, 6, new Board(9)));
+    }
+
+    @Test
+    void testDecodeBoardFromBytes() throws Exception {
+        Board b = new Board(3);
+        b.set(2, 1, 1);
+        byte[] bytes = ("BOARD " + JsonUtil.boardToJson(b) + "\r\nINFO x\n").getBytes(StandardCharsets.UTF_8);
+        LineBuffer line = new LineBuffer();
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+
+        assertTrue(line.readLine(in));
+        assertTrue(line.startsWith("BOARD "));
+        Board target = new Board(3);
+        assertEquals(-1, JsonUtil.decodeBoard(line, 6, target), "Plansza bez wersji");
+        assertTrue(Board.gridsEqual(b.getGridCopy(), target.getGridCopy()));
+
+        assertTrue(line.readLine(in));
+        assertEquals("INFO x", line.toString());
+        assertFalse(line.readLine(in));
+    }
+}
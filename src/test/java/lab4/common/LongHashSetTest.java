@@ -0,0 +1,34 @@
+package lab4.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongHashSetTest {
+
+    @Test
+    void testAddContainsAndGrow() {
+        LongHashSet set = new LongHashSet();
+        for (long v = 1; v <= 1000; v++) assertTrue(set.add(v * 0x9E3779B97F4A7C15L));
+        assertEquals(1000, set.size());
+
+        for (long v = 1; v <= 1000; v++) assertTrue(set.contains(v * 0x9E3779B97F4A7C15L), "Wartosc musi byc w zbiorze po powiekszeniu tablicy");
+        assertFalse(set.contains(12345L));
+        assertFalse(set.add(0x9E3779B97F4A7C15L), "Drugie dodanie tej samej wartosci zwraca false");
+    }
+
+    @Test
+    void testZeroAndClear() {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(0L));
+        assertTrue(set.add(0L)); // hash pustej planszy to 0
+        assertTrue(set.contains(0L));
+        set.add(-1L);
+        assertEquals(2, set.size());
+
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(0L));
+        assertFalse(set.contains(-1L));
+    }
+}
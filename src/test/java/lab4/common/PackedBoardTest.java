@@ -0,0 +1,48 @@
+package lab4.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedBoardTest {
+
+    @Test
+    void testRoundtrip() {
+        Board b = new Board(19);
+        b.applyMoveAndCapture(0, 0, 1);
+        b.applyMoveAndCapture(18, 18, 2);
+        b.applyMoveAndCapture(9, 10, 1);
+
+        PackedBoard packed = PackedBoard.of(b);
+        assertEquals(1, packed.get(0, 0));
+        assertEquals(2, packed.get(18, 18));
+        assertEquals(0, packed.get(5, 5));
+
+        Board restored = packed.toBoard();
+        assertTrue(Board.gridsEqual(b.getGridCopy(), restored.getGridCopy()));
+        assertEquals(b.getHash(), restored.getHash(), "Odtworzona plansza ma ten sam hash Zobrista");
+    }
+
+    @Test
+    void testImmutableAndUsableAsMapKey() {
+        Board b = new Board(9);
+        b.applyMoveAndCapture(4, 4, 1);
+        PackedBoard first = PackedBoard.of(b);
+
+        Map<PackedBoard, String> seen = new HashMap<>();
+        seen.put(first, "po pierwszym ruchu");
+
+        b.applyMoveAndCapture(3, 3, 2);
+        assertEquals(0, first.get(3, 3), "Zmiana planszy nie zmienia spakowanej kopii");
+
+        b.undo();
+        PackedBoard again = PackedBoard.of(b);
+        assertEquals(first, again);
+        assertEquals(first.hashCode(), again.hashCode());
+        assertEquals("po pierwszym ruchu", seen.get(again));
+        assertNotEquals(first, PackedBoard.of(new Board(9)));
+    }
+}
@@ -0,0 +1,73 @@
+package lab4.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SerialExecutorTest {
+
+    @Test
+    void testTasksRunInOrderOneAtATime() throws Exception {
+        ExecutorService pool = SerialExecutor.newPool("test-serial", 4);
+        try {
+            SerialExecutor mailbox = new SerialExecutor(pool);
+            List<Integer> seen = new ArrayList<>(); // bez synchronizacji: skrzynka wykonuje jedno zadanie naraz
+            AtomicInteger inside = new AtomicInteger();
+            AtomicInteger overlaps = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(1);
+            for (int i = 0; i < 1000; i++) {
+                int n = i;
+                mailbox.execute(() -> {
+                    if (inside.incrementAndGet() > 1) overlaps.incrementAndGet();
+                    seen.add(n);
+                    inside.decrementAndGet();
+                });
+            }
+            mailbox.execute(done::countDown);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+
+            assertEquals(0, overlaps.get(), "Zadania jednej skrzynki nie ida rownolegle");
+            assertEquals(1000, seen.size());
+            for (int i = 0; i < 1000; i++) assertEquals(i, seen.get(i), "Kolejnosc dodania zachowana");
+            assertEquals(0, mailbox.getQueuedCount());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void testBlockedMailboxDoesNotStallAnother() throws Exception {
+        ExecutorService pool = SerialExecutor.newPool("test-serial", 2);
+        try {
+            SerialExecutor slow = new SerialExecutor(pool);
+            SerialExecutor fast = new SerialExecutor(pool);
+            CountDownLatch release = new CountDownLatch(1);
+            slow.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            slow.execute(() -> {});
+
+            CountDownLatch ran = new CountDownLatch(1);
+            fast.execute(ran::countDown);
+            assertTrue(ran.await(5, TimeUnit.SECONDS), "Druga skrzynka dziala mimo zablokowanej pierwszej");
+            assertEquals(1, slow.getQueuedCount(), "Zadanie za zablokowanym czeka w swojej kolejce");
+
+            release.countDown();
+            for (int i = 0; i < 100 && slow.getQueuedCount() > 0; i++) Thread.sleep(10);
+            assertEquals(0, slow.getQueuedCount());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
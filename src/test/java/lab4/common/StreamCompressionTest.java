@@ -0,0 +1,117 @@
+package lab4.common;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamCompressionTest {
+
+    @Test
+    void testEachFlushIsReadableWithoutClosing() throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        OutputStream out = StreamCompression.deflating(wire);
+        Board b = new Board(9);
+        b.applyMoveAndCapture(4, 4, 1);
+        byte[] first = b.publish().getTextLine();
+        out.write(first);
+        out.flush();
+        int afterFirst = wire.size();
+
+        // po sync flush odbiorca ma cala pierwsza paczke, choc strumien nie jest zamkniety
+        DataInputStream in = new DataInputStream(StreamCompression.inflating(
+                new ByteArrayInputStream(wire.toByteArray())));
+        byte[] got = new byte[first.length];
+        in.readFully(got);
+        assertArrayEquals(first, got);
+
+        b.applyMoveAndCapture(3, 3, 2);
+        byte[] second = b.publish().getTextLine();
+        out.write(second);
+        out.flush();
+        assertTrue(wire.size() - afterFirst < second.length / 4, "Slownik z poprzedniej paczki zostaje");
+
+        in = new DataInputStream(StreamCompression.inflating(new ByteArrayInputStream(wire.toByteArray())));
+        in.readFully(new byte[first.length]);
+        got = new byte[second.length];
+        in.readFully(got);
+        assertArrayEquals(second, got);
+    }
+
+    /**
+     * Cala partia tak, jak serwer wysyla ja jednemu klientowi (jedna paczka = jeden flush):
+     * po rozpakowaniu te same bajty, a pelne plansze tekstem zajmuja kilka razy mniej.
+     * Czas CPU nie jest tu mierzony (to test, nie benchmark).
+     */
+    @Test
+    void testGameRoundTripAndSize() throws IOException {
+        List<byte[][]> fullText = new ArrayList<>();
+        List<byte[][]> deltaText = new ArrayList<>();
+        List<byte[][]> fullBinary = new ArrayList<>();
+        recordGame(19, 250, fullText, deltaText, fullBinary);
+
+        for (List<byte[][]> batches : List.of(fullText, deltaText, fullBinary)) {
+            byte[] plain = replay(batches, false);
+            byte[] packed = replay(batches, true);
+            byte[] unpacked = new byte[plain.length]; // strumien nie jest zamkniety, czytamy tyle, ile wyslano
+            new DataInputStream(StreamCompression.inflating(new ByteArrayInputStream(packed))).readFully(unpacked);
+            assertArrayEquals(plain, unpacked, "Po rozpakowaniu te same wiadomosci");
+            assertTrue(packed.length < plain.length, "Kompresja zmniejsza strumien");
+        }
+        assertTrue(replay(fullText, true).length * 5 < replay(fullText, false).length,
+                "Pelne plansze tekstem kompresuja sie co najmniej 5x");
+    }
+
+    /**
+     * Plays a random game and records, for every move, the batch of messages sent to one client.
+     */
+    private static void recordGame(int size, int moves, List<byte[][]> fullText,
+                                   List<byte[][]> deltaText, List<byte[][]> fullBinary) {
+        Random rnd = new Random(17);
+        Board b = new Board(size);
+        int player = 1;
+        for (int m = 0; m < moves; m++) {
+            int r, c, tries = 0;
+            do {
+                r = rnd.nextInt(size);
+                c = rnd.nextInt(size);
+            } while (!b.isLegal(r, c, player) && ++tries < 1000);
+            if (tries == 1000) break;
+            b.play(r, c, player);
+            BoardSnapshot snap = b.publish();
+            byte[] turn = ((player == 1 ? "OPPONENT_TURN" : "YOUR_TURN") + "\n").getBytes(StandardCharsets.US_ASCII);
+            byte[] score = ("WYNIKI1 0\nWYNIKI2 " + m / 40 + "\n").getBytes(StandardCharsets.US_ASCII);
+            byte[] delta = ("BOARD_DELTA " + JsonUtil.deltaToJson(BoardDelta.ofLastMove(snap.version, b, r, c, player))
+                    + "\n").getBytes(StandardCharsets.US_ASCII);
+            fullText.add(new byte[][] {snap.getTextLine(), score, turn});
+            deltaText.add(new byte[][] {delta, score, turn});
+            fullBinary.add(new byte[][] {snap.getBinaryFrame(), BinaryProtocol.frame(BinaryProtocol.YOUR_TURN)});
+            player = 3 - player;
+        }
+    }
+
+    /**
+     * Writes all batches, one flush per batch.
+     *
+     * @return bytes on the wire
+     */
+    private static byte[] replay(List<byte[][]> batches, boolean compress) throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        OutputStream out = compress ? StreamCompression.deflating(wire) : new BufferedOutputStream(wire);
+        for (byte[][] batch : batches) {
+            for (byte[] msg : batch) out.write(msg);
+            out.flush();
+        }
+        return wire.toByteArray();
+    }
+}
@@ -0,0 +1,53 @@
+package lab4.common;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TaskThreadsTest {
+
+    @Test
+    void testCountsAndNamesOfRunningTasks() throws Exception {
+        TaskThreads threads = new TaskThreads(TaskThreads.Mode.PLATFORM);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread a = threads.start("game-1-p1", () -> awaitQuietly(release));
+        Thread b = threads.start("bot-1", () -> awaitQuietly(release));
+
+        assertEquals(2, threads.getRunningCount());
+        assertEquals(2, threads.getStartedCount());
+        assertTrue(threads.getThreadNames().containsAll(List.of("game-1-p1", "bot-1")));
+
+        release.countDown();
+        a.join(5000);
+        b.join(5000);
+        assertEquals(0, threads.getRunningCount(), "Zakonczone zadania nie sa liczone");
+        assertTrue(threads.getThreadNames().isEmpty());
+        assertEquals(2, threads.getStartedCount());
+    }
+
+    @Test
+    void testVirtualModeFallsBackWithoutVirtualThreads() throws Exception {
+        TaskThreads threads = new TaskThreads(TaskThreads.Mode.VIRTUAL);
+        // watki wirtualne sa w Javie 21+, na starszej JVM zostaja zwykle
+        TaskThreads.Mode expected = Runtime.version().feature() >= 21 ? TaskThreads.Mode.VIRTUAL : TaskThreads.Mode.PLATFORM;
+        assertEquals(expected, threads.getMode());
+
+        CountDownLatch ran = new CountDownLatch(1);
+        Thread t = threads.start("ServerListener", ran::countDown);
+        assertTrue(ran.await(5, TimeUnit.SECONDS), "Zadanie wykonane w obu trybach");
+        assertEquals("ServerListener", t.getName());
+        t.join(5000);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
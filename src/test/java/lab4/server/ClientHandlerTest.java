@@ -0,0 +1,153 @@
+package lab4.server;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import lab4.common.BinaryProtocol;
+import lab4.common.Board;
+import lab4.common.BoardSnapshot;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientHandlerTest {
+
+    @Test
+    void testBatchIsSentWithOneFlush() throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+             Socket client = new Socket("localhost", server.getLocalPort());
+             Socket accepted = server.accept()) {
+            ClientHandler h = new ClientHandler(accepted, 1, null);
+            InputStream in = client.getInputStream();
+
+            h.beginBatch();
+            h.sendLine("WYNIKI1 0");
+            h.sendLine("WYNIKI2 3");
+            h.sendLine("YOUR_TURN");
+            Thread.sleep(100);
+            assertEquals(0, in.available(), "W trakcie paczki nic nie wychodzi");
+
+            h.endBatch();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            assertEquals("WYNIKI1 0", reader.readLine());
+            assertEquals("WYNIKI2 3", reader.readLine());
+            assertEquals("YOUR_TURN", reader.readLine(), "Kolejnosc linii bez zmian");
+
+            h.sendLine("INFO bez paczki");
+            assertEquals("INFO bez paczki", reader.readLine());
+        }
+    }
+
+    @Test
+    void testProtoBinaryDuringBatchSwitchesAfterIt() throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+             Socket client = new Socket("localhost", server.getLocalPort());
+             Socket accepted = server.accept()) {
+            ClientHandler h = new ClientHandler(accepted, 1, null);
+            Board board = new Board(9);
+            board.play(2, 3, 1);
+            BoardSnapshot first = board.publish();
+            board.play(4, 4, 2);
+            BoardSnapshot second = board.publish();
+
+            h.beginBatch(); // paczka sesji w toku, gdy watek czytajacy dostaje PROTO BINARY
+            h.sendBoard(first);
+            h.negotiate(BinaryProtocol.NEGOTIATE);
+            h.sendLine("YOUR_TURN");
+            h.endBatch();
+            h.sendBoard(second);
+
+            client.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            assertEquals(new String(first.getTextLine(), StandardCharsets.UTF_8).trim(), BinaryProtocol.readLine(in),
+                    "Plansza z paczki tekstem");
+            assertEquals("YOUR_TURN", BinaryProtocol.readLine(in), "Cala paczka przed potwierdzeniem");
+            assertEquals(BinaryProtocol.NEGOTIATE, BinaryProtocol.readLine(in));
+
+            byte[] frame = new byte[BinaryProtocol.MAX_FRAME];
+            int len = BinaryProtocol.readFrame(in, frame);
+            assertEquals(BinaryProtocol.BOARD, frame[0] & 0xFF, "Po potwierdzeniu tylko ramki");
+            assertEquals(2, BinaryProtocol.readBoard(frame, len).get(4, 4));
+            assertEquals(0, in.available(), "Nic poza ramka");
+        }
+    }
+
+    /** Polaczenie z malymi buforami TCP, zeby klient, ktory nie czyta, szybko zapchal kolejke. */
+    private static Socket slowClient(ServerSocket server) throws Exception {
+        Socket client = new Socket();
+        client.setReceiveBufferSize(4096);
+        client.connect(server.getLocalSocketAddress());
+        return client;
+    }
+
+    @Test
+    void testSlowClientGetsLatestBoardAndNoStaleOnes() throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+             Socket client = slowClient(server);
+             Socket accepted = server.accept()) {
+            accepted.setSendBufferSize(4096);
+            ClientHandler h = new ClientHandler(accepted, 1, null, ClientHandler.OverflowPolicy.DROP_BOARDS, 16 * 1024);
+            Board board = new Board(19);
+            BoardSnapshot last = null;
+            long start = System.nanoTime();
+            for (int i = 0; i < 2000; i++) {
+                last = board.publish();
+                h.sendBoard(last); // klient nic nie czyta, a wysylanie nie moze sie zablokowac
+            }
+            h.sendLine("INFO end");
+            assertTrue(System.nanoTime() - start < 5_000_000_000L, "Nadawca nie czeka na wolnego klienta");
+            assertTrue(h.getDroppedCount() > 0, "Stare plansze wyrzucone z kolejki");
+            assertTrue(h.getQueuedBytes() <= 16 * 1024, "Kolejka ograniczona");
+
+            client.setSoTimeout(5000);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            String line, lastBoard = null;
+            int boards = 0;
+            while (!(line = reader.readLine()).equals("INFO end")) {
+                lastBoard = line;
+                boards++;
+            }
+            assertEquals(new String(last.getTextLine(), StandardCharsets.UTF_8).trim(), lastBoard, "Najnowsza plansza dotarla");
+            assertEquals(2000, boards + h.getDroppedCount(), "Kazda plansza wyslana albo policzona jako wyrzucona");
+        }
+    }
+
+    @Test
+    void testDisconnectPolicyClosesSlowClient() throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+             Socket client = slowClient(server);
+             Socket accepted = server.accept()) {
+            accepted.setSendBufferSize(4096);
+            ClientHandler h = new ClientHandler(accepted, 1, null, ClientHandler.OverflowPolicy.DISCONNECT, 16 * 1024);
+            String info = "INFO " + "x".repeat(1000);
+            for (int i = 0; i < 2000 && !accepted.isClosed(); i++) h.sendLine(info);
+
+            assertTrue(accepted.isClosed(), "Klient, ktory nie nadaza, zostal rozlaczony");
+            assertEquals(0, h.getQueuedBytes());
+            assertEquals(0, h.getDroppedCount(), "Przy tej polityce nic nie jest po cichu wyrzucane");
+        }
+    }
+
+    @Test
+    void testBlockedWriteIsAbortedByWatchdog() throws Exception {
+        ClientHandler.setWriteStallTimeout(300);
+        try (ServerSocket server = new ServerSocket(0);
+             Socket client = slowClient(server);
+             Socket accepted = server.accept()) {
+            accepted.setSendBufferSize(4096);
+            ClientHandler h = new ClientHandler(accepted, 1, null, ClientHandler.OverflowPolicy.DISCONNECT, 1024 * 1024);
+            String info = "INFO " + "x".repeat(1000);
+            for (int i = 0; i < 100; i++) h.sendLine(info); // ponizej limitu kolejki, ale zapis utknie
+
+            for (int i = 0; i < 100 && !accepted.isClosed(); i++) Thread.sleep(50);
+            assertTrue(accepted.isClosed(), "Klient, ktory przestal czytac, zostal rozlaczony - watek piszacy jest wolny");
+        } finally {
+            ClientHandler.setWriteStallTimeout(ClientHandler.WRITE_STALL_MS);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package lab4.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import lab4.common.LineBuffer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandDecoderTest {
+
+    /** Kawalki, z ktorych losujemy linie: slowa komend, argumenty, biale i sterujace znaki */
+    private static final String[] PIECES = {
+            "MOVE", "move", "Pass", "PASS", "resign", "RESUME", "finish", "DELTAS", "sync", "COMPRESS",
+            "proto", "watch", "Queue", "BINARY", "binary", "deflate", "MOV", "PASSS", "X", "{\"row\":1,\"col\":2,\"player\":1}",
+            "{", "}", ":", "1", " ", " ", " ", "\t", "\r", "\n", "\u000B", "\f", "\u0001", "\u001F", "\u0000"
+    };
+
+    /** Stary parser z ClientHandler (trim + split po regexie + toUpperCase) jako wzorzec. */
+    private static String[] referenceParse(String raw) {
+        String trimmed = raw.trim();
+        if (trimmed.isEmpty()) return null;
+        String[] parts = trimmed.split("\\s+", 2);
+        String cmd = parts[0].toUpperCase();
+        String arg = parts.length > 1 ? parts[1].trim() : "";
+        return new String[] {cmd, arg};
+    }
+
+    private static int referenceCode(String cmd) {
+        switch (cmd) {
+            case "MOVE": return CommandDecoder.MOVE;
+            case "PASS": return CommandDecoder.PASS;
+            case "RESIGN": return CommandDecoder.RESIGN;
+            case "RESUME": return CommandDecoder.RESUME;
+            case "FINISH": return CommandDecoder.FINISH;
+            case "DELTAS": return CommandDecoder.DELTAS;
+            case "SYNC": return CommandDecoder.SYNC;
+            case "COMPRESS": return CommandDecoder.COMPRESS;
+            case "PROTO": return CommandDecoder.PROTO;
+            case "WATCH": return CommandDecoder.WATCH;
+            case "QUEUE": return CommandDecoder.QUEUE;
+            default: return CommandDecoder.UNKNOWN;
+        }
+    }
+
+    @Test
+    void testFuzzSameSyntaxAsSplitParser() {
+        Random rnd = new Random(18);
+        CommandDecoder dec = new CommandDecoder();
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int n = rnd.nextInt(7);
+            for (int k = 0; k < n; k++) sb.append(PIECES[rnd.nextInt(PIECES.length)]);
+            String raw = sb.toString();
+
+            String[] expected = referenceParse(raw);
+            int code = dec.decode(raw);
+            if (expected == null) {
+                assertEquals(CommandDecoder.EMPTY, code, "Pusta linia: " + escape(raw));
+                continue;
+            }
+            assertEquals(referenceCode(expected[0]), code, "Kod komendy: " + escape(raw));
+            assertEquals(expected[0], dec.command(), "Komenda: " + escape(raw));
+            assertEquals(expected[1], dec.argument(), "Argument: " + escape(raw));
+            assertEquals(!expected[1].isEmpty(), dec.hasArgument(), "Czy jest argument: " + escape(raw));
+        }
+    }
+
+    @Test
+    void testDecodeFromLineBufferBytes() throws IOException {
+        byte[] bytes = "  move \t {\"row\":3,\"col\":4,\"player\":1}  \r\nproto Binary\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        LineBuffer line = new LineBuffer();
+        CommandDecoder dec = new CommandDecoder();
+
+        assertTrue(line.readLine(in));
+        assertEquals(CommandDecoder.MOVE, dec.decode(line));
+        assertEquals('{', line.charAt(dec.argumentStart()), "Argument zaczyna sie od JSON-a");
+
+        assertTrue(line.readLine(in));
+        assertEquals(CommandDecoder.PROTO, dec.decode(line));
+        assertTrue(dec.argumentIs("BINARY"), "Argument bez wzgledu na wielkosc liter");
+        assertFalse(dec.argumentIs("BIN"));
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : s.toCharArray()) {
+            if (c < ' ') sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,30 @@
+package lab4.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import lab4.common.BoardSnapshot;
+
+/** Polaczenie bez sieci: zapamietuje wyslane linie (plansza jako "BOARD"). */
+final class FakeConnection implements PlayerConnection {
+    final List<String> lines = new CopyOnWriteArrayList<>();
+    volatile int playerId;
+    volatile GameSession session;
+
+    @Override public int getPlayerId() { return playerId; }
+    @Override public GameSession getSession() { return session; }
+    @Override public void bind(int playerId, GameSession session) { this.playerId = playerId; this.session = session; }
+    @Override public void sendLine(String line) { lines.add(line); }
+    @Override public void sendBoard(BoardSnapshot snapshot) { lines.add("BOARD"); }
+    @Override public void sendEncoded(byte[] text, int textLen, byte[] frame, int frameLen) {
+        lines.add(new String(text, 0, textLen - 1, StandardCharsets.UTF_8)); // bez '\n'
+    }
+    @Override public void beginBatch() {}
+    @Override public void endBatch() {}
+    @Override public boolean wantsDeltas() { return false; }
+    @Override public void enableDeltas() {}
+    @Override public void negotiate(String option) {}
+    @Override public int getQueuedBytes() { return 0; }
+    @Override public long getDroppedCount() { return 0; }
+}
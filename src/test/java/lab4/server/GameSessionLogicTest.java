@@ -1,10 +1,12 @@
 package lab4.server;
 
 import lab4.common.Board;
+import lab4.common.LongHashSet;
 import lab4.common.Move;
 import org.junit.jupiter.api.*;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -28,7 +30,7 @@ class GameSessionLogicTest {
         assertEquals(9, b.size);
         for (int r = 0; r < 9; r++)
             for (int c = 0; c < 9; c++)
-                assertEquals(0, b.grid[r][c]);
+                assertEquals(0, b.get(r, c));
     }
 
     @Test
@@ -42,7 +44,7 @@ class GameSessionLogicTest {
         int result = board.applyMoveAndCapture(2, 2, 1);
 
         assertEquals(0, result);  // brak zbitych kamieni
-        assertEquals(1, board.grid[2][2]);  // ruch został wykonany
+        assertEquals(1, board.get(2, 2));  // ruch został wykonany
     }
 
     @Test
@@ -54,14 +56,39 @@ class GameSessionLogicTest {
         Board board = (Board) boardField.get(gs);
 
         // ustawienie otoczenia, aby ruch w (2,2) był samobójczy
-        board.grid[1][2] = 2;
-        board.grid[2][1] = 2;
-        board.grid[2][3] = 2;
-        board.grid[3][2] = 2;
+        board.set(1, 2, 2);
+        board.set(2, 1, 2);
+        board.set(2, 3, 2);
+        board.set(3, 2, 2);
 
         int result = board.applyMoveAndCapture(2, 2, 1);
 
         assertEquals(-2, result); // nie pozwala na suicide
-        assertEquals(0, board.grid[2][2]); // przeciecie pozostaje puste
+        assertEquals(0, board.get(2, 2)); // przeciecie pozostaje puste
     }
-}
\ No newline at end of file
+
+    @Test
+    void superkoHashHitWithDifferentPositionIsNotRejected() throws Exception {
+        GameSession gs = GameSession.getInstance(9);
+        gs.setPositionalSuperko(true);
+
+        // kolizja hashy: w historii jest hash pozycji po ruchu (4,4), ale sama pozycja nigdy nie wystapila
+        Board after = new Board(9);
+        after.play(4, 4, 1);
+        Field historyField = GameSession.class.getDeclaredField("positionHistory");
+        historyField.setAccessible(true);
+        ((LongHashSet) historyField.get(gs)).add(after.getHash());
+
+        FakeConnection p1 = new FakeConnection();
+        p1.bind(1, gs);
+        Method handleMove = GameSession.class.getDeclaredMethod("handleMove", Move.class, PlayerConnection.class);
+        handleMove.setAccessible(true);
+        handleMove.invoke(gs, new Move(4, 4, 1), p1);
+
+        Field boardField = GameSession.class.getDeclaredField("board");
+        boardField.setAccessible(true);
+        Board board = (Board) boardField.get(gs);
+        assertEquals(1, board.get(4, 4), "Sam hash nie wystarcza do odrzucenia ruchu");
+        assertTrue(p1.lines.stream().noneMatch(l -> l.startsWith("ERROR")), "Brak bledu superko: " + p1.lines);
+    }
+}
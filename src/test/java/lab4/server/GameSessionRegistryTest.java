@@ -0,0 +1,106 @@
+package lab4.server;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameSessionRegistryTest {
+
+    @Test
+    void testPairsOfPlayersGetSeparateSessions() throws Exception {
+        GameSessionRegistry registry = new GameSessionRegistry(9, false, null, null);
+        registry.getLobby().setAutoQueueDelay(0); // bez czekania na QUEUE
+        List<Socket> clients = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(0)) {
+            GameSession[] joined = new GameSession[3];
+            for (int i = 0; i < 3; i++) {
+                Socket client = new Socket("localhost", server.getLocalPort());
+                client.setSoTimeout(5000);
+                clients.add(client);
+                joined[i] = registry.assign(server.accept()).getSession();
+            }
+
+            assertSame(joined[0], joined[1], "Pierwsi dwaj gracze w jednej grze");
+            assertNotSame(joined[1], joined[2], "Trzeci gracz dostaje nowa gre");
+            assertTrue(joined[0].isFull());
+            assertSame(joined[2], registry.getOpenSession());
+            assertEquals(2, registry.size());
+            assertSame(joined[2], registry.get(joined[2].getId()));
+
+            BufferedReader third = new BufferedReader(new InputStreamReader(clients.get(2).getInputStream(), StandardCharsets.UTF_8));
+            assertEquals("INFO Connected as player 1 in game " + joined[2].getId(), third.readLine());
+
+            // ostatni gracz wychodzi -> jego pusta sesja znika z rejestru
+            clients.get(2).close();
+            for (int i = 0; i < 100 && registry.size() > 1; i++) Thread.sleep(20);
+            assertEquals(1, registry.size(), "Pusta sesja usunieta");
+            assertNull(registry.getOpenSession());
+        } finally {
+            for (Socket c : clients) c.close();
+        }
+    }
+
+    /** Czyta linie az do takiej, ktora zaczyna sie od prefiksu. */
+    private static String readUntil(BufferedReader in, String prefix) throws Exception {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(prefix)) return line;
+        }
+        fail("Brak linii " + prefix);
+        return null;
+    }
+
+    @Test
+    void testNewConnectionsChooseTheirQueue() throws Exception {
+        GameSessionRegistry registry = new GameSessionRegistry(19, false, null, null);
+        registry.getLobby().setAutoQueueDelay(60_000); // w tym tescie nikt nie trafia do kolejki sam
+        List<Socket> clients = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(0)) {
+            List<BufferedReader> in = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                Socket client = new Socket("localhost", server.getLocalPort());
+                client.setSoTimeout(5000);
+                clients.add(client);
+                registry.assign(server.accept());
+                in.add(new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8)));
+            }
+            assertEquals(0, registry.size(), "Nikt nie sparowany przed QUEUE");
+            assertEquals(2, registry.getLobby().getArrivingCount());
+
+            for (int i = 0; i < 2; i++) {
+                OutputStream out = clients.get(i).getOutputStream();
+                out.write("QUEUE 9\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (i == 0) assertEquals("INFO Waiting for opponent (9x9, rating any), position 1", readUntil(in.get(0), "INFO Waiting"));
+            }
+            assertEquals("START 1", readUntil(in.get(0), "START"), "Obaj w jednej grze 9x9");
+            assertEquals("START 2", readUntil(in.get(1), "START"));
+            assertEquals(1, registry.size());
+            assertEquals(9, registry.getSessions().get(0).getBoardSize());
+            assertEquals(0, registry.getLobby().getArrivingCount());
+            assertEquals(0, registry.getLobby().getWaitingCount());
+
+            // trzeci nic nie wysyla: po czasie trafia do domyslnej kolejki (19x19, bez rankingu)
+            registry.getLobby().setAutoQueueDelay(50);
+            Socket third = new Socket("localhost", server.getLocalPort());
+            third.setSoTimeout(5000);
+            clients.add(third);
+            registry.assign(server.accept());
+            BufferedReader in3 = new BufferedReader(new InputStreamReader(third.getInputStream(), StandardCharsets.UTF_8));
+            assertTrue(readUntil(in3, "INFO Send QUEUE").startsWith("INFO Send QUEUE"));
+            assertEquals("INFO Waiting for opponent (19x19, rating any), position 1", readUntil(in3, "INFO Waiting"));
+            assertEquals(1, registry.getLobby().getWaitingCount());
+        } finally {
+            for (Socket c : clients) c.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package lab4.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LobbyTest {
+
+    private static FakeConnection join(Lobby lobby, int size, int rating) throws Exception {
+        FakeConnection c = new FakeConnection();
+        lobby.join((playerId, session) -> {
+            c.bind(playerId, session);
+            return c;
+        }, size, Lobby.bucketOf(rating));
+        return c;
+    }
+
+    @Test
+    void testPairsBySizeAndRatingBucket() throws Exception {
+        GameSessionRegistry registry = new GameSessionRegistry(19, false, null, null);
+        Lobby lobby = registry.getLobby();
+
+        FakeConnection a = join(lobby, 9, 1450);
+        FakeConnection b = join(lobby, 13, 1450);
+        FakeConnection c = join(lobby, 9, 1700);
+        FakeConnection d = join(lobby, 9, -1);
+        assertEquals(4, lobby.getWaitingCount(), "Rozne preferencje - nikt nie sparowany");
+        assertTrue(a.lines.contains("INFO Waiting for opponent (9x9, rating 1400-1599), position 1"));
+
+        FakeConnection e = join(lobby, 9, 1500); // ten sam przedzial co a
+        assertSame(a.getSession(), e.getSession());
+        assertEquals(2, e.getPlayerId());
+        assertEquals(9, a.getSession().getBoardSize(), "Gra ma zadany rozmiar planszy");
+        assertTrue(a.getSession().isFull());
+        assertEquals(3, lobby.getWaitingCount());
+        assertNotSame(b.getSession(), c.getSession());
+        assertNotSame(c.getSession(), d.getSession());
+    }
+
+    @Test
+    void testPlayersOfResetSessionGoBackToLobby() throws Exception {
+        GameSessionRegistry registry = new GameSessionRegistry(9, false, null, null);
+        Lobby lobby = registry.getLobby();
+        lobby.setAutoQueueDelay(0);
+        FakeConnection a = join(lobby, 9, -1);
+        FakeConnection b = join(lobby, 9, -1);
+        GameSession old = a.getSession();
+        assertSame(old, b.getSession());
+
+        // jak komenda reset w konsoli serwera
+        List<PlayerConnection> players = old.reset();
+        registry.remove(old);
+        for (PlayerConnection p : players) registry.assign(p);
+
+        assertEquals(2, players.size(), "Reset oddaje obu graczy");
+        assertNull(registry.get(old.getId()), "Zresetowana sesja usunieta z rejestru");
+        assertTrue(a.lines.contains("GAME_OVER Session reset by admin. Back to the lobby."));
+        assertNotNull(a.getSession(), "Gracz znow w grze, a nie bez sesji");
+        assertNotSame(old, a.getSession());
+        assertSame(a.getSession(), b.getSession(), "Poczekalnia sparowala ich ponownie");
+        assertEquals(0, lobby.getWaitingCount());
+    }
+
+    @Test
+    void testConcurrentJoinsAllPaired() throws Exception {
+        GameSessionRegistry registry = new GameSessionRegistry(9, false, null, null);
+        Lobby lobby = registry.getLobby();
+        int threads = 8, perThread = 100;
+        List<FakeConnection> all = new CopyOnWriteArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int size = (t % 2 == 0 ? 9 : 13);
+            Thread w = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) all.add(join(lobby, size, -1));
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            w.start();
+            workers.add(w);
+        }
+        start.countDown();
+        for (Thread w : workers) w.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertEquals(threads * perThread, all.size());
+        assertEquals(0, lobby.getWaitingCount(), "Parzysta liczba graczy w kazdej kolejce - nikt nie czeka");
+        assertEquals(threads * perThread / 2, registry.size(), "Kazda gra ma dokladnie dwoch graczy");
+        for (GameSession s : registry.getSessions()) assertEquals(2, s.getPlayerCount());
+    }
+
+    @Test
+    void testWaitingPlayerAcceptsNearBucketLater() throws Exception {
+        GameSessionRegistry registry = new GameSessionRegistry(19, false, null, null);
+        Lobby lobby = registry.getLobby();
+        lobby.setWidenInterval(100);
+
+        FakeConnection a = join(lobby, 9, 1450);
+        FakeConnection b = join(lobby, 9, 1650);
+        assertNotSame(a.getSession(), b.getSession(), "Sasiednie przedzialy - na poczatku bez pary");
+        assertTrue(b.lines.contains("INFO Waiting for opponent (9x9, rating 1600-1799), position 2"),
+                "Pozycja wsrod wszystkich czekajacych na plansze 9x9");
+
+        Thread.sleep(150); // a i b czekaja juz dluzej niz jeden krok
+        FakeConnection c = join(lobby, 9, 1680);
+        assertSame(a.getSession(), c.getSession(), "Najdluzej czekajacy z sasiedniego przedzialu");
+        String moved = "INFO Waiting for opponent (9x9, rating 1600-1799), position 1";
+        for (int i = 0; i < 100 && !b.lines.contains(moved); i++) Thread.sleep(20); // pozycje rozsyla timer
+        assertTrue(b.lines.contains(moved), "Gracz za sparowanym dostaje nowa pozycje");
+
+        FakeConnection d = join(lobby, 9, 2300);
+        assertNotSame(b.getSession(), d.getSession(), "Dalej niz MAX_WIDEN przedzialow - bez pary");
+        assertEquals(2, lobby.getWaitingCount());
+    }
+
+    @Test
+    void testLeavingFromMiddleUpdatesPositionsBehind() throws Exception {
+        GameSessionRegistry registry = new GameSessionRegistry(19, false, null, null);
+        Lobby lobby = registry.getLobby();
+        List<FakeConnection> waiting = new ArrayList<>();
+        for (int rating = 0; rating < 4000; rating += 1000) waiting.add(join(lobby, 13, rating)); // za daleko na pary
+        assertEquals(4, lobby.getWaitingCount());
+
+        FakeConnection second = waiting.get(1);
+        assertTrue(second.getSession().leave(second));
+        assertEquals(3, lobby.getWaitingCount());
+        assertEquals(3, registry.size(), "Pusta sesja usunieta");
+
+        String third = "INFO Waiting for opponent (13x13, rating 2000-2199), position 2";
+        String fourth = "INFO Waiting for opponent (13x13, rating 3000-3199), position 3";
+        for (int i = 0; i < 100 && !waiting.get(3).lines.contains(fourth); i++) Thread.sleep(20);
+        assertTrue(waiting.get(2).lines.contains(third));
+        assertTrue(waiting.get(3).lines.contains(fourth));
+        assertEquals(1, waiting.get(0).lines.stream().filter(l -> l.startsWith("INFO Waiting")).count(),
+                "Pierwszy nie dostaje zbednej aktualizacji");
+
+        FakeConnection next = join(lobby, 13, 2050); // para dla trzeciego, mimo oznaczonego wpisu przed nim
+        assertSame(waiting.get(2).getSession(), next.getSession());
+        assertEquals(2, lobby.getWaitingCount());
+    }
+}
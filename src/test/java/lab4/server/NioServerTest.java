@@ -0,0 +1,163 @@
+package lab4.server;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import lab4.common.Board;
+import lab4.common.JsonUtil;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioServerTest {
+
+    private static BufferedReader reader(Socket s) throws Exception {
+        return new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /** Czyta linie az do takiej, ktora zaczyna sie od prefiksu. */
+    private static String readUntil(BufferedReader in, String prefix) throws Exception {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(prefix)) return line;
+        }
+        fail("Brak linii " + prefix);
+        return null;
+    }
+
+    @Test
+    void testGameOverNonBlockingTransport() throws Exception {
+        GameSessionRegistry registry = new GameSessionRegistry(9, false, null, null);
+        registry.getLobby().setAutoQueueDelay(0); // parowanie od razu po polaczeniu
+        try (NioServer server = new NioServer(registry, 0, 2);
+             Socket p1 = new Socket("localhost", server.getPort())) {
+            server.start();
+            p1.setSoTimeout(5000);
+            BufferedReader in1 = reader(p1);
+            readUntil(in1, "INFO Connected"); // drugi gracz dopiero po przydziale pierwszego (petle rejestruja niezaleznie)
+            Socket p2 = new Socket("localhost", server.getPort());
+            p2.setSoTimeout(5000);
+            BufferedReader in2 = reader(p2);
+
+            assertEquals("START 1", readUntil(in1, "START"));
+            assertEquals("START 2", readUntil(in2, "START"));
+            assertEquals("YOUR_TURN", readUntil(in1, "YOUR_TURN"));
+            assertEquals("OPPONENT_TURN", readUntil(in2, "OPPONENT_TURN")); // po pustej planszy startowej
+
+            // komenda rozdzielona na dwa pakiety TCP: petla skleja linie
+            OutputStream out1 = p1.getOutputStream();
+            out1.write("move {\"row\":2,".getBytes(StandardCharsets.UTF_8));
+            out1.flush();
+            Thread.sleep(50);
+            out1.write("\"col\":3,\"player\":1}\r\n".getBytes(StandardCharsets.UTF_8));
+            out1.flush();
+
+            Board b = JsonUtil.jsonToBoard(readUntil(in2, "BOARD ").substring(6));
+            assertEquals(1, b.get(2, 3), "Przeciwnik dostal plansze po ruchu");
+            assertEquals("YOUR_TURN", readUntil(in2, "YOUR_TURN"));
+
+            p2.getOutputStream().write("PROTO BINARY\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(readUntil(in2, "ERROR").startsWith("ERROR Unsupported protocol"),
+                    "Binarny protokol odrzucony, klient zostaje przy tekscie");
+            p2.close();
+        }
+    }
+
+    @Test
+    void testThreadCountDoesNotGrowWithConnections() throws Exception {
+        GameSessionRegistry registry = new GameSessionRegistry(9, false, null, null);
+        registry.getLobby().setAutoQueueDelay(0);
+        List<Socket> clients = new ArrayList<>();
+        try (NioServer server = new NioServer(registry, 0, 2)) {
+            server.start();
+            int threadsBefore = Thread.activeCount();
+            for (int i = 0; i < 200; i++) clients.add(new Socket("localhost", server.getPort()));
+            for (int i = 0; i < 100 && server.getConnectionCount() < 200; i++) Thread.sleep(20);
+
+            assertEquals(200, server.getConnectionCount());
+            assertEquals(100, registry.size(), "200 graczy w 100 grach");
+            assertEquals(2, server.getThreadCount());
+            assertTrue(Thread.activeCount() <= threadsBefore + 2, "Brak watku na polaczenie");
+
+            for (Socket c : clients) c.close();
+            for (int i = 0; i < 100 && server.getConnectionCount() > 0; i++) Thread.sleep(20);
+            assertEquals(0, server.getConnectionCount());
+            for (int i = 0; i < 100 && registry.size() > 0; i++) Thread.sleep(20); // rozlaczenia ida przez skrzynki sesji
+            assertEquals(0, registry.size(), "Puste gry usuniete");
+        } finally {
+            for (Socket c : clients) c.close();
+        }
+    }
+
+    /** Laczy widza: zanim trafi do jakiejkolwiek kolejki, przechodzi do WATCH. */
+    private static BufferedReader watch(Socket s, String gameId) throws Exception {
+        s.setSoTimeout(5000);
+        BufferedReader in = reader(s);
+        readUntil(in, "INFO Send QUEUE");
+        s.getOutputStream().write(("WATCH " + gameId + "\n").getBytes(StandardCharsets.UTF_8));
+        assertEquals("INFO Watching game " + gameId, readUntil(in, "INFO Watching"));
+        return in;
+    }
+
+    @Test
+    void testSpectatorsFollowGame() throws Exception {
+        GameSessionRegistry registry = new GameSessionRegistry(9, false, null, null);
+        registry.getLobby().setAutoQueueDelay(60_000); // gracze wysylaja QUEUE, widzowie WATCH
+        List<Socket> sockets = new ArrayList<>();
+        try (NioServer server = new NioServer(registry, 0, 2)) {
+            server.start();
+            Socket p1 = new Socket("localhost", server.getPort());
+            sockets.add(p1);
+            p1.setSoTimeout(5000);
+            BufferedReader in1 = reader(p1);
+            p1.getOutputStream().write("QUEUE\n".getBytes(StandardCharsets.UTF_8));
+            String connected = readUntil(in1, "INFO Connected");
+            String gameId = connected.substring(connected.lastIndexOf(' ') + 1);
+            Socket p2 = new Socket("localhost", server.getPort());
+            sockets.add(p2);
+            p2.getOutputStream().write("QUEUE\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(in1, "YOUR_TURN");
+
+            // zajety serwer: ktos czeka na przeciwnika, a widz i tak nie trafia do jego gry
+            Socket p3 = new Socket("localhost", server.getPort());
+            sockets.add(p3);
+            p3.setSoTimeout(5000);
+            p3.getOutputStream().write("QUEUE\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(reader(p3), "INFO Waiting");
+
+            List<BufferedReader> watchers = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                Socket s = new Socket("localhost", server.getPort());
+                sockets.add(s);
+                BufferedReader in = watch(s, gameId);
+                assertTrue(readUntil(in, "BOARD ").startsWith("BOARD "), "Widz od razu dostaje plansze");
+                watchers.add(in);
+            }
+            assertEquals(50, registry.get(Long.parseLong(gameId)).getSpectatorCount());
+            assertEquals(2, registry.size(), "Widzowie nie tworza gier");
+            assertEquals(1, registry.getLobby().getWaitingCount(), "Czekajacy gracz dalej czeka");
+
+            p1.getOutputStream().write("MOVE {\"row\":4,\"col\":4,\"player\":1}\n".getBytes(StandardCharsets.UTF_8));
+            for (BufferedReader in : watchers) {
+                Board b = JsonUtil.jsonToBoard(readUntil(in, "BOARD ").substring(6));
+                assertEquals(1, b.get(4, 4), "Kazdy widz widzi ruch");
+            }
+
+            // spozniony widz: od razu aktualna plansza z ruchem
+            Socket late = new Socket("localhost", server.getPort());
+            sockets.add(late);
+            BufferedReader lateIn = watch(late, gameId);
+            assertEquals(1, JsonUtil.jsonToBoard(readUntil(lateIn, "BOARD ").substring(6)).get(4, 4));
+
+            late.getOutputStream().write("PASS\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("ERROR Spectators cannot play", readUntil(lateIn, "ERROR"));
+        } finally {
+            for (Socket s : sockets) s.close();
+        }
+    }
+}
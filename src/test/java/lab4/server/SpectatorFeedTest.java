@@ -0,0 +1,41 @@
+package lab4.server;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import lab4.common.Board;
+import lab4.common.SerialExecutor;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpectatorFeedTest {
+
+    @Test
+    void testMessageAfterQueuedAddIsDelivered() throws Exception {
+        ExecutorService pool = SerialExecutor.newPool("test-feed", 1);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            pool.execute(() -> { // jedyny watek puli zajety: dodanie widza czeka w skrzynce
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            SpectatorFeed feed = new SpectatorFeed(7, new Board(9), pool);
+            FakeConnection c = new FakeConnection();
+            feed.add(c);
+            feed.publishLine("GAME_OVER Player 1 wins (resign)");
+            release.countDown();
+
+            for (int i = 0; i < 100 && c.lines.size() < 3; i++) Thread.sleep(10);
+            assertEquals(List.of("INFO Watching game 7", "BOARD", "GAME_OVER Player 1 wins (resign)"), c.lines,
+                    "Widz dodany przed GAME_OVER dostaje go po planszy");
+            assertEquals(1, feed.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}